@@ -0,0 +1,118 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.benchmarks;
+
+import io.fabric8.apmagent.ApmAgent;
+import io.fabric8.apmagent.ClassInfo;
+import io.fabric8.apmagent.MethodDescription;
+import io.fabric8.apmagent.metrics.ApmAgentContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of an instrumented call: the enter and exit calls made by the instrumented code, by method
+ * name and by method id. The agent's static entry points only add a check that the metrics are started
+ * to these calls, so the context is called directly rather than attaching the agent.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EnterExitBenchmark {
+    private static final String CLASS_NAME = "io.fabric8.apmagent.benchmarks.Target";
+    private ApmAgentContext context;
+    private String methodName;
+    private int methodId;
+
+    @Setup
+    public void setUp() {
+        context = new ApmAgentContext(ApmAgent.INSTANCE);
+        context.initialize();
+        context.start();
+        ClassInfo classInfo = context.getClassInfo(CLASS_NAME);
+        classInfo.addMethod("call", "() void");
+        MethodDescription methodDescription = classInfo.getMethodDescription(classInfo.addTransformedMethod("call", "() void"));
+        methodName = methodDescription.getFullMethodName();
+        methodId = context.getMethodId(methodDescription);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.stop();
+        context.shutDown();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void byName1() {
+        byName();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void byName8() {
+        byName();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void byName64() {
+        byName();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void byId1() {
+        byId();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void byId8() {
+        byId();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void byId64() {
+        byId();
+    }
+
+    private void byName() {
+        Thread thread = Thread.currentThread();
+        context.enterMethod(thread, methodName, false);
+        context.exitMethod(thread, methodName, false);
+    }
+
+    private void byId() {
+        context.enterMethod(methodId);
+        context.exitMethod(methodId);
+    }
+}
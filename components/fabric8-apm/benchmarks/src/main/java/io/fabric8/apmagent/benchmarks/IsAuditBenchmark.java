@@ -0,0 +1,68 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.benchmarks;
+
+import io.fabric8.apmagent.ApmAgent;
+import io.fabric8.apmagent.ApmConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of checking the white and black lists, as done for every class loaded and every method of
+ * the classes transformed, with the default lists.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IsAuditBenchmark {
+    private static final String[] CLASS_NAMES = {
+        "java.util.HashMap",
+        "io.fabric8.testApp.TestApp",
+        "org.apache.camel.impl.DefaultCamelContext",
+        "com.example.service.OrderService",
+        "org.objectweb.asm.ClassReader",
+        "sun.reflect.GeneratedMethodAccessor12",
+        "org.eclipse.jetty.server.Server",
+        "com.example.repository.CustomerRepository"
+    };
+    private static final String[] METHOD_NAMES = {"get", "handle", "process", "run", "toString", "findById", "execute", "apply"};
+    private final ApmConfiguration configuration = ApmAgent.INSTANCE.getConfiguration();
+    private int index;
+
+    @Benchmark
+    public boolean isAuditClass() {
+        int i = index++ & (CLASS_NAMES.length - 1);
+        return configuration.isAudit(CLASS_NAMES[i]);
+    }
+
+    @Benchmark
+    public boolean isAuditMethod() {
+        int i = index++ & (CLASS_NAMES.length - 1);
+        return configuration.isAudit(CLASS_NAMES[i], METHOD_NAMES[i]);
+    }
+}
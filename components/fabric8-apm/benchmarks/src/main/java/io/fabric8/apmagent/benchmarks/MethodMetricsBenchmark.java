@@ -0,0 +1,62 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.benchmarks;
+
+import io.fabric8.apmagent.metrics.MethodMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of recording a timing in the aggregate metrics of a method, which all threads calling it share.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MethodMetricsBenchmark {
+    private final MethodMetrics methodMetrics = new MethodMetrics("io.fabric8.apmagent.benchmarks.Target@call() void");
+
+    @Benchmark
+    @Threads(1)
+    public void update1() {
+        methodMetrics.update(ThreadLocalRandom.current().nextLong(1000, 1000000));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void update8() {
+        methodMetrics.update(ThreadLocalRandom.current().nextLong(1000, 1000000));
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void update64() {
+        methodMetrics.update(ThreadLocalRandom.current().nextLong(1000, 1000000));
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.benchmarks;
+
+import io.fabric8.apmagent.ApmAgent;
+import io.fabric8.apmagent.metrics.ApmAgentContext;
+import io.fabric8.apmagent.strategy.sampling.SamplingStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of one sample taken by the sampling strategy, with a number of threads blocked at a given
+ * stack depth.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SamplingBenchmark {
+    @Param({"8", "64"})
+    private int threadCount;
+
+    @Param({"32"})
+    private int stackDepth;
+
+    private ApmAgentContext context;
+    private SamplingStrategy samplingStrategy;
+    private final List<Thread> threads = new ArrayList<>();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    @Setup
+    public void setUp() throws Exception {
+        final CountDownLatch ready = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    recurse(stackDepth, ready);
+                }
+            }, "SamplingBenchmark-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        ready.await();
+        context = new ApmAgentContext(ApmAgent.INSTANCE);
+        context.initialize();
+        samplingStrategy = new SamplingStrategy(context);
+        //the first sample finds the threads to sample
+        samplingStrategy.sample();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        done.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        context.shutDown();
+    }
+
+    @Benchmark
+    public void sample() {
+        samplingStrategy.sample();
+    }
+
+    private void recurse(int depth, CountDownLatch ready) {
+        if (depth > 0) {
+            recurse(depth - 1, ready);
+        } else {
+            ready.countDown();
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
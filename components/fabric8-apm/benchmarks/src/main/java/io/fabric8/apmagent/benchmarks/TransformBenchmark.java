@@ -0,0 +1,114 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.benchmarks;
+
+import io.fabric8.apmagent.ApmAgent;
+import io.fabric8.apmagent.metrics.ApmAgentContext;
+import io.fabric8.apmagent.strategy.trace.TraceStrategy;
+import org.objectweb.asm.ClassReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * The number of classes instrumented per second, over a corpus of real class files - by default the
+ * ASM classes bundled with the agent.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransformBenchmark {
+    @Param({"org/objectweb/asm/"})
+    private String packagePrefix;
+
+    private ApmAgentContext context;
+    private TraceStrategy traceStrategy;
+    private final List<String> classNames = new ArrayList<>();
+    private final List<byte[]> classFiles = new ArrayList<>();
+    private ClassLoader classLoader;
+    private int index;
+
+    @Setup
+    public void setUp() throws Exception {
+        //a pattern, as the class names passed to transform() are internal names - and ASM is black listed by default
+        ApmAgent.INSTANCE.getConfiguration().setWhiteList(packagePrefix.replace('/', '.') + ".*");
+        context = new ApmAgentContext(ApmAgent.INSTANCE);
+        context.initialize();
+        traceStrategy = new TraceStrategy(context, null);
+        classLoader = getClass().getClassLoader();
+        File jar = new File(ClassReader.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        try (JarFile jarFile = new JarFile(jar)) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (name.startsWith(packagePrefix) && name.endsWith(".class")) {
+                    try (InputStream in = jarFile.getInputStream(entry)) {
+                        classNames.add(name.substring(0, name.length() - ".class".length()));
+                        classFiles.add(readFully(in));
+                    }
+                }
+            }
+        }
+        if (classFiles.isEmpty()) {
+            throw new IllegalStateException("No classes found in " + jar + " starting with " + packagePrefix);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.shutDown();
+    }
+
+    @Benchmark
+    public byte[] transform() throws Exception {
+        int i = index++ % classFiles.size();
+        return traceStrategy.transform(classLoader, classNames.get(i), null, null, classFiles.get(i));
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            result.write(buffer, 0, count);
+        }
+        return result.toByteArray();
+    }
+}
@@ -16,12 +16,17 @@
 package io.fabric8.apmagent;
 
 import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import io.fabric8.apmagent.metrics.ApmAgentContext;
+import io.fabric8.apmagent.metrics.SlowCall;
 import io.fabric8.apmagent.metrics.ThreadMetrics;
+import io.fabric8.apmagent.metrics.Trace;
+import io.fabric8.apmagent.strategy.hybrid.HybridStrategy;
 import io.fabric8.apmagent.strategy.sampling.SamplingStrategy;
 import io.fabric8.apmagent.strategy.trace.TraceStrategy;
 import io.fabric8.apmagent.utils.PropertyUtils;
@@ -36,6 +41,7 @@ import org.slf4j.LoggerFactory;
 public class ApmAgent implements ApmAgentMBean, ApmConfigurationChangeListener {
     public static final ApmAgent INSTANCE = new ApmAgent();
     private static final Logger LOG = LoggerFactory.getLogger(ApmAgent.class);
+    private static final int HOTTEST_MONITOR_COUNT = 20;
 
     final ApmConfiguration configuration = new ApmConfiguration();
     private AtomicBoolean initialized = new AtomicBoolean();
@@ -98,6 +104,71 @@ public class ApmAgent implements ApmAgentMBean, ApmConfigurationChangeListener {
         }
     }
 
+    public static void enterMethod(int methodId) {
+        if (INSTANCE.started.get()) {
+            INSTANCE.apmAgentContext.enterMethod(methodId);
+        }
+    }
+
+    public static void exitMethod(int methodId) {
+        if (INSTANCE.started.get()) {
+            INSTANCE.apmAgentContext.exitMethod(methodId);
+        }
+    }
+
+    public static void exitMethod(int methodId, long startTime) {
+        if (INSTANCE.started.get()) {
+            INSTANCE.apmAgentContext.exitMethod(methodId, startTime);
+        }
+    }
+
+    /**
+     * Called on entry to the methods that capture their arguments for slow calls
+     */
+    public static void enterMethod(String methodName, Object[] arguments) {
+        if (INSTANCE.started.get()) {
+            INSTANCE.apmAgentContext.enterMethod(Thread.currentThread(), methodName, false, arguments);
+        }
+    }
+
+    /**
+     * Called on entry to the methods that capture their arguments for slow calls
+     */
+    public static void enterMethod(int methodId, Object[] arguments) {
+        if (INSTANCE.started.get()) {
+            INSTANCE.apmAgentContext.enterMethod(methodId, arguments);
+        }
+    }
+
+    /**
+     * Called on exit from the methods that keep their start time, and capture their arguments for slow calls
+     */
+    public static void exitMethod(int methodId, long startTime, Object[] arguments) {
+        if (INSTANCE.started.get()) {
+            INSTANCE.apmAgentContext.exitMethod(methodId, startTime, arguments);
+        }
+    }
+
+    /**
+     * @return a task that continues the trace in progress on the calling thread when it is run on another thread
+     */
+    public static Runnable wrap(Runnable task) {
+        if (INSTANCE.started.get()) {
+            return INSTANCE.apmAgentContext.wrap(task);
+        }
+        return task;
+    }
+
+    /**
+     * @return a task that continues the trace in progress on the calling thread when it is run on another thread
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        if (INSTANCE.started.get()) {
+            return INSTANCE.apmAgentContext.wrap(task);
+        }
+        return task;
+    }
+
     public List<String> getTransformedMethods() {
         if (isInitialized()) {
             return apmAgentContext.getTransformedMethods();
@@ -112,6 +183,177 @@ public class ApmAgent implements ApmAgentMBean, ApmConfigurationChangeListener {
         return Collections.EMPTY_LIST;
     }
 
+    @Override
+    public long getTimedCallCost() {
+        return apmAgentContext.getTimedCallCost();
+    }
+
+    @Override
+    public double getOverheadPercentage() {
+        return isInitialized() ? apmAgentContext.getOverhead().getPercentage() : 0;
+    }
+
+    @Override
+    public long getCallOverheadTime() {
+        return isInitialized() ? apmAgentContext.getOverhead().getCallTime() : 0;
+    }
+
+    @Override
+    public long getHouseKeepingOverheadTime() {
+        return isInitialized() ? apmAgentContext.getOverhead().getHouseKeepingTime() : 0;
+    }
+
+    @Override
+    public long getTransformOverheadTime() {
+        return isInitialized() ? apmAgentContext.getOverhead().getTransformTime() : 0;
+    }
+
+    @Override
+    public long getSamplingOverheadTime() {
+        return isInitialized() ? apmAgentContext.getOverhead().getSamplingTime() : 0;
+    }
+
+    @Override
+    public int getOverheadBackOff() {
+        return isInitialized() ? apmAgentContext.getOverheadBackOff() : 1;
+    }
+
+    @Override
+    public List<String> getOverheadDisabledMethods() {
+        return isInitialized() ? apmAgentContext.getOverheadDisabledMethods() : Collections.<String>emptyList();
+    }
+
+    @Override
+    public long getTransformedClassCount() {
+        TraceStrategy s = getTraceStrategy();
+        return s != null ? s.getTransformedClassCount() : 0;
+    }
+
+    @Override
+    public long getPendingClassCount() {
+        TraceStrategy s = getTraceStrategy();
+        return s != null ? s.getPendingClassCount() : 0;
+    }
+
+    @Override
+    public long getFailedClassCount() {
+        TraceStrategy s = getTraceStrategy();
+        return s != null ? s.getFailedClassCount() : 0;
+    }
+
+    @Override
+    public long getLastTransformTime() {
+        TraceStrategy s = getTraceStrategy();
+        return s != null ? s.getLastTransformTime() : 0;
+    }
+
+    @Override
+    public String getFoldedStacks() {
+        SamplingStrategy s = getSamplingStrategy();
+        return s != null ? s.getFoldedStacks() : "";
+    }
+
+    @Override
+    public void resetSampledStacks() {
+        SamplingStrategy s = getSamplingStrategy();
+        if (s != null) {
+            s.getCallTree().clear();
+        }
+    }
+
+    @Override
+    public List<String> getHottestMonitors() {
+        SamplingStrategy s = getSamplingStrategy();
+        return s != null ? s.getMonitorTable().getHottestMonitors(HOTTEST_MONITOR_COUNT) : Collections.<String>emptyList();
+    }
+
+    @Override
+    public long getEvictedMonitorCount() {
+        SamplingStrategy s = getSamplingStrategy();
+        return s != null ? s.getMonitorTable().getEvictedCount() : 0;
+    }
+
+    @Override
+    public void resetHottestMonitors() {
+        SamplingStrategy s = getSamplingStrategy();
+        if (s != null) {
+            s.getMonitorTable().clear();
+        }
+    }
+
+    @Override
+    public List<String> getSlowTraces() {
+        List<String> result = new ArrayList<>();
+        if (isInitialized()) {
+            for (Trace trace : apmAgentContext.getSlowTraces()) {
+                result.add(trace.toString());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void clearSlowTraces() {
+        if (isInitialized()) {
+            apmAgentContext.clearSlowTraces();
+        }
+    }
+
+    @Override
+    public List<String> getSlowCalls() {
+        List<String> result = new ArrayList<>();
+        if (isInitialized()) {
+            for (SlowCall slowCall : apmAgentContext.getSlowCalls()) {
+                result.add(slowCall.toString());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void clearSlowCalls() {
+        if (isInitialized()) {
+            apmAgentContext.clearSlowCalls();
+        }
+    }
+
+    @Override
+    public long getGcPauseCount() {
+        return isInitialized() ? apmAgentContext.getGcPauses().getTotalCount() : 0;
+    }
+
+    @Override
+    public long getGcPauseTime() {
+        return isInitialized() ? apmAgentContext.getGcPauses().getTotalTime() : 0;
+    }
+
+    @Override
+    public List<String> getHotMethods() {
+        Strategy s = this.strategy;
+        if (s instanceof HybridStrategy) {
+            List<String> result = new ArrayList<>(((HybridStrategy) s).getHotMethods());
+            Collections.sort(result);
+            return result;
+        }
+        return Collections.emptyList();
+    }
+
+    private TraceStrategy getTraceStrategy() {
+        Strategy s = this.strategy;
+        if (s instanceof HybridStrategy) {
+            return ((HybridStrategy) s).getTraceStrategy();
+        }
+        return s instanceof TraceStrategy ? (TraceStrategy) s : null;
+    }
+
+    private SamplingStrategy getSamplingStrategy() {
+        Strategy s = this.strategy;
+        if (s instanceof HybridStrategy) {
+            return ((HybridStrategy) s).getSamplingStrategy();
+        }
+        return s instanceof SamplingStrategy ? (SamplingStrategy) s : null;
+    }
+
     public List<ThreadMetrics> getThreadMetrics() {
         if (isInitialized()) {
             return apmAgentContext.getThreadMetrics();
@@ -143,6 +385,10 @@ public class ApmAgent implements ApmAgentMBean, ApmConfigurationChangeListener {
                     this.strategy = new TraceStrategy(apmAgentContext, instrumentation);
                     LOG.debug("Using Trace strategy");
                     break;
+                case HYBRID:
+                    this.strategy = new HybridStrategy(apmAgentContext, instrumentation);
+                    LOG.debug("Using Hybrid strategy");
+                    break;
                 default:
                     this.strategy = new SamplingStrategy(apmAgentContext);
                     LOG.debug("Using Sampling strategy");
@@ -232,6 +478,18 @@ public class ApmAgent implements ApmAgentMBean, ApmConfigurationChangeListener {
             if (configuration.isThreadMetricDepthChanged()) {
                 apmAgentContext.threadMetricsDepthChanged();
             }
+            if (configuration.isTraceChanged()) {
+                apmAgentContext.traceConfigurationChanged();
+            }
+            if (configuration.isExpectedIntervalChanged()) {
+                apmAgentContext.expectedIntervalChanged();
+            }
+            if (configuration.isSlowCallChanged()) {
+                apmAgentContext.slowCallConfigurationChanged();
+            }
+            if (configuration.isResourceTimingChanged()) {
+                apmAgentContext.resourceTimingChanged();
+            }
             if (configuration.isStrategyChanged()) {
                 boolean hasStarted = this.started.get();
                 if (initialized.get()) {
@@ -36,4 +36,125 @@ public interface ApmAgentMBean {
      * @return List of all <className>@<methodName>
      */
     List<String> getAllMethods();
+
+    /**
+     * @return the estimated time, in nanoseconds, the agent adds to each call it times
+     */
+    long getTimedCallCost();
+
+    /**
+     * @return the time the agent spent itself in the last housekeeping window, as a percentage of the CPU time of the process
+     */
+    double getOverheadPercentage();
+
+    /**
+     * @return the estimated total time in milliseconds the agent has added to the enter and exit of calls
+     */
+    long getCallOverheadTime();
+
+    /**
+     * @return the total time in milliseconds the agent has spent housekeeping
+     */
+    long getHouseKeepingOverheadTime();
+
+    /**
+     * @return the total time in milliseconds the agent has spent transforming classes
+     */
+    long getTransformOverheadTime();
+
+    /**
+     * @return the total time in milliseconds the agent has spent sampling stacks
+     */
+    long getSamplingOverheadTime();
+
+    /**
+     * @return the factor by which sampling has been widened to keep the agent within its overhead ceiling
+     */
+    int getOverheadBackOff();
+
+    /**
+     * @return the methods no longer instrumented to keep the agent within its overhead ceiling
+     */
+    List<String> getOverheadDisabledMethods();
+
+    /**
+     * @return the number of classes retransformed by the trace strategy
+     */
+    long getTransformedClassCount();
+
+    /**
+     * @return the number of classes waiting to be retransformed by the trace strategy
+     */
+    long getPendingClassCount();
+
+    /**
+     * @return the number of classes the trace strategy failed to retransform
+     */
+    long getFailedClassCount();
+
+    /**
+     * @return the time in milliseconds the last retransformation of the application took
+     */
+    long getLastTransformTime();
+
+    /**
+     * @return the stacks sampled by the sampling strategy, in the folded format used by flame graph tools
+     */
+    String getFoldedStacks();
+
+    /**
+     * Discards the stacks sampled so far by the sampling strategy
+     */
+    void resetSampledStacks();
+
+    /**
+     * @return the monitors and locks sampled threads were most often blocked on, or waiting for, with their owners
+     */
+    List<String> getHottestMonitors();
+
+    /**
+     * @return the number of the least contended monitors evicted to make room for new ones, as at most
+     * 10000 are kept
+     */
+    long getEvictedMonitorCount();
+
+    /**
+     * Discards the monitors sampled so far
+     */
+    void resetHottestMonitors();
+
+    /**
+     * @return the most recent traces from the trace entry points that took longer than the trace threshold
+     */
+    List<String> getSlowTraces();
+
+    /**
+     * Discards the slow traces kept so far
+     */
+    void clearSlowTraces();
+
+    /**
+     * @return the most recent calls of instrumented methods that took longer than the slow call threshold
+     */
+    List<String> getSlowCalls();
+
+    /**
+     * Discards the slow calls kept so far
+     */
+    void clearSlowCalls();
+
+    /**
+     * @return the number of garbage collections in the last reporting window (the export interval)
+     */
+    long getGcPauseCount();
+
+    /**
+     * @return the time in milliseconds spent in garbage collection in the last reporting window
+     */
+    long getGcPauseTime();
+
+    /**
+     * @return the methods the hybrid strategy has found hot and instrumented, as <className>.<methodName>
+     */
+    List<String> getHotMethods();
 }
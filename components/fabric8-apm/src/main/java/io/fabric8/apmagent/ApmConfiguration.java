@@ -23,15 +23,19 @@ import java.beans.PropertyEditorManager;
 import java.lang.reflect.Method;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 public class ApmConfiguration implements ApmConfigurationMBean {
     public enum STRATEGY {
         TRACE,
-        SAMPLE;
+        SAMPLE,
+        HYBRID;
 
         static STRATEGY getStrategy(String name) {
             for (STRATEGY v : values()) {
@@ -51,6 +55,33 @@ public class ApmConfiguration implements ApmConfigurationMBean {
     private boolean autoStartMetrics = false;
     private boolean usePlatformMBeanServer = true;
     private boolean verifyClasses = false;
+    private boolean useMethodIds = false;
+    private boolean localVariableTiming = false;
+    private boolean adaptiveSampling = false;
+    private long samplingCallRateThreshold = 10000;
+    private long overheadBudget = 50;
+    private double overheadCeiling = 0;
+    private int transformBatchSize = 50;
+    private String transformCacheDirectory;
+    private long transformCacheMaxSize = 64 * 1024 * 1024;
+    private boolean boundedBytecodeRetention = false;
+    private String bytecodeSpillFile;
+    private String exportSink;
+    private long exportInterval = 10000;
+    private int exportFileCount = 4;
+    private long exportFileMaxSize = 16 * 1024 * 1024;
+    private long traceThreshold = 100;
+    private int traceBufferSize = 512;
+    private int traceHistorySize = 100;
+    private boolean traceChanged = false;
+    private long slowCallThreshold = 0;
+    private int slowCallHistorySize = 256;
+    private int slowCallArgumentCount = 3;
+    private boolean slowCallChanged = false;
+    private long expectedInterval = 0;
+    private boolean expectedIntervalChanged = false;
+    private boolean resourceTimingChanged = false;
+    private int transformThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
     private int methodMetricDepth = 10;
     private int threadMetricDepth = 5;
     private boolean filterChanged = false;
@@ -58,8 +89,23 @@ public class ApmConfiguration implements ApmConfigurationMBean {
     private boolean threadMetricDepthChanged = false;
     private boolean strategyChanged = false;
     private int samplingInterval = 1;
-    private List<FilterItem> whiteFilterList = new ArrayList<>();
-    private List<FilterItem> blackFilterList = new ArrayList<>();
+    private int samplingDepth = 32;
+    private String samplingThreadFilter;
+    private int hotMethodCount = 20;
+    private long hotMethodWindow = 10000;
+    private volatile List<FilterItem> whiteFilterList = new ArrayList<>();
+    private volatile List<FilterItem> blackFilterList = new ArrayList<>();
+    private volatile FilterMatcher whiteFilterMatcher = new FilterMatcher(whiteFilterList);
+    private volatile FilterMatcher blackFilterMatcher = new FilterMatcher(blackFilterList);
+    private volatile List<FilterItem> traceEntryPointList = new ArrayList<>();
+    private volatile FilterMatcher traceEntryPointMatcher = new FilterMatcher(traceEntryPointList);
+    private volatile List<FilterItem> resourceTimingList = new ArrayList<>();
+    private volatile FilterMatcher resourceTimingMatcher = new FilterMatcher(resourceTimingList);
+    private volatile List<FilterItem> contentionTimingList = new ArrayList<>();
+    private volatile FilterMatcher contentionTimingMatcher = new FilterMatcher(contentionTimingList);
+    private volatile List<FilterItem> slowCallArgumentList = new ArrayList<>();
+    private volatile FilterMatcher slowCallArgumentMatcher = new FilterMatcher(slowCallArgumentList);
+    private final Set<String> disabledMethods = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
     private List<ApmConfigurationChangeListener> changeListeners = new CopyOnWriteArrayList<>();
     private STRATEGY strategy = STRATEGY.TRACE;
 
@@ -100,8 +146,9 @@ public class ApmConfiguration implements ApmConfigurationMBean {
 
     @Override
     public void setWhiteList(String whiteList) {
-        whiteFilterList = new ArrayList<>();
-        initializeList(whiteList, this.whiteFilterList);
+        List<FilterItem> list = new ArrayList<>();
+        initializeList(whiteList, list);
+        updateWhiteList(list);
         filterChanged = true;
         fireConfigurationChanged();
     }
@@ -113,8 +160,9 @@ public class ApmConfiguration implements ApmConfigurationMBean {
 
     @Override
     public void setBlackList(String blackList) {
-        this.blackFilterList = new ArrayList<>();
-        initializeList(blackList, this.blackFilterList);
+        List<FilterItem> list = new ArrayList<>();
+        initializeList(blackList, list);
+        updateBlackList(list);
         filterChanged = true;
         fireConfigurationChanged();
     }
@@ -127,11 +175,31 @@ public class ApmConfiguration implements ApmConfigurationMBean {
         if (classAndMethod.length > 1) {
             filterItem.setMethodName(classAndMethod[1]);
         }
-        blackFilterList.add(filterItem);
+        addBlackFilterItem(filterItem);
         filterChanged = true;
         fireConfigurationChanged();
     }
 
+    /**
+     * Stops instrumenting the one method of the class, whatever the white and black lists say - used to keep
+     * the agent within its overhead ceiling, without changing the lists the user configured
+     */
+    public void disableMethod(String className, String methodName) {
+        if (disabledMethods.add(className.replace('/', '.') + "@" + methodName)) {
+            filterChanged = true;
+            fireConfigurationChanged();
+        }
+    }
+
+    /**
+     * @return the methods, as <code>&lt;className&gt;@&lt;methodName&gt;</code>, disabled by {@link #disableMethod(String, String)}
+     */
+    public List<String> getDisabledMethods() {
+        List<String> result = new ArrayList<>(disabledMethods);
+        Collections.sort(result);
+        return result;
+    }
+
     @Override
     public void addToWhiteList(String s) {
         FilterItem filterItem = new FilterItem();
@@ -140,7 +208,7 @@ public class ApmConfiguration implements ApmConfigurationMBean {
         if (classAndMethod.length > 1) {
             filterItem.setMethodName(classAndMethod[1]);
         }
-        whiteFilterList.add(filterItem);
+        addWhiteFilterItem(filterItem);
         filterChanged = true;
         fireConfigurationChanged();
     }
@@ -207,6 +275,506 @@ public class ApmConfiguration implements ApmConfigurationMBean {
         this.verifyClasses = verifyClasses;
     }
 
+    @Override
+    public boolean isUseMethodIds() {
+        return useMethodIds;
+    }
+
+    /**
+     * When enabled, instrumented methods identify themselves by an integer id rather than
+     * by name, so the runtime can look up metrics by array index instead of hashing.
+     * Takes effect for classes transformed after the change.
+     */
+    @Override
+    public void setUseMethodIds(boolean useMethodIds) {
+        this.useMethodIds = useMethodIds;
+    }
+
+    @Override
+    public boolean isLocalVariableTiming() {
+        return localVariableTiming;
+    }
+
+    /**
+     * When enabled, instrumented methods keep their start time in a local variable and report
+     * their elapsed time from every exit, including exceptional ones, using method ids.
+     * Takes effect for classes transformed after the change.
+     */
+    @Override
+    public void setLocalVariableTiming(boolean localVariableTiming) {
+        this.localVariableTiming = localVariableTiming;
+        checkLocalVariableTiming();
+    }
+
+    /**
+     * @return true if the method should keep its start time in a local variable. Traces need every call to be
+     * entered, as do the methods whose resource usage or contention is measured, so those are instrumented with
+     * enter and exit calls instead
+     */
+    public boolean isLocalVariableTiming(String className, String methodName) {
+        FilterMatcher resources = resourceTimingMatcher;
+        FilterMatcher contention = contentionTimingMatcher;
+        return localVariableTiming && !isTraceEnabled() &&
+                   (resources.isEmpty() || !resources.matches(className, methodName, true)) &&
+                   (contention.isEmpty() || !contention.matches(className, methodName, true));
+    }
+
+    @Override
+    public boolean isAdaptiveSampling() {
+        return adaptiveSampling;
+    }
+
+    /**
+     * When enabled with the trace strategy, methods called more often than the
+     * samplingCallRateThreshold are only timed for 1 in N calls.
+     */
+    @Override
+    public void setAdaptiveSampling(boolean adaptiveSampling) {
+        this.adaptiveSampling = adaptiveSampling;
+    }
+
+    @Override
+    public long getSamplingCallRateThreshold() {
+        return samplingCallRateThreshold;
+    }
+
+    /**
+     * @param samplingCallRateThreshold calls per second above which a method's calls are sampled
+     */
+    @Override
+    public void setSamplingCallRateThreshold(long samplingCallRateThreshold) {
+        this.samplingCallRateThreshold = samplingCallRateThreshold;
+    }
+
+    @Override
+    public long getOverheadBudget() {
+        return overheadBudget;
+    }
+
+    /**
+     * @param overheadBudget the average time, in nanoseconds, the agent may add to each call of a sampled method
+     */
+    @Override
+    public void setOverheadBudget(long overheadBudget) {
+        this.overheadBudget = overheadBudget;
+    }
+
+    @Override
+    public double getOverheadCeiling() {
+        return overheadCeiling;
+    }
+
+    /**
+     * @param overheadCeiling the percentage of the CPU time of the process the agent may use itself, before it
+     *                        widens its sampling and stops instrumenting the cheapest, most frequently called
+     *                        methods - or 0 to never back off
+     */
+    @Override
+    public void setOverheadCeiling(double overheadCeiling) {
+        this.overheadCeiling = overheadCeiling;
+    }
+
+    @Override
+    public int getTransformBatchSize() {
+        return transformBatchSize;
+    }
+
+    /**
+     * @param transformBatchSize the number of classes passed to each call to retransform classes
+     */
+    @Override
+    public void setTransformBatchSize(int transformBatchSize) {
+        this.transformBatchSize = transformBatchSize;
+    }
+
+    @Override
+    public int getTransformThreads() {
+        return transformThreads;
+    }
+
+    /**
+     * @param transformThreads the number of threads retransforming classes in parallel.
+     *                         Takes effect when the strategy is next created
+     */
+    @Override
+    public void setTransformThreads(int transformThreads) {
+        this.transformThreads = transformThreads;
+    }
+
+    @Override
+    public String getTransformCacheDirectory() {
+        return transformCacheDirectory;
+    }
+
+    /**
+     * @param transformCacheDirectory a directory to keep transformed classes in, so they can be reused
+     *                                when the agent is restarted - the cache is disabled if not set
+     */
+    @Override
+    public void setTransformCacheDirectory(String transformCacheDirectory) {
+        this.transformCacheDirectory = transformCacheDirectory;
+    }
+
+    @Override
+    public long getTransformCacheMaxSize() {
+        return transformCacheMaxSize;
+    }
+
+    /**
+     * @param transformCacheMaxSize the size in bytes above which the least recently used cached classes are removed
+     */
+    @Override
+    public void setTransformCacheMaxSize(long transformCacheMaxSize) {
+        this.transformCacheMaxSize = transformCacheMaxSize;
+    }
+
+    @Override
+    public boolean isBoundedBytecodeRetention() {
+        return boundedBytecodeRetention;
+    }
+
+    /**
+     * @param boundedBytecodeRetention if true, original class files are only kept for the classes instrumented,
+     *                                 and are kept compressed, and transformed class files aren't kept at all.
+     *                                 Takes effect when the agent is initialized
+     */
+    @Override
+    public void setBoundedBytecodeRetention(boolean boundedBytecodeRetention) {
+        this.boundedBytecodeRetention = boundedBytecodeRetention;
+    }
+
+    @Override
+    public String getBytecodeSpillFile() {
+        return bytecodeSpillFile;
+    }
+
+    /**
+     * @param bytecodeSpillFile with boundedBytecodeRetention, a file to keep the compressed original class
+     *                          files in rather than on the heap
+     */
+    @Override
+    public void setBytecodeSpillFile(String bytecodeSpillFile) {
+        this.bytecodeSpillFile = bytecodeSpillFile;
+    }
+
+    @Override
+    public String getExportSink() {
+        return exportSink;
+    }
+
+    /**
+     * @param exportSink where to periodically push metrics to: <code>stdout</code>, <code>file:&lt;directory&gt;</code>,
+     *                   <code>udp://&lt;host&gt;:&lt;port&gt;</code> or <code>tcp://&lt;host&gt;:&lt;port&gt;</code> - nothing
+     *                   is exported if not set. Takes effect when the metrics are (re)started
+     */
+    @Override
+    public void setExportSink(String exportSink) {
+        this.exportSink = exportSink;
+    }
+
+    @Override
+    public long getExportInterval() {
+        return exportInterval;
+    }
+
+    /**
+     * @param exportInterval the time in milliseconds between exports
+     */
+    @Override
+    public void setExportInterval(long exportInterval) {
+        this.exportInterval = exportInterval;
+    }
+
+    @Override
+    public int getExportFileCount() {
+        return exportFileCount;
+    }
+
+    /**
+     * @param exportFileCount the number of files a file sink rotates through
+     */
+    @Override
+    public void setExportFileCount(int exportFileCount) {
+        this.exportFileCount = exportFileCount;
+    }
+
+    @Override
+    public String getTraceEntryPoints() {
+        return getListAsString(traceEntryPointList);
+    }
+
+    /**
+     * @param traceEntryPoints the methods that start a trace of the calls they make, in the same format
+     *                         as the white list - no traces are recorded if empty. While set, localVariableTiming
+     *                         is not used for the classes transformed
+     */
+    @Override
+    public void setTraceEntryPoints(String traceEntryPoints) {
+        List<FilterItem> list = new ArrayList<>();
+        if (traceEntryPoints != null && !traceEntryPoints.trim().isEmpty()) {
+            initializeList(traceEntryPoints, list);
+        }
+        synchronized (this) {
+            traceEntryPointMatcher = new FilterMatcher(list);
+            traceEntryPointList = list;
+        }
+        traceChanged = true;
+        checkLocalVariableTiming();
+        fireConfigurationChanged();
+    }
+
+    @Override
+    public long getTraceThreshold() {
+        return traceThreshold;
+    }
+
+    /**
+     * @param traceThreshold the time in milliseconds a trace has to take to be kept
+     */
+    @Override
+    public void setTraceThreshold(long traceThreshold) {
+        this.traceThreshold = traceThreshold;
+        traceChanged = true;
+        fireConfigurationChanged();
+    }
+
+    @Override
+    public int getTraceBufferSize() {
+        return traceBufferSize;
+    }
+
+    /**
+     * @param traceBufferSize the number of calls recorded per trace - further calls are counted, but dropped
+     */
+    @Override
+    public void setTraceBufferSize(int traceBufferSize) {
+        this.traceBufferSize = traceBufferSize;
+        traceChanged = true;
+        fireConfigurationChanged();
+    }
+
+    @Override
+    public int getTraceHistorySize() {
+        return traceHistorySize;
+    }
+
+    /**
+     * @param traceHistorySize the number of slow traces kept
+     */
+    @Override
+    public void setTraceHistorySize(int traceHistorySize) {
+        this.traceHistorySize = traceHistorySize;
+        traceChanged = true;
+        fireConfigurationChanged();
+    }
+
+    public boolean isTraceEnabled() {
+        return !traceEntryPointMatcher.isEmpty();
+    }
+
+    public boolean isTraceEntryPoint(String className, String methodName) {
+        return traceEntryPointMatcher.matches(className, methodName, true);
+    }
+
+    /**
+     * @param fullMethodName the name of an instrumented method, as passed to the agent
+     */
+    public boolean isTraceEntryPoint(String fullMethodName) {
+        return matchesFullMethodName(traceEntryPointMatcher, fullMethodName);
+    }
+
+    @Override
+    public String getResourceTimingMethods() {
+        return getListAsString(resourceTimingList);
+    }
+
+    /**
+     * @param resourceTimingMethods the methods to measure the CPU time and bytes allocated of, in the same
+     *                              format as the white list. They are instrumented with enter and exit calls,
+     *                              even with localVariableTiming
+     */
+    @Override
+    public void setResourceTimingMethods(String resourceTimingMethods) {
+        List<FilterItem> list = new ArrayList<>();
+        if (resourceTimingMethods != null && !resourceTimingMethods.trim().isEmpty()) {
+            initializeList(resourceTimingMethods, list);
+        }
+        synchronized (this) {
+            resourceTimingMatcher = new FilterMatcher(list);
+            resourceTimingList = list;
+        }
+        resourceTimingChanged = true;
+        checkLocalVariableTiming();
+        fireConfigurationChanged();
+    }
+
+    /**
+     * @param fullMethodName the name of an instrumented method, as passed to the agent
+     */
+    public boolean isResourceTiming(String fullMethodName) {
+        FilterMatcher matcher = resourceTimingMatcher;
+        return !matcher.isEmpty() && matchesFullMethodName(matcher, fullMethodName);
+    }
+
+    @Override
+    public String getContentionTimingMethods() {
+        return getListAsString(contentionTimingList);
+    }
+
+    /**
+     * @param contentionTimingMethods the methods to measure the time spent blocked on monitors and waiting of, in
+     *                                the same format as the white list. Thread contention monitoring is enabled
+     *                                if any are set. They are instrumented with enter and exit calls, even with
+     *                                localVariableTiming
+     */
+    @Override
+    public void setContentionTimingMethods(String contentionTimingMethods) {
+        List<FilterItem> list = new ArrayList<>();
+        if (contentionTimingMethods != null && !contentionTimingMethods.trim().isEmpty()) {
+            initializeList(contentionTimingMethods, list);
+        }
+        synchronized (this) {
+            contentionTimingMatcher = new FilterMatcher(list);
+            contentionTimingList = list;
+        }
+        resourceTimingChanged = true;
+        checkLocalVariableTiming();
+        fireConfigurationChanged();
+    }
+
+    public boolean isContentionTimingEnabled() {
+        return !contentionTimingMatcher.isEmpty();
+    }
+
+    /**
+     * @param fullMethodName the name of an instrumented method, as passed to the agent
+     */
+    public boolean isContentionTiming(String fullMethodName) {
+        FilterMatcher matcher = contentionTimingMatcher;
+        return !matcher.isEmpty() && matchesFullMethodName(matcher, fullMethodName);
+    }
+
+    public boolean isResourceTimingChanged() {
+        return resourceTimingChanged;
+    }
+
+    public boolean isTraceChanged() {
+        return traceChanged;
+    }
+
+    @Override
+    public long getSlowCallThreshold() {
+        return slowCallThreshold;
+    }
+
+    /**
+     * @param slowCallThreshold the time in milliseconds a call of an instrumented method has to take to be
+     *                          kept as a slow call - no slow calls are kept if 0
+     */
+    @Override
+    public void setSlowCallThreshold(long slowCallThreshold) {
+        this.slowCallThreshold = slowCallThreshold;
+        slowCallChanged = true;
+        fireConfigurationChanged();
+    }
+
+    @Override
+    public int getSlowCallHistorySize() {
+        return slowCallHistorySize;
+    }
+
+    /**
+     * @param slowCallHistorySize the number of slow calls kept
+     */
+    @Override
+    public void setSlowCallHistorySize(int slowCallHistorySize) {
+        this.slowCallHistorySize = slowCallHistorySize;
+        slowCallChanged = true;
+        fireConfigurationChanged();
+    }
+
+    @Override
+    public String getSlowCallArgumentMethods() {
+        return getListAsString(slowCallArgumentList);
+    }
+
+    /**
+     * @param slowCallArgumentMethods the methods to keep the first arguments of when they are slow, in the same
+     *                                format as the white list. Classes are instrumented to capture the arguments
+     *                                when they are transformed
+     */
+    @Override
+    public void setSlowCallArgumentMethods(String slowCallArgumentMethods) {
+        List<FilterItem> list = new ArrayList<>();
+        if (slowCallArgumentMethods != null && !slowCallArgumentMethods.trim().isEmpty()) {
+            initializeList(slowCallArgumentMethods, list);
+        }
+        synchronized (this) {
+            slowCallArgumentMatcher = new FilterMatcher(list);
+            slowCallArgumentList = list;
+        }
+        filterChanged = true;
+        fireConfigurationChanged();
+    }
+
+    @Override
+    public int getSlowCallArgumentCount() {
+        return slowCallArgumentCount;
+    }
+
+    /**
+     * @param slowCallArgumentCount the number of arguments, from the first, kept for the slowCallArgumentMethods
+     */
+    @Override
+    public void setSlowCallArgumentCount(int slowCallArgumentCount) {
+        this.slowCallArgumentCount = slowCallArgumentCount;
+        filterChanged = true;
+        fireConfigurationChanged();
+    }
+
+    public boolean isSlowCallArguments(String className, String methodName) {
+        FilterMatcher matcher = slowCallArgumentMatcher;
+        return slowCallArgumentCount > 0 && !matcher.isEmpty() && matcher.matches(className, methodName, true);
+    }
+
+    public boolean isSlowCallChanged() {
+        return slowCallChanged;
+    }
+
+    @Override
+    public long getExpectedInterval() {
+        return expectedInterval;
+    }
+
+    /**
+     * @param expectedInterval if greater than 0, the time in milliseconds between the calls callers are
+     *                         expected to make. Method timings are then also recorded corrected for the calls
+     *                         a slow call would have held up, alongside the raw timings
+     */
+    @Override
+    public void setExpectedInterval(long expectedInterval) {
+        this.expectedInterval = expectedInterval;
+        expectedIntervalChanged = true;
+        fireConfigurationChanged();
+    }
+
+    public boolean isExpectedIntervalChanged() {
+        return expectedIntervalChanged;
+    }
+
+    @Override
+    public long getExportFileMaxSize() {
+        return exportFileMaxSize;
+    }
+
+    /**
+     * @param exportFileMaxSize the size in bytes at which a file sink moves on to its next file
+     */
+    @Override
+    public void setExportFileMaxSize(long exportFileMaxSize) {
+        this.exportFileMaxSize = exportFileMaxSize;
+    }
+
     public int getThreadMetricDepth() {
         return threadMetricDepth;
     }
@@ -251,6 +819,56 @@ public class ApmConfiguration implements ApmConfigurationMBean {
         this.samplingInterval = samplingInterval;
     }
 
+    public int getSamplingDepth() {
+        return samplingDepth;
+    }
+
+    /**
+     * @param samplingDepth the maximum number of frames taken from each sampled stack - deeper stacks are
+     *                      shown under a <code>[truncated]</code> frame in the folded stacks
+     */
+    public void setSamplingDepth(int samplingDepth) {
+        this.samplingDepth = samplingDepth;
+    }
+
+    public String getSamplingThreadFilter() {
+        return samplingThreadFilter;
+    }
+
+    /**
+     * @param samplingThreadFilter a regular expression the names of sampled threads must match - all threads are sampled if not set
+     */
+    public void setSamplingThreadFilter(String samplingThreadFilter) {
+        this.samplingThreadFilter = samplingThreadFilter;
+    }
+
+    @Override
+    public int getHotMethodCount() {
+        return hotMethodCount;
+    }
+
+    /**
+     * @param hotMethodCount with the hybrid strategy, the number of the hottest sampled methods that are instrumented
+     */
+    @Override
+    public void setHotMethodCount(int hotMethodCount) {
+        this.hotMethodCount = hotMethodCount;
+    }
+
+    @Override
+    public long getHotMethodWindow() {
+        return hotMethodWindow;
+    }
+
+    /**
+     * @param hotMethodWindow with the hybrid strategy, the time in milliseconds samples are counted over before
+     *                        the hot methods are chosen again
+     */
+    @Override
+    public void setHotMethodWindow(long hotMethodWindow) {
+        this.hotMethodWindow = hotMethodWindow;
+    }
+
     public String getStrategy() {
         return strategy.name();
     }
@@ -281,46 +899,33 @@ public class ApmConfiguration implements ApmConfigurationMBean {
     }
 
     public boolean isAudit(String className, String methodName) {
+        if (!disabledMethods.isEmpty() && disabledMethods.contains(className.replace('/', '.') + "@" + methodName)) {
+            return false;
+        }
         return isWhiteListed(className, methodName) || !isBlackListed(className, methodName);
     }
 
+    /**
+     * @return true if the whole class is black listed - items which black list some of its methods are ignored
+     */
     public boolean isBlackListed(String className) {
-        for (FilterItem item : blackFilterList) {
-            if (item.matches(className)) {
-                return true;
-            }
-        }
-        return false;
+        return blackFilterMatcher.matchesAllMethods(className);
     }
 
     public boolean isBlackListed(String className, String methodName) {
-        for (FilterItem item : blackFilterList) {
-            if (item.matches(className, methodName, true)) {
-                return true;
-            }
-        }
-        return false;
+        return blackFilterMatcher.matches(className, methodName, true);
     }
 
     public boolean isWhiteListed(String className) {
-        if (whiteFilterList.isEmpty()) {
+        FilterMatcher matcher = whiteFilterMatcher;
+        if (matcher.isEmpty()) {
             return false;
         }
-        for (FilterItem item : whiteFilterList) {
-            if (className.matches(item.getClassName())) {
-                return true;
-            }
-        }
-        return false;
+        return matcher.matchesClassPattern(className);
     }
 
     public boolean isWhiteListed(String className, String methodName) {
-        for (FilterItem item : whiteFilterList) {
-            if (item.matches(className, methodName, false)) {
-                return true;
-            }
-        }
-        return false;
+        return whiteFilterMatcher.matches(className, methodName, false);
     }
 
     public void addChangeListener(ApmConfigurationChangeListener changeListener) {
@@ -331,6 +936,15 @@ public class ApmConfiguration implements ApmConfigurationMBean {
         changeListeners.remove(changeListener);
     }
 
+    private void checkLocalVariableTiming() {
+        if (localVariableTiming && isTraceEnabled()) {
+            logger.warn("localVariableTiming is not used while traceEntryPoints are set - methods are instrumented with enter and exit calls instead");
+        }
+        if (localVariableTiming && (!resourceTimingMatcher.isEmpty() || !contentionTimingMatcher.isEmpty())) {
+            logger.warn("localVariableTiming is not used for resourceTimingMethods or contentionTimingMethods - they are instrumented with enter and exit calls instead");
+        }
+    }
+
     private void fireConfigurationChanged() {
         for (ApmConfigurationChangeListener apmConfigurationChangeListener : this.changeListeners) {
             apmConfigurationChangeListener.configurationChanged();
@@ -343,6 +957,10 @@ public class ApmConfiguration implements ApmConfigurationMBean {
         methodMetricDepthChanged = false;
         threadMetricDepthChanged = false;
         strategyChanged = false;
+        traceChanged = false;
+        resourceTimingChanged = false;
+        slowCallChanged = false;
+        expectedIntervalChanged = false;
     }
 
     private void setProperty(String name, Object value) {
@@ -384,6 +1002,39 @@ public class ApmConfiguration implements ApmConfigurationMBean {
         return null;
     }
 
+    private synchronized void addWhiteFilterItem(FilterItem filterItem) {
+        List<FilterItem> list = new ArrayList<>(whiteFilterList);
+        list.add(filterItem);
+        updateWhiteList(list);
+    }
+
+    private synchronized void addBlackFilterItem(FilterItem filterItem) {
+        List<FilterItem> list = new ArrayList<>(blackFilterList);
+        list.add(filterItem);
+        updateBlackList(list);
+    }
+
+    private synchronized void updateWhiteList(List<FilterItem> list) {
+        whiteFilterMatcher = new FilterMatcher(list);
+        whiteFilterList = list;
+    }
+
+    private synchronized void updateBlackList(List<FilterItem> list) {
+        blackFilterMatcher = new FilterMatcher(list);
+        blackFilterList = list;
+    }
+
+    private static boolean matchesFullMethodName(FilterMatcher matcher, String fullMethodName) {
+        int classEnd = fullMethodName.indexOf('@');
+        if (classEnd < 0) {
+            return false;
+        }
+        int methodEnd = fullMethodName.indexOf('(', classEnd);
+        String className = fullMethodName.substring(0, classEnd);
+        String methodName = fullMethodName.substring(classEnd + 1, methodEnd > 0 ? methodEnd : fullMethodName.length());
+        return matcher.matches(className, methodName, true);
+    }
+
     private void initializeList(String str, List<FilterItem> list) {
         String[] split = str.split(",");
         for (String s : split) {
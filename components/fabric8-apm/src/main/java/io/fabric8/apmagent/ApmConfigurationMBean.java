@@ -41,6 +41,114 @@ public interface ApmConfigurationMBean {
 
     void setAsyncTransformation(boolean asyncTransformation);
 
+    boolean isUseMethodIds();
+
+    void setUseMethodIds(boolean useMethodIds);
+
+    boolean isLocalVariableTiming();
+
+    void setLocalVariableTiming(boolean localVariableTiming);
+
+    boolean isAdaptiveSampling();
+
+    void setAdaptiveSampling(boolean adaptiveSampling);
+
+    long getSamplingCallRateThreshold();
+
+    void setSamplingCallRateThreshold(long samplingCallRateThreshold);
+
+    long getOverheadBudget();
+
+    void setOverheadBudget(long overheadBudget);
+
+    double getOverheadCeiling();
+
+    void setOverheadCeiling(double overheadCeiling);
+
+    int getTransformBatchSize();
+
+    void setTransformBatchSize(int transformBatchSize);
+
+    int getTransformThreads();
+
+    void setTransformThreads(int transformThreads);
+
+    String getTransformCacheDirectory();
+
+    void setTransformCacheDirectory(String transformCacheDirectory);
+
+    long getTransformCacheMaxSize();
+
+    void setTransformCacheMaxSize(long transformCacheMaxSize);
+
+    boolean isBoundedBytecodeRetention();
+
+    void setBoundedBytecodeRetention(boolean boundedBytecodeRetention);
+
+    String getBytecodeSpillFile();
+
+    void setBytecodeSpillFile(String bytecodeSpillFile);
+
+    String getExportSink();
+
+    void setExportSink(String exportSink);
+
+    long getExportInterval();
+
+    void setExportInterval(long exportInterval);
+
+    int getExportFileCount();
+
+    void setExportFileCount(int exportFileCount);
+
+    long getExportFileMaxSize();
+
+    void setExportFileMaxSize(long exportFileMaxSize);
+
+    String getTraceEntryPoints();
+
+    void setTraceEntryPoints(String traceEntryPoints);
+
+    long getTraceThreshold();
+
+    void setTraceThreshold(long traceThreshold);
+
+    int getTraceBufferSize();
+
+    void setTraceBufferSize(int traceBufferSize);
+
+    int getTraceHistorySize();
+
+    void setTraceHistorySize(int traceHistorySize);
+
+    long getSlowCallThreshold();
+
+    void setSlowCallThreshold(long slowCallThreshold);
+
+    int getSlowCallHistorySize();
+
+    void setSlowCallHistorySize(int slowCallHistorySize);
+
+    String getSlowCallArgumentMethods();
+
+    void setSlowCallArgumentMethods(String slowCallArgumentMethods);
+
+    int getSlowCallArgumentCount();
+
+    void setSlowCallArgumentCount(int slowCallArgumentCount);
+
+    String getContentionTimingMethods();
+
+    void setContentionTimingMethods(String contentionTimingMethods);
+
+    long getExpectedInterval();
+
+    void setExpectedInterval(long expectedInterval);
+
+    String getResourceTimingMethods();
+
+    void setResourceTimingMethods(String resourceTimingMethods);
+
     int getThreadMetricDepth();
 
     void setThreadMetricDepth(int threadMetricDepth);
@@ -49,6 +157,22 @@ public interface ApmConfigurationMBean {
 
     void setMethodMetricDepth(int methodMetricDepth);
 
+    int getSamplingDepth();
+
+    void setSamplingDepth(int samplingDepth);
+
+    String getSamplingThreadFilter();
+
+    void setSamplingThreadFilter(String samplingThreadFilter);
+
+    int getHotMethodCount();
+
+    void setHotMethodCount(int hotMethodCount);
+
+    long getHotMethodWindow();
+
+    void setHotMethodWindow(long hotMethodWindow);
+
     String getStrategy();
 
     void setStrategy(String strategy);
@@ -0,0 +1,200 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Holds the original class files kept by {@link ClassInfo}. Class files can be kept as they are,
+ * compressed on the heap, or compressed in a spill file so only the offset and length are on the heap.
+ */
+public abstract class BytecodeStore {
+    private static final Logger LOG = LoggerFactory.getLogger(ApmAgent.class);
+
+    /**
+     * Keeps class files as they are
+     */
+    public static final BytecodeStore HEAP = new BytecodeStore() {
+        @Override
+        public Entry store(final byte[] bytes) {
+            return new Entry() {
+                @Override
+                public byte[] get() {
+                    return bytes;
+                }
+            };
+        }
+    };
+
+    /**
+     * @return the store for the configuration
+     */
+    public static BytecodeStore create(ApmConfiguration configuration) {
+        if (!configuration.isBoundedBytecodeRetention()) {
+            return HEAP;
+        }
+        String spillFile = configuration.getBytecodeSpillFile();
+        if (spillFile != null && !spillFile.isEmpty()) {
+            try {
+                return new SpillFileStore(new File(spillFile));
+            } catch (IOException e) {
+                LOG.warn("Could not open bytecode spill file " + spillFile + " due " + e.getMessage() + ". Class files are kept compressed in memory instead.", e);
+            }
+        }
+        return new CompressedStore();
+    }
+
+    public abstract Entry store(byte[] bytes);
+
+    public interface Entry {
+        /**
+         * @return the class file, or null if it could no longer be read
+         */
+        byte[] get();
+    }
+
+    static byte[] compress(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] decompress(byte[] compressed, int length) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] result = new byte[length];
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                int count = inflater.inflate(result, offset, length - offset);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += count;
+            }
+            return offset == length ? result : Arrays.copyOf(result, offset);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Keeps class files deflated on the heap - class files typically compress to less than half their size
+     */
+    static class CompressedStore extends BytecodeStore {
+        @Override
+        public Entry store(byte[] bytes) {
+            final byte[] compressed = compress(bytes);
+            final int length = bytes.length;
+            return new Entry() {
+                @Override
+                public byte[] get() {
+                    try {
+                        return decompress(compressed, length);
+                    } catch (DataFormatException e) {
+                        LOG.warn("Failed to decompress class file due " + e.getMessage() + ". This exception is ignored.", e);
+                        return null;
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Appends deflated class files to a file, which is truncated when opened and deleted on exit.
+     * The space of entries no longer used isn't reclaimed.
+     */
+    static class SpillFileStore extends BytecodeStore {
+        private final FileChannel channel;
+        private long size;
+
+        SpillFileStore(File file) throws IOException {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Could not create directory " + parent);
+            }
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            randomAccessFile.setLength(0);
+            this.channel = randomAccessFile.getChannel();
+            file.deleteOnExit();
+        }
+
+        @Override
+        public Entry store(byte[] bytes) {
+            byte[] compressed = compress(bytes);
+            final int length = bytes.length;
+            final int compressedLength = compressed.length;
+            final long position;
+            synchronized (this) {
+                position = size;
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(compressed);
+                    long offset = position;
+                    while (buffer.hasRemaining()) {
+                        offset += channel.write(buffer, offset);
+                    }
+                    size += compressedLength;
+                } catch (IOException e) {
+                    LOG.warn("Failed to write to bytecode spill file due " + e.getMessage() + ". The class file is kept in memory instead.", e);
+                    return new CompressedStore().store(bytes);
+                }
+            }
+            return new Entry() {
+                @Override
+                public byte[] get() {
+                    try {
+                        ByteBuffer buffer = ByteBuffer.allocate(compressedLength);
+                        long offset = position;
+                        while (buffer.hasRemaining()) {
+                            int count = channel.read(buffer, offset);
+                            if (count < 0) {
+                                return null;
+                            }
+                            offset += count;
+                        }
+                        return decompress(buffer.array(), length);
+                    } catch (IOException | DataFormatException e) {
+                        LOG.warn("Failed to read from bytecode spill file due " + e.getMessage() + ". This exception is ignored.", e);
+                        return null;
+                    }
+                }
+            };
+        }
+    }
+}
@@ -26,8 +26,10 @@ public class ClassInfo {
     private ClassLoader classLoader;
     private Class originalClass;
     private String className;
-    private byte[] original;
-    private byte[] transformed;
+    private BytecodeStore bytecodeStore = BytecodeStore.HEAP;
+    private volatile BytecodeStore.Entry original;
+    private volatile byte[] transformed;
+    private volatile boolean hasTransformed;
     private boolean canTransform;
     private ConcurrentMap<String, MethodDescription> transformedMethods = new ConcurrentHashMap<>();
     private ConcurrentMap<String, MethodDescription> allMethods = new ConcurrentHashMap<>();
@@ -49,11 +51,23 @@ public class ClassInfo {
     }
 
     public byte[] getOriginal() {
-        return original;
+        BytecodeStore.Entry entry = original;
+        return entry != null ? entry.get() : null;
+    }
+
+    public boolean hasOriginal() {
+        return original != null;
     }
 
     public void setOriginal(byte[] original) {
-        this.original = original;
+        this.original = original != null ? bytecodeStore.store(original) : null;
+    }
+
+    /**
+     * @param bytecodeStore how the original class file is kept
+     */
+    public void setBytecodeStore(BytecodeStore bytecodeStore) {
+        this.bytecodeStore = bytecodeStore;
     }
 
     public Class getOriginalClass() {
@@ -64,12 +78,17 @@ public class ClassInfo {
         this.originalClass = originalClass;
     }
 
+    /**
+     * @return the transformed class file, or null if it isn't kept
+     */
     public byte[] getTransformed() {
         return transformed;
     }
 
     public void setTransformed(byte[] transformed) {
-        this.transformed = transformed;
+        this.hasTransformed = transformed != null && transformed.length > 0;
+        //once the class is defined the JVM has its own copy - only the heap store keeps ours
+        this.transformed = bytecodeStore == BytecodeStore.HEAP ? transformed : null;
     }
 
     public boolean isCanTransform() {
@@ -93,6 +112,10 @@ public class ClassInfo {
         return key;
     }
 
+    public MethodDescription getMethodDescription(String methodSignature) {
+        return allMethods.get(methodSignature);
+    }
+
     public void removeTransformedMethod(String fullMethodName) {
         transformedMethods.remove(fullMethodName);
     }
@@ -120,11 +143,12 @@ public class ClassInfo {
     }
 
     public boolean isTransformed() {
-        return transformed != null && transformed.length > 0;
+        return hasTransformed;
     }
 
     public void resetTransformed() {
         transformed = null;
+        hasTransformed = false;
         transformedMethods.clear();
     }
 
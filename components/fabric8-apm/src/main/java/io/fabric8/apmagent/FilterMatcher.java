@@ -0,0 +1,240 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable, compiled form of a list of {@link FilterItem}s, with the same matching rules
+ * as {@link FilterItem#matches(String)} and {@link FilterItem#matches(String, String, boolean)}.
+ * <p/>
+ * Class names that are plain package or class prefixes are held in a prefix trie, and regular
+ * expressions are only compiled once. The filter items matching a class name are cached, so
+ * checking the methods of a class only looks at the items for that class.
+ */
+class FilterMatcher {
+    private static final int MAX_CACHE_SIZE = 10000;
+    private static final CompiledItem[] NO_ITEMS = new CompiledItem[0];
+
+    private final CompiledItem[] items;
+    private final TrieNode prefixes = new TrieNode();
+    private final List<CompiledItem> regexItems = new ArrayList<>();
+    private final Map<Integer, List<CompiledItem>> wildcardItemsByLength = new HashMap<>();
+    private final ConcurrentMap<String, CompiledItem[]> cache = new ConcurrentHashMap<>();
+
+    FilterMatcher(List<FilterItem> filterItems) {
+        items = new CompiledItem[filterItems.size()];
+        for (int i = 0; i < items.length; i++) {
+            CompiledItem item = new CompiledItem(i, filterItems.get(i));
+            items[i] = item;
+            String prefix = item.className;
+            if (isLiteral(prefix)) {
+                prefixes.add(prefix, item);
+                if (prefix.indexOf('.') >= 0) {
+                    //as a regex, a '.' matches any character - so it can still match a name of the same length
+                    List<CompiledItem> list = wildcardItemsByLength.get(prefix.length());
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        wildcardItemsByLength.put(prefix.length(), list);
+                    }
+                    list.add(item);
+                }
+            } else {
+                regexItems.add(item);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return items.length == 0;
+    }
+
+    /**
+     * @return true if the class name matches an item without a method name, so all of its methods match
+     */
+    boolean matchesAllMethods(String className) {
+        for (CompiledItem item : getMatchingItems(className)) {
+            if (item.methodName == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean matches(String className, String methodName, boolean matchIfNoFilterMethod) {
+        for (CompiledItem item : getMatchingItems(className)) {
+            if (item.matchesMethod(methodName, matchIfNoFilterMethod)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the class name matches a filter class name treated purely as a regular expression
+     */
+    boolean matchesClassPattern(String className) {
+        for (CompiledItem item : items) {
+            if (item.getClassPattern().matcher(className).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private CompiledItem[] getMatchingItems(String className) {
+        CompiledItem[] result = cache.get(className);
+        if (result == null) {
+            result = findMatchingItems(className.indexOf('/') >= 0 ? className.replace('/', '.') : className);
+            if (cache.size() >= MAX_CACHE_SIZE) {
+                cache.clear();
+            }
+            cache.put(className, result);
+        }
+        return result;
+    }
+
+    private CompiledItem[] findMatchingItems(String className) {
+        boolean[] matched = null;
+        int count = 0;
+        TrieNode node = prefixes;
+        for (int i = 0; node != null; i++) {
+            for (CompiledItem item : node.terminalItems) {
+                if (matched == null) {
+                    matched = new boolean[items.length];
+                }
+                if (!matched[item.index]) {
+                    matched[item.index] = true;
+                    count++;
+                }
+            }
+            node = i < className.length() ? node.get(className.charAt(i)) : null;
+        }
+        List<CompiledItem> candidates = new ArrayList<>(regexItems);
+        List<CompiledItem> wildcardItems = wildcardItemsByLength.get(className.length());
+        if (wildcardItems != null) {
+            candidates.addAll(wildcardItems);
+        }
+        for (CompiledItem item : candidates) {
+            if ((matched == null || !matched[item.index]) && item.matchesClass(className)) {
+                if (matched == null) {
+                    matched = new boolean[items.length];
+                }
+                matched[item.index] = true;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return NO_ITEMS;
+        }
+        CompiledItem[] result = new CompiledItem[count];
+        int pos = 0;
+        for (CompiledItem item : items) {
+            if (matched[item.index]) {
+                result[pos++] = item;
+            }
+        }
+        return result;
+    }
+
+    private static boolean isLiteral(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if ("\\^$|?*+()[]{}".indexOf(s.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class CompiledItem {
+        private final int index;
+        private final String className;
+        private final String methodName;
+        private volatile Pattern classPattern;
+        private final Pattern methodPattern;
+
+        CompiledItem(int index, FilterItem filterItem) {
+            this.index = index;
+            this.className = filterItem.getClassName() != null ? filterItem.getClassName() : "";
+            String method = filterItem.getMethodName();
+            this.methodName = method != null && !method.isEmpty() ? method : null;
+            this.methodPattern = methodName != null ? Pattern.compile(methodName) : null;
+        }
+
+        Pattern getClassPattern() {
+            Pattern result = classPattern;
+            if (result == null) {
+                result = Pattern.compile(className);
+                classPattern = result;
+            }
+            return result;
+        }
+
+        boolean matchesClass(String name) {
+            return name.startsWith(className) || getClassPattern().matcher(name).matches();
+        }
+
+        boolean matchesMethod(String method, boolean matchIfNoFilterMethod) {
+            if (method == null || method.isEmpty()) {
+                return methodName == null;
+            }
+            if (methodPattern != null) {
+                return methodPattern.matcher(method).matches();
+            }
+            return matchIfNoFilterMethod;
+        }
+    }
+
+    private static class TrieNode {
+        private char[] keys = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+        private CompiledItem[] terminalItems = NO_ITEMS;
+
+        void add(String prefix, CompiledItem item) {
+            TrieNode node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                char c = prefix.charAt(i);
+                TrieNode child = node.get(c);
+                if (child == null) {
+                    child = new TrieNode();
+                    node.keys = Arrays.copyOf(node.keys, node.keys.length + 1);
+                    node.children = Arrays.copyOf(node.children, node.children.length + 1);
+                    node.keys[node.keys.length - 1] = c;
+                    node.children[node.children.length - 1] = child;
+                }
+                node = child;
+            }
+            node.terminalItems = Arrays.copyOf(node.terminalItems, node.terminalItems.length + 1);
+            node.terminalItems[node.terminalItems.length - 1] = item;
+        }
+
+        TrieNode get(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -21,6 +21,7 @@ public class MethodDescription {
     private final String description;
     private final String methodSignature;
     private final String fullMethodName;
+    private volatile int methodId = -1;
 
     MethodDescription(String className, String methodName, String description) {
         this.className = className.replace('/', '.');
@@ -30,7 +31,7 @@ public class MethodDescription {
         this.fullMethodName = this.className + "@" + this.methodSignature;
     }
 
-    static String getMethodSignature(String name, String description) {
+    public static String getMethodSignature(String name, String description) {
         return name.replace('/', '.') + description;
     }
 
@@ -53,4 +54,15 @@ public class MethodDescription {
     public String getDescription() {
         return description;
     }
+
+    /**
+     * @return the id used by instrumented code to identify this method, or -1 if none has been assigned
+     */
+    public int getMethodId() {
+        return methodId;
+    }
+
+    public void setMethodId(int methodId) {
+        this.methodId = methodId;
+    }
 }
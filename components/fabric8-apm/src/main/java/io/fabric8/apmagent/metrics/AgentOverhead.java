@@ -0,0 +1,118 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accounts for the time the agent itself spends - in the enter and exit of calls, housekeeping,
+ * transforming classes and sampling stacks - and compares it to the CPU time of the process.
+ * <p/>
+ * Timing every call would itself be an overhead, so only 1 in {@link #CALL_SAMPLE_RATE} calls on
+ * each thread is timed, and the time is scaled up. Each window is ended by the housekeeping thread,
+ * which calculates the overhead of the window as a percentage of the CPU time used in it.
+ */
+public class AgentOverhead {
+    static final int CALL_SAMPLE_RATE = 256;
+    private final LongAdder callTime = new LongAdder();
+    private final LongAdder houseKeepingTime = new LongAdder();
+    private final LongAdder transformTime = new LongAdder();
+    private final LongAdder samplingTime = new LongAdder();
+    private long lastAgentTime;
+    private long lastProcessCpuTime = -1;
+    private long lastWallTime = System.nanoTime();
+    private volatile double percentage;
+
+    void addCallTime(long nanos) {
+        callTime.add(nanos * CALL_SAMPLE_RATE);
+    }
+
+    void addHouseKeepingTime(long nanos) {
+        houseKeepingTime.add(nanos);
+    }
+
+    public void addTransformTime(long nanos) {
+        transformTime.add(nanos);
+    }
+
+    public void addSamplingTime(long nanos) {
+        samplingTime.add(nanos);
+    }
+
+    /**
+     * Ends the current window - only called by the housekeeping thread
+     *
+     * @return the time spent by the agent in the window, as a percentage of the CPU time of the process
+     */
+    double nextWindow() {
+        long agentTime = getTotalTime();
+        long processCpuTime = ResourceUsage.getProcessCpuTime();
+        long wallTime = System.nanoTime();
+        long cpuTime;
+        if (processCpuTime >= 0 && lastProcessCpuTime >= 0) {
+            cpuTime = processCpuTime - lastProcessCpuTime;
+        } else {
+            //no process CPU time available - assume every processor was busy
+            cpuTime = (wallTime - lastWallTime) * Runtime.getRuntime().availableProcessors();
+        }
+        long agentTimeInWindow = agentTime - lastAgentTime;
+        percentage = cpuTime > 0 ? (agentTimeInWindow * 100.0) / cpuTime : 0;
+        lastAgentTime = agentTime;
+        lastProcessCpuTime = processCpuTime;
+        lastWallTime = wallTime;
+        return percentage;
+    }
+
+    /**
+     * @return the percentage of the CPU time of the process spent by the agent in the last window
+     */
+    public double getPercentage() {
+        return percentage;
+    }
+
+    /**
+     * @return the estimated total time, in milliseconds, the agent has added to the enter and exit of calls
+     */
+    public long getCallTime() {
+        return TimeUnit.NANOSECONDS.toMillis(callTime.sum());
+    }
+
+    /**
+     * @return the total time, in milliseconds, spent housekeeping
+     */
+    public long getHouseKeepingTime() {
+        return TimeUnit.NANOSECONDS.toMillis(houseKeepingTime.sum());
+    }
+
+    /**
+     * @return the total time, in milliseconds, spent transforming classes
+     */
+    public long getTransformTime() {
+        return TimeUnit.NANOSECONDS.toMillis(transformTime.sum());
+    }
+
+    /**
+     * @return the total time, in milliseconds, spent sampling stacks
+     */
+    public long getSamplingTime() {
+        return TimeUnit.NANOSECONDS.toMillis(samplingTime.sum());
+    }
+
+    private long getTotalTime() {
+        return callTime.sum() + houseKeepingTime.sum() + transformTime.sum() + samplingTime.sum();
+    }
+}
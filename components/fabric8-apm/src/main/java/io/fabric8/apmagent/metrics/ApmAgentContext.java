@@ -22,10 +22,12 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.MBeanRegistrationException;
 import javax.management.MBeanServer;
@@ -35,8 +37,11 @@ import javax.management.ObjectName;
 
 import io.fabric8.apmagent.ApmAgent;
 import io.fabric8.apmagent.ApmConfiguration;
+import io.fabric8.apmagent.BytecodeStore;
 import io.fabric8.apmagent.ClassInfo;
 import io.fabric8.apmagent.MethodDescription;
+import io.fabric8.apmagent.metrics.export.MetricsExporter;
+import io.fabric8.apmagent.metrics.export.MetricsSink;
 import org.jolokia.jmx.JolokiaMBeanServerUtil;
 import org.jolokia.jvmagent.JolokiaServer;
 import org.slf4j.Logger;
@@ -46,12 +51,20 @@ public class ApmAgentContext {
     private static final Logger LOG = LoggerFactory.getLogger(ApmAgent.class);
     private final String DEFAULT_DOMAIN = "io.fabric8.apmagent";
     private final long HOUSE_KEEPING_TIME = TimeUnit.SECONDS.toMillis(2);
+    private static final int MAX_SAMPLING_RATE = 1024;
     private final ConcurrentMap<String, ClassInfo> allMethods = new ConcurrentHashMap<>();
     private AtomicBoolean initialized = new AtomicBoolean();
     private AtomicBoolean started = new AtomicBoolean();
-    private ConcurrentMap<Thread, ThreadMetrics> threadMetricsMap = new ConcurrentHashMap<>();
+    // keyed by thread id, so the registry doesn't keep dead threads reachable
+    private ConcurrentMap<Long, ThreadMetrics> threadMetricsMap = new ConcurrentHashMap<>();
     private ConcurrentMap<String, MethodMetrics> methodMetricsMap = new ConcurrentHashMap<>();
     private ConcurrentMap<Object, ObjectName> objectNameMap = new ConcurrentHashMap<>();
+    private final AtomicInteger methodIdGenerator = new AtomicInteger();
+    private volatile MethodDescription[] methodDescriptions = new MethodDescription[256];
+    private volatile MethodMetrics[] methodMetricsById = new MethodMetrics[256];
+    private final ThreadLocal<ThreadMetrics> currentThreadMetrics = new ThreadLocal<>();
+    // bumped on stop, so threads replace the metrics they cached from before
+    private volatile int generation;
     private MBeanServer mBeanServer;
     private JolokiaServer jolokiaServer;
     private final ApmAgent apmAgent;
@@ -59,9 +72,17 @@ public class ApmAgentContext {
     private ObjectName configurationObjectName;
     private final ApmConfiguration configuration;
     private final MonitoredMethodMetrics monitoredMethodMetrics;
-    private AtomicBoolean doHouseKeeping = new AtomicBoolean();
     private Thread backgroundThread;
+    private volatile MetricsExporter metricsExporter;
+    private volatile SpanRecorder spanRecorder;
+    private volatile SlowCallRecorder slowCallRecorder;
+    private final GcPauses gcPauses = new GcPauses();
+    private volatile BytecodeStore bytecodeStore;
     private boolean monitorByDefault = true;
+    private volatile long timedCallCost;
+    private final AgentOverhead overhead = new AgentOverhead();
+    private volatile int overheadBackOff = 1;
+    private final Set<String> overheadDisabledMethods = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     public ApmAgentContext(ApmAgent agent) {
         this.apmAgent = agent;
@@ -71,30 +92,144 @@ public class ApmAgentContext {
     }
 
     public void enterMethod(Thread currentThread, String fullMethodName, boolean alwaysActive) {
+        enterMethod(currentThread, fullMethodName, alwaysActive, null);
+    }
+
+    /**
+     * @param arguments the first arguments of the call, kept in case the call is slow - or null
+     */
+    public void enterMethod(Thread currentThread, String fullMethodName, boolean alwaysActive, Object[] arguments) {
         if (isInitialized()) {
-            ThreadMetrics threadMetrics = threadMetricsMap.get(currentThread);
-            if (threadMetrics == null) {
-                threadMetrics = new ThreadMetrics(this, currentThread);
-                threadMetricsMap.put(currentThread, threadMetrics);
+            ThreadMetrics threadMetrics;
+            if (currentThread == Thread.currentThread()) {
+                threadMetrics = getCurrentThreadMetrics();
+            } else {
+                threadMetrics = getThreadMetrics(currentThread);
+            }
+            //calls made for other threads by the sampling strategy are accounted for as sampling
+            long overheadStart = currentThread == Thread.currentThread() ? startOverheadSample(threadMetrics) : 0;
+            threadMetrics.enter(fullMethodName, alwaysActive, arguments);
+            SpanRecorder recorder = spanRecorder;
+            if (recorder != null) {
+                recorder.enter(threadMetrics, fullMethodName);
             }
-            threadMetrics.enter(fullMethodName, alwaysActive);
 
             MethodMetrics methodMetrics = methodMetricsMap.get(fullMethodName);
             if (methodMetrics == null) {
                 methodMetrics = new MethodMetrics(fullMethodName);
                 methodMetrics.setActive(isMonitorByDefault());
+                methodMetrics.setExpectedInterval(getExpectedInterval());
                 methodMetricsMap.putIfAbsent(fullMethodName, methodMetrics);
             }
+            endOverheadSample(overheadStart);
         }
 
     }
 
+    public void enterMethod(int methodId) {
+        enterMethod(methodId, null);
+    }
+
+    /**
+     * @param arguments the first arguments of the call, kept in case the call is slow - or null
+     */
+    public void enterMethod(int methodId, Object[] arguments) {
+        if (isInitialized()) {
+            ThreadMetrics threadMetrics = getCurrentThreadMetrics();
+            long overheadStart = startOverheadSample(threadMetrics);
+            threadMetrics.enter(methodId, arguments);
+            SpanRecorder recorder = spanRecorder;
+            if (recorder != null) {
+                String methodName = getMethodName(methodId);
+                if (methodName != null) {
+                    recorder.enter(threadMetrics, methodName);
+                }
+            }
+
+            MethodMetrics[] array = methodMetricsById;
+            if (methodId >= array.length || array[methodId] == null) {
+                lookupMethodMetrics(methodId);
+            }
+            endOverheadSample(overheadStart);
+        }
+    }
+
+    public void exitMethod(int methodId) {
+        if (isInitialized()) {
+            ThreadMetrics threadMetrics = getCurrentThreadMetrics();
+            long overheadStart = startOverheadSample(threadMetrics);
+            SpanRecorder recorder = spanRecorder;
+            if (recorder != null) {
+                String methodName = getMethodName(methodId);
+                if (methodName != null) {
+                    recorder.exit(threadMetrics, methodName);
+                }
+            }
+            long elapsed = threadMetrics.exit(methodId);
+            if (elapsed >= 0) {
+                MethodMetrics[] array = methodMetricsById;
+                MethodMetrics methodMetrics = methodId < array.length ? array[methodId] : null;
+                if (methodMetrics != null) {
+                    methodMetrics.update(elapsed);
+                    checkSlowCall(threadMetrics, methodMetrics.getName(), elapsed, threadMetrics.takeLastArguments());
+                }
+                threadMetrics.flushLastResources(methodMetrics);
+            }
+            endOverheadSample(overheadStart);
+        }
+    }
+
+    /**
+     * Used by methods that keep their start time themselves - so no per thread stack is needed.
+     */
+    public void exitMethod(int methodId, long startTime) {
+        exitMethod(methodId, startTime, null);
+    }
+
+    /**
+     * Used by methods that keep their start time, and the arguments captured for slow calls, themselves.
+     * They are never part of a trace, as they are only instrumented this way while no trace entry points are set.
+     */
+    public void exitMethod(int methodId, long startTime, Object[] arguments) {
+        if (isInitialized()) {
+            ThreadMetrics threadMetrics = getCurrentThreadMetrics();
+            long overheadStart = startOverheadSample(threadMetrics);
+            long elapsed = threadMetrics.exit(methodId, startTime);
+            if (elapsed >= 0) {
+                MethodMetrics[] array = methodMetricsById;
+                if (methodId >= array.length || array[methodId] == null) {
+                    lookupMethodMetrics(methodId);
+                    array = methodMetricsById;
+                }
+                MethodMetrics methodMetrics = methodId < array.length ? array[methodId] : null;
+                if (methodMetrics != null) {
+                    methodMetrics.update(elapsed);
+                    checkSlowCall(threadMetrics, methodMetrics.getName(), elapsed, arguments);
+                }
+            }
+            endOverheadSample(overheadStart);
+        }
+    }
+
     public void exitMethod(Thread currentThread, String methodName, boolean alwaysActive) {
         if (isInitialized()) {
-            ThreadMetrics threadMetrics = threadMetricsMap.get(currentThread);
+            ThreadMetrics threadMetrics;
+            if (currentThread == Thread.currentThread()) {
+                threadMetrics = getCurrentThreadMetrics();
+            } else {
+                threadMetrics = threadMetricsMap.get(currentThread.getId());
+            }
 
             long elapsed = -1;
+            long overheadStart = 0;
             if (threadMetrics != null) {
+                if (currentThread == Thread.currentThread()) {
+                    overheadStart = startOverheadSample(threadMetrics);
+                }
+                SpanRecorder recorder = spanRecorder;
+                if (recorder != null) {
+                    recorder.exit(threadMetrics, methodName);
+                }
                 elapsed = threadMetrics.exit(methodName, alwaysActive);
             }
 
@@ -103,8 +238,10 @@ public class ApmAgentContext {
                 if (methodMetrics != null) {
                     methodMetrics.update(elapsed);
                 }
+                checkSlowCall(threadMetrics, methodName, elapsed, threadMetrics.takeLastArguments());
+                threadMetrics.flushLastResources(methodMetrics);
             }
-            doHouseKeeping();
+            endOverheadSample(overheadStart);
         }
     }
 
@@ -127,10 +264,11 @@ public class ApmAgentContext {
                 backgroundThread = new Thread(new Runnable() {
                     @Override
                     public void run() {
+                        calibrateTimedCallCost();
                         while (started.get()) {
                             try {
                                 Thread.sleep(HOUSE_KEEPING_TIME);
-                                doHouseKeeping.set(true);
+                                doHouseKeeping();
                             } catch (Throwable e) {
                             }
                         }
@@ -138,40 +276,76 @@ public class ApmAgentContext {
                 }, "Fabric8-ApmAgent-BackgroundThread");
                 backgroundThread.setDaemon(true);
                 backgroundThread.start();
+                startMetricsExporter();
+                if (configuration.isContentionTimingEnabled()) {
+                    ResourceUsage.enableContentionMonitoring();
+                }
+                traceConfigurationChanged();
+                slowCallConfigurationChanged();
             }
         }
     }
 
-    void doHouseKeeping() {
-        //the time is going to be the elapsed time from the latest method call
-        //its not going to be terribly accurate - but then it doesn't really need to be
-        if (doHouseKeeping.compareAndSet(true, false)) {
+    private void startMetricsExporter() {
+        String exportSink = configuration.getExportSink();
+        if (exportSink != null && !exportSink.isEmpty()) {
             try {
-                List<ThreadMetrics> threadMetricsList = getThreadMetrics();
-                for (ThreadMetrics tm : threadMetricsList) {
-                    if (tm.isDead()) {
-                        tm.destroy();
-                        threadMetricsMap.remove(tm.getThread());
-                    }
-                }
-                monitoredMethodMetrics.calculateMethodMetrics(getMethodMetrics());
-                for (ThreadMetrics threadMetrics : threadMetricsList) {
-                    threadMetrics.calculateMethodMetrics();
-                }
+                MetricsSink sink = MetricsExporter.createSink(exportSink, configuration);
+                metricsExporter = new MetricsExporter(this, sink, configuration.getExportInterval());
+                metricsExporter.start();
             } catch (Throwable e) {
-                LOG.warn("Error during housekeeping due " + e.getMessage() + ". This exception is ignored.", e);
+                LOG.warn("Failed to start exporting metrics to " + exportSink + " due " + e.getMessage() + ". This exception is ignored.", e);
+            }
+        }
+    }
+
+    /**
+     * Runs on the background thread - so instrumented calls never pay for it
+     */
+    void doHouseKeeping() {
+        long start = System.nanoTime();
+        try {
+            List<ThreadMetrics> threadMetricsList = new ArrayList<>();
+            for (ThreadMetrics threadMetrics : threadMetricsMap.values()) {
+                if (threadMetrics.isDead()) {
+                    threadMetrics.destroy();
+                    threadMetricsMap.remove(threadMetrics.getThreadId(), threadMetrics);
+                } else {
+                    threadMetricsList.add(threadMetrics);
+                }
+            }
+            updateSamplingRates();
+            checkOverhead();
+            //when exporting, the exporter rolls the window so it lines up with the exported metrics
+            if (metricsExporter == null && System.currentTimeMillis() - gcPauses.getWindowEndTime() >= configuration.getExportInterval()) {
+                gcPauses.nextWindow();
             }
+            monitoredMethodMetrics.calculateMethodMetrics(methodMetricsMap.values());
+            for (ThreadMetrics threadMetrics : threadMetricsList) {
+                threadMetrics.calculateMethodMetrics();
+            }
+        } catch (Throwable e) {
+            LOG.warn("Error during housekeeping due " + e.getMessage() + ". This exception is ignored.", e);
         }
+        overhead.addHouseKeepingTime(System.nanoTime() - start);
     }
 
     public void stop() {
         if (initialized.get() && started.compareAndSet(true, false)) {
+            spanRecorder = null;
+            slowCallRecorder = null;
+            if (metricsExporter != null) {
+                metricsExporter.stop();
+                metricsExporter = null;
+            }
             for (ObjectName objectName : objectNameMap.values()) {
                 unregisterMBean(objectName);
             }
             objectNameMap.clear();
             methodMetricsMap.clear();
             threadMetricsMap.clear();
+            clearMethodMetricsById();
+            generation++;
         }
     }
 
@@ -189,6 +363,20 @@ public class ApmAgentContext {
         }
     }
 
+    private BytecodeStore getBytecodeStore() {
+        BytecodeStore result = bytecodeStore;
+        if (result == null) {
+            synchronized (this) {
+                result = bytecodeStore;
+                if (result == null) {
+                    result = BytecodeStore.create(configuration);
+                    bytecodeStore = result;
+                }
+            }
+        }
+        return result;
+    }
+
     public ClassInfo getClassInfo(String className) {
         String key = className.replace('/', '.');
 
@@ -196,6 +384,7 @@ public class ApmAgentContext {
         if (result == null) {
             ClassInfo classInfo = new ClassInfo();
             classInfo.setClassName(key);
+            classInfo.setBytecodeStore(getBytecodeStore());
             result = allMethods.putIfAbsent(key, classInfo);
             if (result == null) {
                 result = classInfo;
@@ -204,6 +393,31 @@ public class ApmAgentContext {
         return result;
     }
 
+    /**
+     * Assigns an id to the method, if it doesn't already have one, so instrumented code can refer
+     * to it by index rather than by name.
+     */
+    public int getMethodId(MethodDescription methodDescription) {
+        int result = methodDescription.getMethodId();
+        if (result < 0) {
+            synchronized (methodDescription) {
+                result = methodDescription.getMethodId();
+                if (result < 0) {
+                    result = methodIdGenerator.getAndIncrement();
+                    storeMethodDescription(result, methodDescription);
+                    methodDescription.setMethodId(result);
+                }
+            }
+        }
+        return result;
+    }
+
+    String getMethodName(int methodId) {
+        MethodDescription[] array = methodDescriptions;
+        MethodDescription methodDescription = methodId < array.length ? array[methodId] : null;
+        return methodDescription != null ? methodDescription.getFullMethodName() : null;
+    }
+
     public List<String> getTransformedMethods() {
         List<String> result = new ArrayList<>();
         for (ClassInfo classInfo : allMethods.values()) {
@@ -224,6 +438,20 @@ public class ApmAgentContext {
         return result;
     }
 
+    /**
+     * @return a live, unordered view of the metrics of every method
+     */
+    public Collection<MethodMetrics> getAllMethodMetrics() {
+        return Collections.unmodifiableCollection(methodMetricsMap.values());
+    }
+
+    /**
+     * @return a live, unordered view of the metrics of every thread
+     */
+    public Collection<ThreadMetrics> getAllThreadMetrics() {
+        return Collections.unmodifiableCollection(threadMetricsMap.values());
+    }
+
     public List<ThreadMetrics> getThreadMetrics() {
         List<ThreadMetrics> result = new ArrayList<>(threadMetricsMap.values());
 
@@ -256,6 +484,18 @@ public class ApmAgentContext {
         this.monitorByDefault = monitorByDefault;
     }
 
+    /**
+     * @return the estimated time, in nanoseconds, the agent adds to a call it times
+     */
+    public long getTimedCallCost() {
+        return timedCallCost;
+    }
+
+    int getSamplingRate(String fullMethodName) {
+        MethodMetrics methodMetrics = methodMetricsMap.get(fullMethodName);
+        return methodMetrics != null ? methodMetrics.getSamplingRate() : 1;
+    }
+
     public void setActive(String fullMethodName, boolean flag) {
         if (isInitialized()) {
             for (ThreadMetrics threadMetrics : threadMetricsMap.values()) {
@@ -333,6 +573,127 @@ public class ApmAgentContext {
         monitoredMethodMetrics.setMonitorSize(configuration.getMethodMetricDepth());
     }
 
+    /**
+     * Replaces the span recorder, so traces are recorded with the current configuration
+     */
+    public void traceConfigurationChanged() {
+        if (started.get() && configuration.isTraceEnabled()) {
+            spanRecorder = new SpanRecorder(this, configuration);
+        } else {
+            spanRecorder = null;
+        }
+    }
+
+    public List<Trace> getSlowTraces() {
+        SpanRecorder recorder = spanRecorder;
+        return recorder != null ? recorder.getSlowTraces() : Collections.<Trace>emptyList();
+    }
+
+    public void clearSlowTraces() {
+        SpanRecorder recorder = spanRecorder;
+        if (recorder != null) {
+            recorder.clearSlowTraces();
+        }
+    }
+
+    /**
+     * Replaces the slow call recorder, so slow calls are kept with the current configuration
+     */
+    public void slowCallConfigurationChanged() {
+        if (started.get() && configuration.getSlowCallThreshold() > 0) {
+            slowCallRecorder = new SlowCallRecorder(configuration);
+        } else {
+            slowCallRecorder = null;
+        }
+    }
+
+    public List<SlowCall> getSlowCalls() {
+        SlowCallRecorder recorder = slowCallRecorder;
+        return recorder != null ? recorder.getSlowCalls() : Collections.<SlowCall>emptyList();
+    }
+
+    public void clearSlowCalls() {
+        SlowCallRecorder recorder = slowCallRecorder;
+        if (recorder != null) {
+            recorder.clearSlowCalls();
+        }
+    }
+
+    public Runnable wrap(Runnable task) {
+        SpanRecorder recorder = spanRecorder;
+        return recorder != null ? recorder.wrap(task) : task;
+    }
+
+    public <T> Callable<T> wrap(Callable<T> task) {
+        SpanRecorder recorder = spanRecorder;
+        return recorder != null ? recorder.wrap(task) : task;
+    }
+
+    private void checkSlowCall(ThreadMetrics threadMetrics, String methodName, long elapsed, Object[] arguments) {
+        SlowCallRecorder recorder = slowCallRecorder;
+        if (recorder != null && elapsed >= recorder.getThreshold()) {
+            recorder.record(threadMetrics, methodName, elapsed, arguments);
+        }
+    }
+
+    /**
+     * @return the garbage collections in the last reporting window - each window is the export interval long
+     */
+    public GcPauses getGcPauses() {
+        return gcPauses;
+    }
+
+    /**
+     * @return the time the agent spends itself, in enter and exit, housekeeping, transformation and sampling
+     */
+    public AgentOverhead getOverhead() {
+        return overhead;
+    }
+
+    /**
+     * @return the factor, a power of 2, by which sampling has been widened to keep the agent within its overhead ceiling
+     */
+    public int getOverheadBackOff() {
+        return overheadBackOff;
+    }
+
+    /**
+     * @return the methods no longer instrumented to keep the agent within its overhead ceiling
+     */
+    public List<String> getOverheadDisabledMethods() {
+        List<String> result = new ArrayList<>(overheadDisabledMethods);
+        Collections.sort(result);
+        return result;
+    }
+
+    public void expectedIntervalChanged() {
+        long expectedInterval = getExpectedInterval();
+        for (MethodMetrics methodMetrics : methodMetricsMap.values()) {
+            methodMetrics.setExpectedInterval(expectedInterval);
+        }
+    }
+
+    private long getExpectedInterval() {
+        return TimeUnit.MILLISECONDS.toNanos(configuration.getExpectedInterval());
+    }
+
+    public void resourceTimingChanged() {
+        if (configuration.isContentionTimingEnabled()) {
+            ResourceUsage.enableContentionMonitoring();
+        }
+        for (ThreadMetrics threadMetrics : threadMetricsMap.values()) {
+            threadMetrics.resourceTimingChanged();
+        }
+    }
+
+    boolean isResourceTiming(String methodName) {
+        return configuration.isResourceTiming(methodName);
+    }
+
+    boolean isContentionTiming(String methodName) {
+        return configuration.isContentionTiming(methodName);
+    }
+
     public void threadMetricsDepthChanged() {
         for (ThreadMetrics threadMetrics : threadMetricsMap.values()) {
             threadMetrics.setMonitorSize(configuration.getThreadMetricDepth());
@@ -341,11 +702,210 @@ public class ApmAgentContext {
 
     private void remove(MethodDescription methodDescription) {
         methodMetricsMap.remove(methodDescription.getFullMethodName());
+        int methodId = methodDescription.getMethodId();
+        if (methodId >= 0) {
+            MethodMetrics[] array = methodMetricsById;
+            if (methodId < array.length) {
+                array[methodId] = null;
+            }
+        }
         for (ThreadMetrics threadMetrics : threadMetricsMap.values()) {
             threadMetrics.remove(methodDescription.getFullMethodName());
         }
     }
 
+    /**
+     * Only time 1 in N calls of methods called more often than the configured rate, with N chosen so
+     * the agent's average cost per call stays within the overhead budget.
+     */
+    private void updateSamplingRates() {
+        //while the agent is over its overhead ceiling, the threshold and budget are divided by the back off
+        int backOff = overheadBackOff;
+        boolean adaptive = (configuration.isAdaptiveSampling() || backOff > 1) && isInstrumenting();
+        long now = System.nanoTime();
+        long threshold = Math.max(1, configuration.getSamplingCallRateThreshold() / backOff);
+        long budget = Math.max(1, configuration.getOverheadBudget() / backOff);
+        for (MethodMetrics methodMetrics : methodMetricsMap.values()) {
+            long callRate = methodMetrics.calculateCallRate(now);
+            int samplingRate = adaptive ? getSamplingRate(callRate, threshold, timedCallCost, budget) : 1;
+            if (samplingRate != methodMetrics.getSamplingRate()) {
+                methodMetrics.setSamplingRate(samplingRate);
+                for (ThreadMetrics threadMetrics : threadMetricsMap.values()) {
+                    threadMetrics.setSamplingRate(methodMetrics.getName(), samplingRate);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 1 if the call rate is within the threshold, otherwise the smallest power of two (of at least 2, and
+     * at most MAX_SAMPLING_RATE) that brings both the call rate within the threshold and the cost per call within
+     * the budget. It has to be a power of two - calls are sampled by masking a call count with it, and the counts
+     * of sampled methods are scaled up by it.
+     */
+    static int getSamplingRate(long callRate, long threshold, long callCost, long budget) {
+        int samplingRate = 1;
+        if (callRate > threshold) {
+            long required = Math.max(callRate / threshold, callCost / budget);
+            samplingRate = 2;
+            while (samplingRate < required && samplingRate < MAX_SAMPLING_RATE) {
+                samplingRate <<= 1;
+            }
+        }
+        return samplingRate;
+    }
+
+    /**
+     * Ends the overhead window. While the agent costs more than its overhead ceiling, the sampling of frequently
+     * called methods is widened each window - and once it can't be widened any further, the cheapest, most
+     * frequently called method is no longer instrumented. The sampling is narrowed again once the overhead
+     * is well below the ceiling.
+     */
+    private void checkOverhead() {
+        double percentage = overhead.nextWindow();
+        double ceiling = configuration.getOverheadCeiling();
+        int backOff = overheadBackOff;
+        if (ceiling <= 0) {
+            backOff = 1;
+        } else if (percentage > ceiling) {
+            if (backOff < MAX_SAMPLING_RATE) {
+                backOff <<= 1;
+                LOG.debug("Agent overhead of {}% exceeds the ceiling of {}% - widening sampling by {}", percentage, ceiling, backOff);
+            } else if (isInstrumenting()) {
+                disableCheapestMethod(percentage, ceiling);
+            }
+        } else if (percentage < ceiling / 2 && backOff > 1) {
+            backOff >>= 1;
+        }
+        overheadBackOff = backOff;
+    }
+
+    private void disableCheapestMethod(double percentage, double ceiling) {
+        MethodMetrics cheapest = null;
+        double cheapestScore = 0;
+        for (MethodMetrics methodMetrics : methodMetricsMap.values()) {
+            String name = methodMetrics.getName();
+            //only instrumented methods are named <className>@<methodName>(<arguments>)
+            if (name.indexOf('@') > 0 && !overheadDisabledMethods.contains(name)) {
+                //the most calls for the least time in each call
+                double score = methodMetrics.getCallRate() / Math.max(methodMetrics.getMean(), 0.001);
+                if (score > cheapestScore) {
+                    cheapest = methodMetrics;
+                    cheapestScore = score;
+                }
+            }
+        }
+        if (cheapest != null) {
+            String name = cheapest.getName();
+            int index = name.indexOf('(');
+            String method = index > 0 ? name.substring(0, index) : name;
+            int separator = method.indexOf('@');
+            overheadDisabledMethods.add(name);
+            LOG.info("Agent overhead of " + percentage + "% exceeds the ceiling of " + ceiling + "% - no longer instrumenting " + method);
+            configuration.disableMethod(method.substring(0, separator), method.substring(separator + 1));
+        }
+    }
+
+    private boolean isInstrumenting() {
+        ApmConfiguration.STRATEGY strategy = configuration.getStrategyImpl();
+        return strategy == ApmConfiguration.STRATEGY.TRACE || strategy == ApmConfiguration.STRATEGY.HYBRID;
+    }
+
+    /**
+     * @return the start time of an enter or exit whose cost is to be measured, otherwise 0
+     */
+    private long startOverheadSample(ThreadMetrics threadMetrics) {
+        return threadMetrics.isOverheadSample() ? System.nanoTime() : 0;
+    }
+
+    private void endOverheadSample(long startTime) {
+        if (startTime != 0) {
+            overhead.addCallTime(System.nanoTime() - startTime);
+        }
+    }
+
+    private void calibrateTimedCallCost() {
+        //time and record into a throw away metric - as both the method and thread metrics are updated, count it twice
+        MethodMetrics methodMetrics = new MethodMetrics("calibration");
+        final int count = 10000;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long callStart = System.nanoTime();
+            methodMetrics.update(System.nanoTime() - callStart);
+        }
+        timedCallCost = (2 * (System.nanoTime() - start)) / count;
+    }
+
+    ThreadMetrics getCurrentThreadMetrics() {
+        ThreadMetrics result = currentThreadMetrics.get();
+        if (result == null || result.getGeneration() != generation) {
+            result = getThreadMetrics(Thread.currentThread());
+            currentThreadMetrics.set(result);
+        }
+        return result;
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    private ThreadMetrics getThreadMetrics(Thread thread) {
+        ThreadMetrics result = threadMetricsMap.get(thread.getId());
+        if (result != null && (result.getThread() != thread || result.getGeneration() != generation)) {
+            //the id of a dead thread has been reused before it was reaped, or the metrics were added while stopping
+            result.destroy();
+            threadMetricsMap.remove(thread.getId(), result);
+            result = null;
+        }
+        if (result == null) {
+            result = new ThreadMetrics(this, thread);
+            ThreadMetrics existing = threadMetricsMap.putIfAbsent(thread.getId(), result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+    private synchronized void lookupMethodMetrics(int methodId) {
+        String fullMethodName = getMethodName(methodId);
+        if (fullMethodName != null) {
+            MethodMetrics methodMetrics = methodMetricsMap.get(fullMethodName);
+            if (methodMetrics == null) {
+                methodMetrics = new MethodMetrics(fullMethodName);
+                methodMetrics.setActive(isMonitorByDefault());
+                methodMetrics.setExpectedInterval(getExpectedInterval());
+                MethodMetrics existing = methodMetricsMap.putIfAbsent(fullMethodName, methodMetrics);
+                if (existing != null) {
+                    methodMetrics = existing;
+                }
+            }
+            MethodMetrics[] array = methodMetricsById;
+            if (methodId >= array.length) {
+                MethodMetrics[] newArray = new MethodMetrics[Math.max(methodId + 1, array.length * 2)];
+                System.arraycopy(array, 0, newArray, 0, array.length);
+                array = newArray;
+                methodMetricsById = array;
+            }
+            array[methodId] = methodMetrics;
+        }
+    }
+
+    private synchronized void clearMethodMetricsById() {
+        methodMetricsById = new MethodMetrics[methodMetricsById.length];
+    }
+
+    private synchronized void storeMethodDescription(int methodId, MethodDescription methodDescription) {
+        MethodDescription[] array = methodDescriptions;
+        if (methodId >= array.length) {
+            MethodDescription[] newArray = new MethodDescription[Math.max(methodId + 1, array.length * 2)];
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            array = newArray;
+        }
+        array[methodId] = methodDescription;
+        methodDescriptions = array;
+    }
+
     protected ObjectInstance registerMBean(ObjectName objectName, Object object) throws InstanceAlreadyExistsException, MBeanRegistrationException, NotCompliantMBeanException {
         MBeanServer server = getMBeanServer();
         if (server != null && !server.isRegistered(objectName)) {
@@ -0,0 +1,113 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts the garbage collections, and the time spent in them, in reporting windows - so latency outliers
+ * in a window can be matched up with the collections that overlapped it. For stop the world collectors
+ * each collection is a pause, concurrent collectors also count their concurrent cycles.
+ */
+public class GcPauses {
+    private final Map<String, long[]> totals = new HashMap<>();
+    private Map<String, long[]> window = Collections.emptyMap();
+    private long windowStartTime;
+    private long windowEndTime;
+
+    public GcPauses() {
+        windowEndTime = System.currentTimeMillis();
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals.put(bean.getName(), new long[]{Math.max(0, bean.getCollectionCount()), Math.max(0, bean.getCollectionTime())});
+        }
+    }
+
+    /**
+     * Ends the current window - the counts are then those of the collections since the previous call
+     */
+    public synchronized void nextWindow() {
+        Map<String, long[]> result = new LinkedHashMap<>();
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            long count = Math.max(0, bean.getCollectionCount());
+            long time = Math.max(0, bean.getCollectionTime());
+            long[] last = totals.get(bean.getName());
+            if (last == null) {
+                last = new long[2];
+                totals.put(bean.getName(), last);
+            }
+            result.put(bean.getName(), new long[]{count - last[0], time - last[1]});
+            last[0] = count;
+            last[1] = time;
+        }
+        window = result;
+        windowStartTime = windowEndTime;
+        windowEndTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the number of collections in the last window, by collector name
+     */
+    public synchronized Map<String, Long> getCounts() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> entry : window.entrySet()) {
+            result.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return result;
+    }
+
+    /**
+     * @return the time in milliseconds spent collecting in the last window, by collector name
+     */
+    public synchronized Map<String, Long> getTimes() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> entry : window.entrySet()) {
+            result.put(entry.getKey(), entry.getValue()[1]);
+        }
+        return result;
+    }
+
+    public synchronized long getTotalCount() {
+        long result = 0;
+        for (long[] values : window.values()) {
+            result += values[0];
+        }
+        return result;
+    }
+
+    public synchronized long getTotalTime() {
+        long result = 0;
+        for (long[] values : window.values()) {
+            result += values[1];
+        }
+        return result;
+    }
+
+    /**
+     * @return the time in milliseconds since the epoch the last window started at, or 0 if there hasn't been one
+     */
+    public synchronized long getWindowStartTime() {
+        return windowStartTime;
+    }
+
+    public synchronized long getWindowEndTime() {
+        return windowEndTime;
+    }
+}
@@ -15,22 +15,46 @@
  */
 package io.fabric8.apmagent.metrics;
 
-import com.codahale.metrics.Timer;
+import com.codahale.metrics.Meter;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class MethodMetrics {
-    protected final Timer timer;
+    private static final Comparator<MethodMetrics> LOAD_ASCENDING = new Comparator<MethodMetrics>() {
+        @Override
+        public int compare(MethodMetrics methodMetrics1, MethodMetrics methodMetrics2) {
+            return Double.compare(methodMetrics1.getRankedLoad(), methodMetrics2.getRankedLoad());
+        }
+    };
+    private final Meter meter;
+    private final StripedHistogram histogram;
     private final String name;
     private final double rateFactor;
     private final double durationFactor;
     private int percentage;
     private boolean active = true;
+    private volatile int samplingRate = 1;
+    private double rankedLoad;
+    private final LongAdder cpuTime = new LongAdder();
+    private final LongAdder cpuTimeCount = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder allocatedBytesCount = new LongAdder();
+    private final LongAdder blockedTime = new LongAdder();
+    private final LongAdder blockedTimeCount = new LongAdder();
+    private final LongAdder waitedTime = new LongAdder();
+    private final LongAdder waitedTimeCount = new LongAdder();
+    private long lastCount;
+    private long lastTime = System.nanoTime();
+    private volatile long callRate;
+    private volatile long expectedInterval;
+    private volatile StripedHistogram correctedHistogram;
 
     /**
      * Constructor.
@@ -38,8 +62,13 @@ public class MethodMetrics {
      * @param name - the fully qualified method name
      */
     public MethodMetrics(String name) {
+        this(name, new StripedHistogram());
+    }
+
+    protected MethodMetrics(String name, StripedHistogram histogram) {
         this.name = name;
-        this.timer = new Timer();
+        this.meter = new Meter();
+        this.histogram = histogram;
 
         this.rateFactor = TimeUnit.SECONDS.toSeconds(1);
         this.durationFactor = 1.0 / TimeUnit.MILLISECONDS.toNanos(1);
@@ -57,64 +86,210 @@ public class MethodMetrics {
         this.active = active;
     }
 
+    /**
+     * @return 1 if every call is timed, else N if only 1 in N calls is timed
+     */
+    public int getSamplingRate() {
+        return samplingRate;
+    }
+
+    public void setSamplingRate(int samplingRate) {
+        this.samplingRate = samplingRate;
+    }
+
+    /**
+     * The count (and so the rates) are scaled up by the sampling rate
+     */
     public long getCount() {
-        return timer.getCount();
+        return meter.getCount();
     }
 
     public double getMeanRate() {
-        return timer.getMeanRate() * rateFactor;
+        return meter.getMeanRate() * rateFactor;
     }
 
     public double getOneMinuteRate() {
-        return timer.getOneMinuteRate() * rateFactor;
+        return meter.getOneMinuteRate() * rateFactor;
     }
 
     public double getFiveMinuteRate() {
-        return timer.getFiveMinuteRate() * rateFactor;
+        return meter.getFiveMinuteRate() * rateFactor;
     }
 
     public double getFifteenMinuteRate() {
-        return timer.getFifteenMinuteRate() * rateFactor;
+        return meter.getFifteenMinuteRate() * rateFactor;
     }
 
     public double getMin() {
-        return timer.getSnapshot().getMin() * durationFactor;
+        return histogram.getSnapshot().getMin() * durationFactor;
     }
 
     public double getMax() {
-        return timer.getSnapshot().getMax() * durationFactor;
+        return histogram.getSnapshot().getMax() * durationFactor;
     }
 
     public double getMean() {
-        return timer.getSnapshot().getMean() * durationFactor;
+        return histogram.getSnapshot().getMean() * durationFactor;
     }
 
     public double getStdDev() {
-        return timer.getSnapshot().getStdDev() * durationFactor;
+        return histogram.getSnapshot().getStdDev() * durationFactor;
     }
 
     public double get50thPercentile() {
-        return timer.getSnapshot().getMedian() * durationFactor;
+        return histogram.getSnapshot().getMedian() * durationFactor;
     }
 
     public double get75thPercentile() {
-        return timer.getSnapshot().get75thPercentile() * durationFactor;
+        return histogram.getSnapshot().get75thPercentile() * durationFactor;
     }
 
     public double get95thPercentile() {
-        return timer.getSnapshot().get95thPercentile() * durationFactor;
+        return histogram.getSnapshot().get95thPercentile() * durationFactor;
     }
 
     public double get98thPercentile() {
-        return timer.getSnapshot().get98thPercentile() * durationFactor;
+        return histogram.getSnapshot().get98thPercentile() * durationFactor;
     }
 
     public double get99thPercentile() {
-        return timer.getSnapshot().get99thPercentile() * durationFactor;
+        return histogram.getSnapshot().get99thPercentile() * durationFactor;
     }
 
     public double get999thPercentile() {
-        return timer.getSnapshot().get999thPercentile() * durationFactor;
+        return histogram.getSnapshot().get999thPercentile() * durationFactor;
+    }
+
+    /**
+     * @return the time in nanoseconds callers are expected to call at, or 0 if the timings aren't corrected
+     */
+    public long getExpectedInterval() {
+        return expectedInterval;
+    }
+
+    /**
+     * @param expectedInterval if greater than 0, the time in nanoseconds callers are expected to call at. A call
+     *                         that takes longer delays the calls that would have been made meanwhile, so their
+     *                         delays are added to a second, corrected histogram - raw percentiles only show how
+     *                         long the calls took, not how long callers waited. Only calls timed from then on are
+     *                         corrected
+     */
+    public void setExpectedInterval(long expectedInterval) {
+        this.expectedInterval = expectedInterval;
+        if (expectedInterval <= 0) {
+            correctedHistogram = null;
+        } else if (correctedHistogram == null) {
+            correctedHistogram = new StripedHistogram();
+        }
+    }
+
+    /**
+     * @return the snapshot of the timings corrected for the expected interval - or of the raw timings, if
+     * they aren't corrected
+     */
+    public StripedHistogram.Snapshot getCorrectedSnapshot() {
+        StripedHistogram corrected = correctedHistogram;
+        return corrected != null ? corrected.getSnapshot() : histogram.getSnapshot();
+    }
+
+    public double getCorrectedMean() {
+        return getCorrectedSnapshot().getMean() * durationFactor;
+    }
+
+    public double getCorrected50thPercentile() {
+        return getCorrectedSnapshot().getMedian() * durationFactor;
+    }
+
+    public double getCorrected75thPercentile() {
+        return getCorrectedSnapshot().get75thPercentile() * durationFactor;
+    }
+
+    public double getCorrected95thPercentile() {
+        return getCorrectedSnapshot().get95thPercentile() * durationFactor;
+    }
+
+    public double getCorrected98thPercentile() {
+        return getCorrectedSnapshot().get98thPercentile() * durationFactor;
+    }
+
+    public double getCorrected99thPercentile() {
+        return getCorrectedSnapshot().get99thPercentile() * durationFactor;
+    }
+
+    public double getCorrected999thPercentile() {
+        return getCorrectedSnapshot().get999thPercentile() * durationFactor;
+    }
+
+    /**
+     * Adds the CPU time and bytes allocated by a call - either can be -1 if it wasn't measured
+     */
+    public void updateResources(long cpuTime, long allocatedBytes) {
+        if (cpuTime >= 0) {
+            this.cpuTime.add(cpuTime);
+            this.cpuTimeCount.increment();
+        }
+        if (allocatedBytes >= 0) {
+            this.allocatedBytes.add(allocatedBytes);
+            this.allocatedBytesCount.increment();
+        }
+    }
+
+    /**
+     * @return the mean CPU time in milliseconds of the calls that measured it
+     */
+    public double getMeanCpuTime() {
+        long count = cpuTimeCount.sum();
+        return count > 0 ? cpuTime.sum() * durationFactor / count : 0;
+    }
+
+    /**
+     * @return the mean number of bytes allocated by the calls that measured it
+     */
+    public double getMeanAllocatedBytes() {
+        long count = allocatedBytesCount.sum();
+        return count > 0 ? allocatedBytes.sum() / (double) count : 0;
+    }
+
+    /**
+     * @return the estimated number of bytes allocated by all calls, including those not measured
+     */
+    public double getTotalAllocatedBytes() {
+        return getMeanAllocatedBytes() * getCount();
+    }
+
+    /**
+     * Adds the time in milliseconds a call spent blocked entering monitors, and waiting - either can be -1
+     * if it wasn't measured
+     */
+    public void updateContention(long blockedTime, long waitedTime) {
+        if (blockedTime >= 0) {
+            this.blockedTime.add(blockedTime);
+            this.blockedTimeCount.increment();
+        }
+        if (waitedTime >= 0) {
+            this.waitedTime.add(waitedTime);
+            this.waitedTimeCount.increment();
+        }
+    }
+
+    /**
+     * @return the mean time in milliseconds the calls that measured it spent blocked entering monitors
+     */
+    public double getMeanBlockedTime() {
+        long count = blockedTimeCount.sum();
+        return count > 0 ? blockedTime.sum() / (double) count : 0;
+    }
+
+    /**
+     * @return the mean time in milliseconds the calls that measured it spent waiting - in Object.wait, join or parked
+     */
+    public double getMeanWaitedTime() {
+        long count = waitedTimeCount.sum();
+        return count > 0 ? waitedTime.sum() / (double) count : 0;
+    }
+
+    public StripedHistogram.Snapshot getSnapshot() {
+        return histogram.getSnapshot();
     }
 
     /**
@@ -123,7 +298,24 @@ public class MethodMetrics {
      * @return estimated load
      */
     public double getLoad() {
-        return timer.getSnapshot().size() * getMean();
+        //the mean from the sum and count - cheaper than taking a snapshot of the histogram
+        long timedCount = histogram.getCount();
+        if (timedCount == 0) {
+            return 0;
+        }
+        return getCount() * (histogram.getSum() * durationFactor / timedCount);
+    }
+
+    /**
+     * Calculates the load once, for use by {@link #rankedMetrics(Collection, int)}
+     */
+    double updateRankedLoad() {
+        rankedLoad = getLoad();
+        return rankedLoad;
+    }
+
+    double getRankedLoad() {
+        return rankedLoad;
     }
 
     public int getPercentage() {
@@ -135,12 +327,17 @@ public class MethodMetrics {
     }
 
     public long[] values() {
-        return timer.getSnapshot().getValues();
+        return histogram.getSnapshot().getValues();
     }
 
     public void update(long elapsed) {
         if (elapsed >= 0) {
-            timer.update(elapsed, TimeUnit.NANOSECONDS);
+            histogram.update(elapsed);
+            StripedHistogram corrected = correctedHistogram;
+            if (corrected != null) {
+                corrected.updateWithExpectedInterval(elapsed, expectedInterval);
+            }
+            meter.mark(samplingRate);
         }
     }
 
@@ -148,25 +345,60 @@ public class MethodMetrics {
         return "MethodMetrics:" + getName();
     }
 
+    /**
+     * @return the number of calls per second since this was last called
+     */
+    long calculateCallRate(long now) {
+        long count = getCount();
+        long elapsed = now - lastTime;
+        long result = elapsed > 0 ? ((count - lastCount) * TimeUnit.SECONDS.toNanos(1)) / elapsed : 0;
+        lastCount = count;
+        lastTime = now;
+        callRate = result;
+        return result;
+    }
+
+    /**
+     * @return the number of calls per second when the call rate was last calculated
+     */
+    long getCallRate() {
+        return callRate;
+    }
+
     public static List<? extends MethodMetrics> sortedMetrics(Collection<? extends MethodMetrics> collection) {
-        ArrayList<? extends MethodMetrics> list = new ArrayList<>(collection);
+        return rankedMetrics(collection, Integer.MAX_VALUE);
+    }
 
-        Collections.sort(list, new Comparator<MethodMetrics>() {
-            @Override
-            public int compare(MethodMetrics methodMetrics1, MethodMetrics methodMetrics2) {
-                return (int) ((int) methodMetrics2.getLoad() - (int) methodMetrics1.getLoad());
+    /**
+     * Finds the metrics with the highest load, and sets the percentage of the total load for every metric.
+     * The load of each metric is only calculated once, and only a heap of the top entries is kept, rather
+     * than sorting the whole collection.
+     *
+     * @return at most limit metrics, highest load first
+     */
+    public static <T extends MethodMetrics> List<T> rankedMetrics(Collection<T> collection, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        //smallest load at the head, so it is the one evicted
+        PriorityQueue<T> heap = new PriorityQueue<>(Math.min(limit, 64), LOAD_ASCENDING);
+        double totalLoad = 0;
+        for (T m : collection) {
+            double load = m.updateRankedLoad();
+            totalLoad += load;
+            if (heap.size() < limit) {
+                heap.add(m);
+            } else if (load > heap.peek().getRankedLoad()) {
+                heap.poll();
+                heap.add(m);
             }
-        });
-        //calculate the percentage
-        int totalLoad = 0;
-        for (MethodMetrics m : list) {
-            totalLoad += m.getLoad();
         }
-        for (MethodMetrics m : list) {
-            int percentage = (int) ((m.getLoad() * 100) / totalLoad);
-            m.setPercentage(percentage);
+        for (MethodMetrics m : collection) {
+            m.setPercentage(totalLoad > 0 ? (int) ((m.getRankedLoad() * 100) / totalLoad) : 0);
         }
-        return list;
+        List<T> result = new ArrayList<>(heap);
+        Collections.sort(result, Collections.reverseOrder(LOAD_ASCENDING));
+        return result;
     }
 }
 
@@ -34,6 +34,12 @@ public class MethodMetricsProxy implements MethodMetricsProxyMBean {
         return mm != null ? mm.getCount() : 0;
     }
 
+    @Override
+    public int getSamplingRate() {
+        MethodMetrics mm = this.methodMetrics;
+        return mm != null ? mm.getSamplingRate() : 1;
+    }
+
     @Override
     public double getMeanRate() {
         MethodMetrics mm = this.methodMetrics;
@@ -118,6 +124,78 @@ public class MethodMetricsProxy implements MethodMetricsProxyMBean {
         return mm != null ? mm.get999thPercentile() : 0;
     }
 
+    @Override
+    public double getMeanCpuTime() {
+        MethodMetrics mm = this.methodMetrics;
+        return mm != null ? mm.getMeanCpuTime() : 0;
+    }
+
+    @Override
+    public double getMeanAllocatedBytes() {
+        MethodMetrics mm = this.methodMetrics;
+        return mm != null ? mm.getMeanAllocatedBytes() : 0;
+    }
+
+    @Override
+    public double getCorrectedMean() {
+        MethodMetrics mm = this.methodMetrics;
+        return mm != null ? mm.getCorrectedMean() : 0;
+    }
+
+    @Override
+    public double getCorrected50thPercentile() {
+        MethodMetrics mm = this.methodMetrics;
+        return mm != null ? mm.getCorrected50thPercentile() : 0;
+    }
+
+    @Override
+    public double getCorrected75thPercentile() {
+        MethodMetrics mm = this.methodMetrics;
+        return mm != null ? mm.getCorrected75thPercentile() : 0;
+    }
+
+    @Override
+    public double getCorrected95thPercentile() {
+        MethodMetrics mm = this.methodMetrics;
+        return mm != null ? mm.getCorrected95thPercentile() : 0;
+    }
+
+    @Override
+    public double getCorrected98thPercentile() {
+        MethodMetrics mm = this.methodMetrics;
+        return mm != null ? mm.getCorrected98thPercentile() : 0;
+    }
+
+    @Override
+    public double getCorrected99thPercentile() {
+        MethodMetrics mm = this.methodMetrics;
+        return mm != null ? mm.getCorrected99thPercentile() : 0;
+    }
+
+    @Override
+    public double getCorrected999thPercentile() {
+        MethodMetrics mm = this.methodMetrics;
+        return mm != null ? mm.getCorrected999thPercentile() : 0;
+    }
+
+    @Override
+    public double getTotalAllocatedBytes() {
+        MethodMetrics mm = this.methodMetrics;
+        return mm != null ? mm.getTotalAllocatedBytes() : 0;
+    }
+
+    @Override
+    public double getMeanBlockedTime() {
+        MethodMetrics mm = this.methodMetrics;
+        return mm != null ? mm.getMeanBlockedTime() : 0;
+    }
+
+    @Override
+    public double getMeanWaitedTime() {
+        MethodMetrics mm = this.methodMetrics;
+        return mm != null ? mm.getMeanWaitedTime() : 0;
+    }
+
     @Override
     public long[] values() {
         MethodMetrics mm = this.methodMetrics;
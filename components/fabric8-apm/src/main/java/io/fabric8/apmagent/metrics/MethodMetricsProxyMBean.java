@@ -23,6 +23,8 @@ public interface MethodMetricsProxyMBean {
 
     int getPercentage();
 
+    int getSamplingRate();
+
     double getLoad();
 
     double getMeanRate();
@@ -53,6 +55,30 @@ public interface MethodMetricsProxyMBean {
 
     double get999thPercentile();
 
+    double getCorrectedMean();
+
+    double getCorrected50thPercentile();
+
+    double getCorrected75thPercentile();
+
+    double getCorrected95thPercentile();
+
+    double getCorrected98thPercentile();
+
+    double getCorrected99thPercentile();
+
+    double getCorrected999thPercentile();
+
+    double getMeanCpuTime();
+
+    double getMeanAllocatedBytes();
+
+    double getTotalAllocatedBytes();
+
+    double getMeanBlockedTime();
+
+    double getMeanWaitedTime();
+
     long[] values();
 
 }
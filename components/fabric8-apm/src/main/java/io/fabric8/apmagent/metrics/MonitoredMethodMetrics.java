@@ -15,6 +15,7 @@
  */
 package io.fabric8.apmagent.metrics;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -42,11 +43,15 @@ public class MonitoredMethodMetrics {
         }
     }
 
-    public void calculateMethodMetrics(List<? extends MethodMetrics> methodMetricsList) {
-        if (methodMetricsList.size() < proxyList.size()) {
+    /**
+     * Ranks the metrics and points the monitored proxies at the ones with the highest load
+     */
+    public void calculateMethodMetrics(Collection<? extends MethodMetrics> allMethodMetrics) {
+        List<? extends MethodMetrics> methodMetricsList = MethodMetrics.rankedMetrics(allMethodMetrics, monitorSize);
+        if (allMethodMetrics.size() < proxyList.size()) {
             setMonitorSize(methodMetricsList.size());
         }
-        if (methodMetricsList.size() > proxyList.size() && proxyList.size() < monitorSize) {
+        if (allMethodMetrics.size() > proxyList.size() && proxyList.size() < monitorSize) {
             int extra = monitorSize - proxyList.size();
 
             if (extra > 0) {
@@ -16,18 +16,18 @@
 package io.fabric8.apmagent.metrics;
 
 public class MonitoredThreadMethodMetrics extends MonitoredMethodMetrics {
-    private Thread thread;
+    private final ThreadMetrics threadMetrics;
 
-    MonitoredThreadMethodMetrics(Thread thread, ApmAgentContext apmAgentContext) {
+    MonitoredThreadMethodMetrics(ThreadMetrics threadMetrics, ApmAgentContext apmAgentContext) {
         super(apmAgentContext);
-        this.thread = thread;
+        this.threadMetrics = threadMetrics;
     }
 
     @Override
     protected ThreadContextMethodMetricsProxy createProxy(int rank) {
         ThreadContextMethodMetricsProxy result = new ThreadContextMethodMetricsProxy();
-        result.setThread(thread);
-        apmAgentContext.registerMethodMetricsMBean(thread.getName(), thread.getId(), rank, result);
+        result.setThreadMetrics(threadMetrics);
+        apmAgentContext.registerMethodMetricsMBean(threadMetrics.getThreadName(), threadMetrics.getThreadId(), rank, result);
         return result;
     }
 }
@@ -0,0 +1,101 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Reads the CPU time and allocated bytes of the current thread - the allocated bytes are only
+ * available on JVMs providing com.sun.management.ThreadMXBean, and are -1 otherwise. The time a
+ * thread has spent blocked and waiting comes from its ThreadInfo, and is -1 unless thread contention
+ * monitoring is enabled. The CPU time of the whole process is likewise only available on HotSpot
+ * based JVMs.
+ */
+final class ResourceUsage {
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+    private static final com.sun.management.ThreadMXBean ALLOCATION_MX_BEAN = getAllocationMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported();
+    private static final com.sun.management.OperatingSystemMXBean OPERATING_SYSTEM_MX_BEAN = getOperatingSystemMXBean();
+
+    private ResourceUsage() {
+    }
+
+    static long getCpuTime() {
+        return CPU_TIME_SUPPORTED ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : -1;
+    }
+
+    /**
+     * @return the CPU time, in nanoseconds, used by the whole process - or -1 if it isn't available
+     */
+    static long getProcessCpuTime() {
+        com.sun.management.OperatingSystemMXBean bean = OPERATING_SYSTEM_MX_BEAN;
+        return bean != null ? bean.getProcessCpuTime() : -1;
+    }
+
+    static long getAllocatedBytes(long threadId) {
+        com.sun.management.ThreadMXBean bean = ALLOCATION_MX_BEAN;
+        return bean != null ? bean.getThreadAllocatedBytes(threadId) : -1;
+    }
+
+    /**
+     * @return the ThreadInfo of the thread, without its stack, or null if it has died
+     */
+    static ThreadInfo getThreadInfo(long threadId) {
+        return THREAD_MX_BEAN.getThreadInfo(threadId, 0);
+    }
+
+    static void enableContentionMonitoring() {
+        try {
+            if (THREAD_MX_BEAN.isThreadContentionMonitoringSupported() && !THREAD_MX_BEAN.isThreadContentionMonitoringEnabled()) {
+                THREAD_MX_BEAN.setThreadContentionMonitoringEnabled(true);
+            }
+        } catch (SecurityException e) {
+            //the blocked and waited times stay at -1
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean getAllocationMXBean() {
+        try {
+            if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean result = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+                if (result.isThreadAllocatedMemorySupported()) {
+                    if (!result.isThreadAllocatedMemoryEnabled()) {
+                        result.setThreadAllocatedMemoryEnabled(true);
+                    }
+                    return result;
+                }
+            }
+        } catch (Throwable e) {
+            //not a HotSpot based JVM
+        }
+        return null;
+    }
+
+    private static com.sun.management.OperatingSystemMXBean getOperatingSystemMXBean() {
+        try {
+            OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+            if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+                return (com.sun.management.OperatingSystemMXBean) bean;
+            }
+        } catch (Throwable e) {
+            //not a HotSpot based JVM
+        }
+        return null;
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single call of an instrumented method that took longer than the slow call threshold.
+ */
+public class SlowCall {
+    private final String methodName;
+    private final String threadName;
+    private final long threadId;
+    private final long startTime;
+    private final long duration;
+    private final String callers;
+    private final List<String> arguments;
+
+    SlowCall(String methodName, String threadName, long threadId, long startTime, long duration, String callers, List<String> arguments) {
+        this.methodName = methodName;
+        this.threadName = threadName;
+        this.threadId = threadId;
+        this.startTime = startTime;
+        this.duration = duration;
+        this.callers = callers;
+        this.arguments = arguments;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    public long getThreadId() {
+        return threadId;
+    }
+
+    /**
+     * @return the time in milliseconds since the epoch the call started at
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the duration in nanoseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return the instrumented methods the call was made from, outermost first
+     */
+    public String getCallers() {
+        return callers;
+    }
+
+    /**
+     * @return the toString of the first arguments of the call, or null if they weren't captured
+     */
+    public List<String> getArguments() {
+        return arguments;
+    }
+
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(methodName).append(" on ").append(threadName).append(" took ")
+            .append(String.format("%.3f", duration / (double) TimeUnit.MILLISECONDS.toNanos(1))).append(" ms, called from ")
+            .append(callers);
+        if (arguments != null) {
+            result.append(", arguments ").append(arguments);
+        }
+        return result.toString();
+    }
+}
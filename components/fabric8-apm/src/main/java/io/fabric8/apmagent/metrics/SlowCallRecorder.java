@@ -0,0 +1,106 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import io.fabric8.apmagent.ApmConfiguration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the most recent calls that took longer than the slow call threshold, in a bounded ring
+ * that threads record into without locking - a slot is claimed from a counter, so when the ring
+ * is full the oldest calls are overwritten.
+ */
+public class SlowCallRecorder {
+    private static final int MAX_ARGUMENT_LENGTH = 256;
+    private final long threshold;
+    private final AtomicReferenceArray<SlowCall> history;
+    private final AtomicLong historyCount = new AtomicLong();
+
+    SlowCallRecorder(ApmConfiguration configuration) {
+        this.threshold = TimeUnit.MILLISECONDS.toNanos(configuration.getSlowCallThreshold());
+        this.history = new AtomicReferenceArray<>(Math.max(1, configuration.getSlowCallHistorySize()));
+    }
+
+    /**
+     * @return the time in nanoseconds a call has to take to be kept
+     */
+    long getThreshold() {
+        return threshold;
+    }
+
+    void record(ThreadMetrics threadMetrics, String methodName, long duration, Object[] arguments) {
+        List<String> argumentStrings = null;
+        if (arguments != null) {
+            String[] strings = new String[arguments.length];
+            for (int i = 0; i < arguments.length; i++) {
+                strings[i] = toString(arguments[i]);
+            }
+            argumentStrings = Collections.unmodifiableList(Arrays.asList(strings));
+        }
+        long startTime = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(duration);
+        SlowCall slowCall = new SlowCall(methodName, threadMetrics.getThreadName(), threadMetrics.getThreadId(), startTime,
+                                         duration, threadMetrics.getMethodStack(), argumentStrings);
+        long index = historyCount.getAndIncrement();
+        history.set((int) (index % history.length()), slowCall);
+    }
+
+    /**
+     * @return the slow calls kept, oldest first
+     */
+    public List<SlowCall> getSlowCalls() {
+        List<SlowCall> result = new ArrayList<>();
+        long end = historyCount.get();
+        for (long i = Math.max(0, end - history.length()); i < end; i++) {
+            SlowCall slowCall = history.get((int) (i % history.length()));
+            if (slowCall != null) {
+                result.add(slowCall);
+            }
+        }
+        return result;
+    }
+
+    public void clearSlowCalls() {
+        for (int i = 0; i < history.length(); i++) {
+            history.set(i, null);
+        }
+    }
+
+    private static String toString(Object value) {
+        String result;
+        try {
+            if (value != null && value.getClass().isArray()) {
+                result = Arrays.deepToString(new Object[]{value});
+                result = result.substring(1, result.length() - 1);
+            } else {
+                result = String.valueOf(value);
+            }
+        } catch (Throwable e) {
+            //its the application's toString - so never let it fail the call
+            result = value.getClass().getName() + " (toString failed due " + e + ")";
+        }
+        if (result.length() > MAX_ARGUMENT_LENGTH) {
+            result = result.substring(0, MAX_ARGUMENT_LENGTH) + "...";
+        }
+        return result;
+    }
+}
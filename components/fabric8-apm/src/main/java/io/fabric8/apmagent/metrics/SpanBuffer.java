@@ -0,0 +1,148 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.Arrays;
+
+/**
+ * The calls of the trace in progress on a thread. The arrays are allocated once and reused for every
+ * trace on the thread, so recording a call is just a few array stores. Only the owning thread touches it.
+ */
+class SpanBuffer {
+    private final SpanRecorder recorder;
+    private final String[] names;
+    private final long[] starts;
+    private final long[] ends;
+    private final int[] depths;
+    private int[] open = new int[32];
+    private String[] openNames = new String[32];
+    private int count;
+    private int dropped;
+    private int depth;
+    private long traceId;
+    private boolean async;
+    private long startTime;
+
+    SpanBuffer(SpanRecorder recorder, int capacity) {
+        this.recorder = recorder;
+        this.names = new String[capacity];
+        this.starts = new long[capacity];
+        this.ends = new long[capacity];
+        this.depths = new int[capacity];
+    }
+
+    SpanRecorder getRecorder() {
+        return recorder;
+    }
+
+    boolean isActive() {
+        return depth > 0;
+    }
+
+    long getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * @return the name of the innermost call recorded, or null
+     */
+    String getCurrentName() {
+        for (int i = depth - 1; i >= 0; i--) {
+            if (open[i] >= 0) {
+                return names[open[i]];
+            }
+        }
+        return null;
+    }
+
+    void begin(long traceId, boolean async) {
+        this.traceId = traceId;
+        this.async = async;
+        this.startTime = System.currentTimeMillis();
+        this.count = 0;
+        this.dropped = 0;
+        this.depth = 0;
+    }
+
+    void enter(String name) {
+        if (depth == open.length) {
+            open = Arrays.copyOf(open, depth * 2);
+            openNames = Arrays.copyOf(openNames, depth * 2);
+        }
+        openNames[depth] = name;
+        if (count < names.length) {
+            int index = count++;
+            names[index] = name;
+            depths[index] = depth;
+            ends[index] = -1;
+            starts[index] = System.nanoTime();
+            open[depth++] = index;
+        } else {
+            dropped++;
+            open[depth++] = -1;
+        }
+    }
+
+    /**
+     * Closes the innermost open call of the given name, and any calls inside it which were never exited -
+     * as happens when an exception passes through a method that gets no exit call. A call that wasn't
+     * recorded as the buffer was full only closes its own level, so it can't end a recorded call of the
+     * same name further out
+     *
+     * @return true if the outermost call of the trace has exited
+     */
+    boolean exit(String name) {
+        if (depth == 0) {
+            return false;
+        }
+        int level = depth - 1;
+        if (open[level] < 0 && name.equals(openNames[level])) {
+            //the exit of a call that wasn't recorded as the buffer was full
+            openNames[level] = null;
+            depth = level;
+            return depth == 0;
+        }
+        while (level >= 0 && !name.equals(openNames[level])) {
+            level--;
+        }
+        if (level < 0) {
+            //an exit without an enter - e.g. the method was instrumented while it was running
+            return false;
+        }
+        long now = System.nanoTime();
+        for (int i = depth - 1; i >= level; i--) {
+            if (open[i] >= 0) {
+                ends[open[i]] = now;
+            }
+            openNames[i] = null;
+        }
+        depth = level;
+        return depth == 0;
+    }
+
+    long getDuration() {
+        return count > 0 && ends[0] >= 0 ? ends[0] - starts[0] : 0;
+    }
+
+    Trace toTrace(String threadName) {
+        Trace.Span[] spans = new Trace.Span[count];
+        for (int i = 0; i < count; i++) {
+            long duration = ends[i] >= 0 ? ends[i] - starts[i] : -1;
+            spans[i] = new Trace.Span(names[i], depths[i], starts[i] - starts[0], duration);
+        }
+        return new Trace(traceId, async, threadName, startTime, getDuration(), dropped, spans);
+    }
+}
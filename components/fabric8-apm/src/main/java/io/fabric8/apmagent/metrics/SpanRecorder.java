@@ -0,0 +1,192 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import io.fabric8.apmagent.ApmConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records the calls made from the configured entry point methods as a {@link Trace}, and keeps the
+ * most recent traces that took longer than the threshold.
+ * <p/>
+ * Calls are only recorded while a trace is in progress on a thread - other calls just check whether
+ * they are an entry point, which is cached per method. Tasks wrapped by {@link #wrap(Runnable)} carry
+ * the trace id over to the thread that runs them.
+ */
+public class SpanRecorder {
+    private static final AtomicLong TRACE_ID_GENERATOR = new AtomicLong();
+    private final ApmAgentContext apmAgentContext;
+    private final ApmConfiguration configuration;
+    private final long threshold;
+    private final int bufferSize;
+    private final ConcurrentMap<String, Boolean> entryPoints = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<Trace> history;
+    private final AtomicLong historyCount = new AtomicLong();
+
+    SpanRecorder(ApmAgentContext apmAgentContext, ApmConfiguration configuration) {
+        this.apmAgentContext = apmAgentContext;
+        this.configuration = configuration;
+        this.threshold = TimeUnit.MILLISECONDS.toNanos(configuration.getTraceThreshold());
+        this.bufferSize = Math.max(1, configuration.getTraceBufferSize());
+        this.history = new AtomicReferenceArray<>(Math.max(1, configuration.getTraceHistorySize()));
+    }
+
+    void enter(ThreadMetrics threadMetrics, String methodName) {
+        SpanBuffer buffer = threadMetrics.getSpanBuffer();
+        if (buffer != null && buffer.isActive()) {
+            buffer.enter(methodName);
+        } else if (isEntryPoint(methodName)) {
+            buffer = getSpanBuffer(threadMetrics);
+            buffer.begin(TRACE_ID_GENERATOR.incrementAndGet(), false);
+            buffer.enter(methodName);
+        }
+    }
+
+    void exit(ThreadMetrics threadMetrics, String methodName) {
+        SpanBuffer buffer = threadMetrics.getSpanBuffer();
+        if (buffer != null && buffer.isActive() && buffer.exit(methodName)) {
+            complete(threadMetrics, buffer);
+        }
+    }
+
+    /**
+     * @return the slow traces kept, oldest first
+     */
+    public List<Trace> getSlowTraces() {
+        List<Trace> result = new ArrayList<>();
+        long end = historyCount.get();
+        for (long i = Math.max(0, end - history.length()); i < end; i++) {
+            Trace trace = history.get((int) (i % history.length()));
+            if (trace != null) {
+                result.add(trace);
+            }
+        }
+        return result;
+    }
+
+    public void clearSlowTraces() {
+        for (int i = 0; i < history.length(); i++) {
+            history.set(i, null);
+        }
+    }
+
+    /**
+     * @return a task that continues the trace in progress on the calling thread, or the task itself if
+     * there isn't one
+     */
+    public Runnable wrap(final Runnable task) {
+        final SpanBuffer parent = getCurrentSpanBuffer();
+        if (parent == null) {
+            return task;
+        }
+        final long traceId = parent.getTraceId();
+        final String name = "async " + parent.getCurrentName();
+        return new Runnable() {
+            @Override
+            public void run() {
+                ThreadMetrics threadMetrics = beginAsync(traceId, name);
+                try {
+                    task.run();
+                } finally {
+                    endAsync(threadMetrics, name);
+                }
+            }
+        };
+    }
+
+    /**
+     * @see #wrap(Runnable)
+     */
+    public <T> Callable<T> wrap(final Callable<T> task) {
+        final SpanBuffer parent = getCurrentSpanBuffer();
+        if (parent == null) {
+            return task;
+        }
+        final long traceId = parent.getTraceId();
+        final String name = "async " + parent.getCurrentName();
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                ThreadMetrics threadMetrics = beginAsync(traceId, name);
+                try {
+                    return task.call();
+                } finally {
+                    endAsync(threadMetrics, name);
+                }
+            }
+        };
+    }
+
+    private SpanBuffer getCurrentSpanBuffer() {
+        SpanBuffer buffer = apmAgentContext.getCurrentThreadMetrics().getSpanBuffer();
+        return buffer != null && buffer.isActive() ? buffer : null;
+    }
+
+    /**
+     * @return the thread metrics if an async trace was started, or null if the task is run by a thread
+     * that is already tracing (e.g. the caller runs it)
+     */
+    private ThreadMetrics beginAsync(long traceId, String name) {
+        ThreadMetrics threadMetrics = apmAgentContext.getCurrentThreadMetrics();
+        SpanBuffer buffer = getSpanBuffer(threadMetrics);
+        if (buffer.isActive()) {
+            return null;
+        }
+        buffer.begin(traceId, true);
+        buffer.enter(name);
+        return threadMetrics;
+    }
+
+    private void endAsync(ThreadMetrics threadMetrics, String name) {
+        if (threadMetrics != null) {
+            exit(threadMetrics, name);
+        }
+    }
+
+    private SpanBuffer getSpanBuffer(ThreadMetrics threadMetrics) {
+        SpanBuffer buffer = threadMetrics.getSpanBuffer();
+        if (buffer == null || (buffer.getRecorder() != this && !buffer.isActive())) {
+            buffer = new SpanBuffer(this, bufferSize);
+            threadMetrics.setSpanBuffer(buffer);
+        }
+        return buffer;
+    }
+
+    private void complete(ThreadMetrics threadMetrics, SpanBuffer buffer) {
+        if (buffer.getDuration() >= threshold) {
+            Trace trace = buffer.toTrace(threadMetrics.getThreadName());
+            long index = historyCount.getAndIncrement();
+            history.set((int) (index % history.length()), trace);
+        }
+    }
+
+    private boolean isEntryPoint(String methodName) {
+        Boolean result = entryPoints.get(methodName);
+        if (result == null) {
+            result = configuration.isTraceEntryPoint(methodName);
+            entryPoints.put(methodName, result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,355 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock free histogram of non-negative long values (typically nanoseconds).
+ * <p/>
+ * Values are counted in log-linear buckets: each power of two range is split into
+ * {@link #SUB_BUCKET_COUNT} linear sub buckets, so the relative error of a reported
+ * value is bounded by 1/{@link #SUB_BUCKET_COUNT}. Recording threads are spread over
+ * a number of stripes, each a plain array of counters, which are only merged when a
+ * {@link Snapshot} is taken.
+ */
+public class StripedHistogram {
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // values above 2^MAX_EXPONENT (about 18 minutes in nanoseconds) are recorded in the last bucket
+    static final int MAX_EXPONENT = 40;
+    static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+    private static final int COUNT = BUCKET_COUNT;
+    private static final int SUM = BUCKET_COUNT + 1;
+    private static final int MIN = BUCKET_COUNT + 2;
+    private static final int MAX = BUCKET_COUNT + 3;
+    private static final int STRIPE_LENGTH = BUCKET_COUNT + 4;
+    private static final int DEFAULT_STRIPES = defaultStripes();
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes;
+    private final int stripeMask;
+
+    public StripedHistogram() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripeCount the number of stripes, rounded up to a power of two.
+     *                    Use 1 if only a single thread ever records values
+     */
+    public StripedHistogram(int stripeCount) {
+        int size = 1;
+        while (size < stripeCount) {
+            size <<= 1;
+        }
+        this.stripes = new AtomicReferenceArray<>(size);
+        this.stripeMask = size - 1;
+    }
+
+    public void update(long value) {
+        if (value < 0) {
+            return;
+        }
+        AtomicLongArray stripe = getStripe();
+        stripe.incrementAndGet(bucketIndex(value));
+        stripe.incrementAndGet(COUNT);
+        stripe.addAndGet(SUM, value);
+        long current = stripe.get(MIN);
+        while (value < current && !stripe.compareAndSet(MIN, current, value)) {
+            current = stripe.get(MIN);
+        }
+        current = stripe.get(MAX);
+        while (value > current && !stripe.compareAndSet(MAX, current, value)) {
+            current = stripe.get(MAX);
+        }
+    }
+
+    /**
+     * Records the value, and back-fills the values that callers expected every expectedInterval would
+     * have seen while this one was in progress - value - expectedInterval, value - 2 * expectedInterval ...
+     * down to expectedInterval - as HdrHistogram's recordValueWithExpectedInterval does. The back-filled
+     * values are counted a bucket at a time, so a long stall costs no more to record than a short one.
+     */
+    public void updateWithExpectedInterval(long value, long expectedInterval) {
+        update(value);
+        if (expectedInterval <= 0 || value < 2 * expectedInterval) {
+            return;
+        }
+        long highest = value - expectedInterval;
+        long missing = highest / expectedInterval;
+        long lowest = highest - (missing - 1) * expectedInterval;
+        AtomicLongArray stripe = getStripe();
+        int last = bucketIndex(highest);
+        for (int i = bucketIndex(lowest); i <= last; i++) {
+            long from = Math.max(lowest, bucketLowerBound(i));
+            long to = i == BUCKET_COUNT - 1 ? highest : Math.min(highest, bucketLowerBound(i) + bucketWidth(i) - 1);
+            if (from <= to) {
+                //the back-filled values in the bucket are lowest + k * expectedInterval for k in [first, last]
+                long firstK = (from - lowest + expectedInterval - 1) / expectedInterval;
+                long lastK = (to - lowest) / expectedInterval;
+                if (lastK >= firstK) {
+                    stripe.addAndGet(i, lastK - firstK + 1);
+                }
+            }
+        }
+        stripe.addAndGet(COUNT, missing);
+        //an arithmetic series - and one of missing and (lowest + highest) is even
+        stripe.addAndGet(SUM, (missing & 1) == 0 ? (missing / 2) * (lowest + highest) : missing * ((lowest + highest) / 2));
+        long current = stripe.get(MIN);
+        while (lowest < current && !stripe.compareAndSet(MIN, current, lowest)) {
+            current = stripe.get(MIN);
+        }
+    }
+
+    public long getCount() {
+        long result = 0;
+        for (int i = 0; i < stripes.length(); i++) {
+            AtomicLongArray stripe = stripes.get(i);
+            if (stripe != null) {
+                result += stripe.get(COUNT);
+            }
+        }
+        return result;
+    }
+
+    public long getSum() {
+        long result = 0;
+        for (int i = 0; i < stripes.length(); i++) {
+            AtomicLongArray stripe = stripes.get(i);
+            if (stripe != null) {
+                result += stripe.get(SUM);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Merges all the stripes - the result is not an atomic view if values are being recorded concurrently.
+     */
+    public Snapshot getSnapshot() {
+        long[] buckets = new long[BUCKET_COUNT];
+        long count = 0;
+        long sum = 0;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < stripes.length(); i++) {
+            AtomicLongArray stripe = stripes.get(i);
+            if (stripe != null) {
+                for (int j = 0; j < BUCKET_COUNT; j++) {
+                    buckets[j] += stripe.get(j);
+                }
+                count += stripe.get(COUNT);
+                sum += stripe.get(SUM);
+                min = Math.min(min, stripe.get(MIN));
+                max = Math.max(max, stripe.get(MAX));
+            }
+        }
+        return new Snapshot(buckets, count, sum, count > 0 ? min : 0, max);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @return the smallest value recorded in the bucket at the index, as returned by {@link Snapshot#getBucketCounts()}
+     */
+    public static long getBucketLowerBound(int index) {
+        return bucketLowerBound(index);
+    }
+
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        return ((long) (SUB_BUCKET_COUNT + subBucket)) << shift;
+    }
+
+    static long bucketWidth(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return 1;
+        }
+        return 1L << ((index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT);
+    }
+
+    private AtomicLongArray getStripe() {
+        int index = (int) (Thread.currentThread().getId() & stripeMask);
+        AtomicLongArray stripe = stripes.get(index);
+        if (stripe == null) {
+            AtomicLongArray newStripe = new AtomicLongArray(STRIPE_LENGTH);
+            newStripe.set(MIN, Long.MAX_VALUE);
+            if (stripes.compareAndSet(index, null, newStripe)) {
+                stripe = newStripe;
+            } else {
+                stripe = stripes.get(index);
+            }
+        }
+        return stripe;
+    }
+
+    private static int defaultStripes() {
+        return Math.min(Runtime.getRuntime().availableProcessors(), 16);
+    }
+
+    /**
+     * A merged, immutable view of a {@link StripedHistogram}.
+     */
+    public static class Snapshot {
+        private static final int MAX_VALUES = 1028;
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+        private final long min;
+        private final long max;
+
+        Snapshot(long[] buckets, long count, long sum, long min, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        public long size() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * @return a copy of the number of values recorded in each bucket
+         */
+        public long[] getBucketCounts() {
+            return buckets.clone();
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count > 0 ? (double) sum / count : 0;
+        }
+
+        public double getStdDev() {
+            if (count <= 1) {
+                return 0;
+            }
+            double mean = getMean();
+            double variance = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                if (buckets[i] > 0) {
+                    double diff = bucketValue(i) - mean;
+                    variance += diff * diff * buckets[i];
+                }
+            }
+            return Math.sqrt(variance / (count - 1));
+        }
+
+        /**
+         * @param quantile a value between 0.0 and 1.0
+         */
+        public double getValue(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            if (rank < 1) {
+                rank = 1;
+            }
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return bucketValue(i);
+                }
+            }
+            return max;
+        }
+
+        public double getMedian() {
+            return getValue(0.5);
+        }
+
+        public double get75thPercentile() {
+            return getValue(0.75);
+        }
+
+        public double get95thPercentile() {
+            return getValue(0.95);
+        }
+
+        public double get98thPercentile() {
+            return getValue(0.98);
+        }
+
+        public double get99thPercentile() {
+            return getValue(0.99);
+        }
+
+        public double get999thPercentile() {
+            return getValue(0.999);
+        }
+
+        /**
+         * @return the recorded values, approximated by their bucket and scaled down to
+         * at most 1028 entries
+         */
+        public long[] getValues() {
+            double scale = count > MAX_VALUES ? (double) MAX_VALUES / count : 1;
+            long[] result = new long[(int) Math.min(count, MAX_VALUES)];
+            int pos = 0;
+            for (int i = 0; i < buckets.length && pos < result.length; i++) {
+                if (buckets[i] > 0) {
+                    long value = (long) bucketValue(i);
+                    int n = (int) Math.max(1, Math.round(buckets[i] * scale));
+                    for (int j = 0; j < n && pos < result.length; j++) {
+                        result[pos++] = value;
+                    }
+                }
+            }
+            if (pos < result.length) {
+                long[] trimmed = new long[pos];
+                System.arraycopy(result, 0, trimmed, 0, pos);
+                result = trimmed;
+            }
+            return result;
+        }
+
+        private double bucketValue(int index) {
+            double value = bucketLowerBound(index) + (bucketWidth(index) - 1) / 2.0;
+            return Math.max(min, Math.min(max, value));
+        }
+    }
+}
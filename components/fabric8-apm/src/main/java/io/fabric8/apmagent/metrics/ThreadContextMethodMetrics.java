@@ -15,31 +15,83 @@
  */
 package io.fabric8.apmagent.metrics;
 
-import com.codahale.metrics.Timer;
-
+import java.lang.management.ThreadInfo;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class ThreadContextMethodMetrics extends MethodMetrics {
-    private final Thread thread;
+    private final ThreadMetrics threadMetrics;
     private final AtomicReference<ThreadContextMethodMetricsStack> stackRef;
-    private Timer.Context timerContext;
+    private long startTime;
+    private boolean timing;
+    private int callCount;
+    private boolean resourceTiming;
+    private long startCpuTime;
+    private long startAllocatedBytes;
+    private Object[] arguments;
+    private boolean contentionTiming;
+    private long startBlockedTime;
+    private long startWaitedTime;
 
-    public ThreadContextMethodMetrics(Thread thread, AtomicReference<ThreadContextMethodMetricsStack> stackRef, String name) {
-        super(name);
-        this.thread = thread;
+    public ThreadContextMethodMetrics(ThreadMetrics threadMetrics, AtomicReference<ThreadContextMethodMetricsStack> stackRef, String name) {
+        // only ever updated by its own thread - so a single stripe is enough
+        super(name, new StripedHistogram(1));
+        this.threadMetrics = threadMetrics;
         this.stackRef = stackRef;
     }
 
     public String getThreadName() {
-        return thread.getName();
+        return threadMetrics.getThreadName();
     }
 
     public long getThreadId() {
-        return thread.getId();
+        return threadMetrics.getThreadId();
+    }
+
+    public boolean isResourceTiming() {
+        return resourceTiming;
+    }
+
+    /**
+     * @param resourceTiming if true, the CPU time and bytes allocated are measured as well for the calls timed
+     */
+    public void setResourceTiming(boolean resourceTiming) {
+        this.resourceTiming = resourceTiming;
+    }
+
+    public boolean isContentionTiming() {
+        return contentionTiming;
+    }
+
+    /**
+     * @param contentionTiming if true, the time spent blocked on monitors and waiting is measured as well for
+     *                         the calls timed
+     */
+    public void setContentionTiming(boolean contentionTiming) {
+        this.contentionTiming = contentionTiming;
     }
 
     public void onEnter() {
-        timerContext = timer.time();
+        onEnter(null);
+    }
+
+    /**
+     * @param arguments the first arguments of the call, kept until it exits in case it turns out to be slow
+     */
+    public void onEnter(Object[] arguments) {
+        timing = isSampled();
+        if (timing) {
+            this.arguments = arguments;
+            if (resourceTiming) {
+                startCpuTime = ResourceUsage.getCpuTime();
+                startAllocatedBytes = ResourceUsage.getAllocatedBytes(threadMetrics.getThreadId());
+            }
+            if (contentionTiming) {
+                ThreadInfo threadInfo = ResourceUsage.getThreadInfo(threadMetrics.getThreadId());
+                startBlockedTime = threadInfo != null ? threadInfo.getBlockedTime() : -1;
+                startWaitedTime = threadInfo != null ? threadInfo.getWaitedTime() : -1;
+            }
+            startTime = System.nanoTime();
+        }
         stackRef.get().push(this);
     }
 
@@ -47,23 +99,68 @@ public class ThreadContextMethodMetrics extends MethodMetrics {
         long result = -1;
         ThreadContextMethodMetrics last = stackRef.get().pop();
         if (last == this) {
-            result = timerContext.stop();
+            result = stopTimer();
         } else {
             //the exit could have jumped a few methods if its
             //caused by an exception
             while (last != null && last != this) {
-                result = last.timerContext.stop();
+                result = last.stopTimer();
                 last = stackRef.get().pop();
             }
             if (last == this) {
-                result = timerContext.stop();
+                result = stopTimer();
             }
         }
         return result;
     }
 
+    /**
+     * Used when the caller has kept the start time itself - resource usage and contention can't be measured
+     * without a call on entry, so methods that measure them are never timed this way
+     *
+     * @return the elapsed time, or -1 if this call isn't sampled
+     */
+    public long onExit(long startTime) {
+        long result = -1;
+        if (isSampled()) {
+            result = System.nanoTime() - startTime;
+            update(result);
+        }
+        return result;
+    }
+
     public String toString() {
         return "ThreadContextMethodMetrics:" + getName();
     }
-}
 
+    private long stopTimer() {
+        if (!timing) {
+            return -1;
+        }
+        long elapsed = System.nanoTime() - startTime;
+        update(elapsed);
+        if (resourceTiming) {
+            long cpuTime = startCpuTime >= 0 ? ResourceUsage.getCpuTime() - startCpuTime : -1;
+            long allocatedBytes = startAllocatedBytes >= 0 ? ResourceUsage.getAllocatedBytes(threadMetrics.getThreadId()) - startAllocatedBytes : -1;
+            updateResources(cpuTime, allocatedBytes);
+            threadMetrics.setLastResources(cpuTime, allocatedBytes);
+        }
+        if (contentionTiming) {
+            ThreadInfo threadInfo = ResourceUsage.getThreadInfo(threadMetrics.getThreadId());
+            long blockedTime = threadInfo != null && startBlockedTime >= 0 && threadInfo.getBlockedTime() >= 0 ? threadInfo.getBlockedTime() - startBlockedTime : -1;
+            long waitedTime = threadInfo != null && startWaitedTime >= 0 && threadInfo.getWaitedTime() >= 0 ? threadInfo.getWaitedTime() - startWaitedTime : -1;
+            updateContention(blockedTime, waitedTime);
+            threadMetrics.setLastContention(blockedTime, waitedTime);
+        }
+        if (arguments != null) {
+            threadMetrics.setLastArguments(arguments);
+            arguments = null;
+        }
+        return elapsed;
+    }
+
+    private boolean isSampled() {
+        int rate = getSamplingRate();
+        return rate <= 1 || (++callCount & (rate - 1)) == 0;
+    }
+}
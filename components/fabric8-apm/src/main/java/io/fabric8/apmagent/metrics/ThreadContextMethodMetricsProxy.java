@@ -16,25 +16,25 @@
 package io.fabric8.apmagent.metrics;
 
 public class ThreadContextMethodMetricsProxy extends MethodMetricsProxy implements ThreadContextMethodMetricsProxyMBean {
-    private Thread thread;
+    private ThreadMetrics threadMetrics;
 
-    public Thread getThread() {
-        return thread;
+    public ThreadMetrics getThreadMetrics() {
+        return threadMetrics;
     }
 
-    public void setThread(Thread thread) {
-        this.thread = thread;
+    public void setThreadMetrics(ThreadMetrics threadMetrics) {
+        this.threadMetrics = threadMetrics;
     }
 
     @Override
     public String getThreadName() {
-        Thread t = thread;
-        return t != null ? t.getName() : " NOT SET";
+        ThreadMetrics t = threadMetrics;
+        return t != null ? t.getThreadName() : " NOT SET";
     }
 
     @Override
     public long getThreadId() {
-        Thread t = thread;
-        return t != null ? t.getId() : -1;
+        ThreadMetrics t = threadMetrics;
+        return t != null ? t.getThreadId() : -1;
     }
 }
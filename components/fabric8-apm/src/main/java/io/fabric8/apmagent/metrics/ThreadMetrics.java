@@ -20,53 +20,97 @@ import io.fabric8.apmagent.ApmConfiguration;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
-import java.util.List;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class ThreadMetrics {
     private final AtomicReference<ThreadContextMethodMetricsStack> methodStackRef;
     private final ApmAgentContext apmAgentContext;
-    private final ThreadInfo threadInfo;
-    private final Thread thread;
+    private final WeakReference<Thread> threadRef;
+    private final long threadId;
+    private final int generation;
+    private volatile String threadName;
     private final ThreadMXBean threadMXBean;
     private final ConcurrentMap<String, ThreadContextMethodMetrics> methods = new ConcurrentHashMap<>();
     private final MonitoredThreadMethodMetrics monitoredThreadMethodMetrics;
+    // only used by the thread these metrics belong to - other threads bump the version when they remove methods
+    private ThreadContextMethodMetrics[] methodsById = new ThreadContextMethodMetrics[16];
+    private final AtomicInteger methodsVersion = new AtomicInteger();
+    private int methodsByIdVersion;
+    private SpanBuffer spanBuffer;
+    private long lastCpuTime = -1;
+    private long lastAllocatedBytes = -1;
+    private Object[] lastArguments;
+    private long lastBlockedTime = -1;
+    private long lastWaitedTime = -1;
+    private int overheadCount;
 
     public ThreadMetrics(ApmAgentContext apmAgentContext, Thread thread) {
         this.methodStackRef = new AtomicReference<>(new ThreadContextMethodMetricsStack());
         this.apmAgentContext = apmAgentContext;
         this.threadMXBean = ManagementFactory.getThreadMXBean();
-        this.threadInfo = threadMXBean.getThreadInfo(thread.getId());
-        this.thread = thread;
+        this.threadRef = new WeakReference<>(thread);
+        this.threadId = thread.getId();
+        this.generation = apmAgentContext.getGeneration();
+        this.threadName = thread.getName();
         ApmConfiguration configuration = apmAgentContext.getConfiguration();
-        this.monitoredThreadMethodMetrics = new MonitoredThreadMethodMetrics(thread, apmAgentContext);
+        this.monitoredThreadMethodMetrics = new MonitoredThreadMethodMetrics(this, apmAgentContext);
         this.monitoredThreadMethodMetrics.setMonitorSize(configuration.getThreadMetricDepth());
     }
 
     public String getName() {
-        return thread.getName() + "[" + thread.getId() + "]";
+        return getThreadName() + "[" + threadId + "]";
+    }
+
+    /**
+     * @return the name of the thread - or its last known name, once the thread has gone
+     */
+    public String getThreadName() {
+        Thread thread = threadRef.get();
+        if (thread != null) {
+            threadName = thread.getName();
+        }
+        return threadName;
+    }
+
+    public long getThreadId() {
+        return threadId;
     }
 
     Thread getThread() {
-        return thread;
+        return threadRef.get();
+    }
+
+    /**
+     * @return the generation of the context when these metrics were created - they are replaced once it stops
+     */
+    int getGeneration() {
+        return generation;
     }
 
     public boolean isDead() {
-        return !thread.isAlive();
+        Thread thread = threadRef.get();
+        return thread == null || !thread.isAlive();
     }
 
     public long getCpuTime() {
-        return threadMXBean.getThreadCpuTime(thread.getId());
+        return threadMXBean.getThreadCpuTime(threadId);
     }
 
     public long getUserTime() {
-        return threadMXBean.getThreadUserTime(thread.getId());
+        return threadMXBean.getThreadUserTime(threadId);
     }
 
+    /**
+     * @return the current ThreadInfo, or null if the thread is no longer alive
+     */
     public ThreadInfo getThreadInfo() {
-        return threadInfo;
+        return threadMXBean.getThreadInfo(threadId);
     }
 
     public void setMonitorSize(int monitorSize) {
@@ -74,17 +118,84 @@ public class ThreadMetrics {
     }
 
     public void enter(String methodName, boolean alwaysActive) {
+        enter(methodName, alwaysActive, null);
+    }
+
+    /**
+     * @param arguments the first arguments of the call, if they are captured for slow calls
+     */
+    public void enter(String methodName, boolean alwaysActive, Object[] arguments) {
         ThreadContextMethodMetrics threadContextMethodMetrics = methods.get(methodName);
         if (threadContextMethodMetrics == null) {
-            threadContextMethodMetrics = new ThreadContextMethodMetrics(thread, this.methodStackRef, methodName);
+            threadContextMethodMetrics = new ThreadContextMethodMetrics(this, this.methodStackRef, methodName);
             threadContextMethodMetrics.setActive(apmAgentContext.isMonitorByDefault());
+            threadContextMethodMetrics.setSamplingRate(apmAgentContext.getSamplingRate(methodName));
+            threadContextMethodMetrics.setResourceTiming(apmAgentContext.isResourceTiming(methodName));
+            threadContextMethodMetrics.setContentionTiming(apmAgentContext.isContentionTiming(methodName));
             methods.putIfAbsent(methodName, threadContextMethodMetrics);
         }
         if (alwaysActive || threadContextMethodMetrics.isActive()) {
-            threadContextMethodMetrics.onEnter();
+            threadContextMethodMetrics.onEnter(arguments);
         }
     }
 
+    public void enter(int methodId) {
+        enter(methodId, null);
+    }
+
+    /**
+     * Only called by the thread these metrics belong to, so the lookup table needs no locking.
+     *
+     * @param arguments the first arguments of the call, if they are captured for slow calls
+     */
+    public void enter(int methodId, Object[] arguments) {
+        ThreadContextMethodMetrics[] array = getMethodsById();
+        ThreadContextMethodMetrics threadContextMethodMetrics = methodId < array.length ? array[methodId] : null;
+        if (threadContextMethodMetrics == null) {
+            threadContextMethodMetrics = lookup(methodId);
+            if (threadContextMethodMetrics == null) {
+                return;
+            }
+        }
+        if (threadContextMethodMetrics.isActive()) {
+            threadContextMethodMetrics.onEnter(arguments);
+        }
+    }
+
+    public long exit(int methodId) {
+        long result = -1;
+        ThreadContextMethodMetrics[] array = getMethodsById();
+        ThreadContextMethodMetrics threadContextMethodMetrics = methodId < array.length ? array[methodId] : null;
+        if (threadContextMethodMetrics == null) {
+            //the table may have been cleared since the call was entered
+            threadContextMethodMetrics = lookup(methodId);
+        }
+        if (threadContextMethodMetrics != null) {
+            if (threadContextMethodMetrics.isActive()) {
+                result = threadContextMethodMetrics.onExit();
+            }
+        } else {
+            //something weird happended reset the stack
+            methodStackRef.set(new ThreadContextMethodMetricsStack());
+        }
+        return result;
+    }
+
+    /**
+     * @return the elapsed time since startTime, or -1 if the call wasn't recorded
+     */
+    public long exit(int methodId, long startTime) {
+        ThreadContextMethodMetrics[] array = getMethodsById();
+        ThreadContextMethodMetrics threadContextMethodMetrics = methodId < array.length ? array[methodId] : null;
+        if (threadContextMethodMetrics == null) {
+            threadContextMethodMetrics = lookup(methodId);
+        }
+        if (threadContextMethodMetrics != null && threadContextMethodMetrics.isActive()) {
+            return threadContextMethodMetrics.onExit(startTime);
+        }
+        return -1;
+    }
+
     public long exit(String methodName, boolean alwaysActive) {
         long result = -1;
         ThreadContextMethodMetrics threadContextMethodMetrics = methods.get(methodName);
@@ -99,6 +210,13 @@ public class ThreadMetrics {
         return result;
     }
 
+    /**
+     * @return the names of the instrumented methods the thread is in, outermost first
+     */
+    public String getMethodStack() {
+        return methodStackRef.get().toString();
+    }
+
     public String toString() {
         return "ThreadMetrics:" + getName();
     }
@@ -107,14 +225,100 @@ public class ThreadMetrics {
         monitoredThreadMethodMetrics.destroy();
     }
 
+    /**
+     * May be called by any thread - the thread these metrics belong to drops the method from its lookup table
+     * the next time it enters or exits a method by id.
+     */
     public ThreadContextMethodMetrics remove(String fullMethodName) {
         ThreadContextMethodMetrics result = methods.remove(fullMethodName);
+        if (result != null) {
+            methodsVersion.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * @return true for 1 in {@link AgentOverhead#CALL_SAMPLE_RATE} enters and exits on this thread, whose cost is then measured
+     */
+    boolean isOverheadSample() {
+        return (++overheadCount & (AgentOverhead.CALL_SAMPLE_RATE - 1)) == 0;
+    }
+
+    /**
+     * Called when a call that measured its resource usage exits, so it can be added to the aggregate metrics
+     */
+    void setLastResources(long cpuTime, long allocatedBytes) {
+        this.lastCpuTime = cpuTime;
+        this.lastAllocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Called when a call that measured its blocked and waited times exits, so they can be added to the aggregate metrics
+     */
+    void setLastContention(long blockedTime, long waitedTime) {
+        this.lastBlockedTime = blockedTime;
+        this.lastWaitedTime = waitedTime;
+    }
+
+    /**
+     * Adds the resource usage and contention of the call that just exited, if they were measured, to the metrics
+     */
+    void flushLastResources(MethodMetrics methodMetrics) {
+        if (lastCpuTime >= 0 || lastAllocatedBytes >= 0) {
+            if (methodMetrics != null) {
+                methodMetrics.updateResources(lastCpuTime, lastAllocatedBytes);
+            }
+            lastCpuTime = -1;
+            lastAllocatedBytes = -1;
+        }
+        if (lastBlockedTime >= 0 || lastWaitedTime >= 0) {
+            if (methodMetrics != null) {
+                methodMetrics.updateContention(lastBlockedTime, lastWaitedTime);
+            }
+            lastBlockedTime = -1;
+            lastWaitedTime = -1;
+        }
+    }
+
+    /**
+     * Called when a call that captured its arguments exits, so they can be kept if the call was slow
+     */
+    void setLastArguments(Object[] arguments) {
+        this.lastArguments = arguments;
+    }
+
+    /**
+     * @return the arguments of the call that just exited, if they were captured - they are only handed out once
+     */
+    Object[] takeLastArguments() {
+        Object[] result = lastArguments;
+        if (result != null) {
+            lastArguments = null;
+        }
         return result;
     }
 
+    void resourceTimingChanged() {
+        for (ThreadContextMethodMetrics threadContextMethodMetrics : methods.values()) {
+            threadContextMethodMetrics.setResourceTiming(apmAgentContext.isResourceTiming(threadContextMethodMetrics.getName()));
+            threadContextMethodMetrics.setContentionTiming(apmAgentContext.isContentionTiming(threadContextMethodMetrics.getName()));
+        }
+    }
+
+    SpanBuffer getSpanBuffer() {
+        return spanBuffer;
+    }
+
+    void setSpanBuffer(SpanBuffer spanBuffer) {
+        this.spanBuffer = spanBuffer;
+    }
+
+    public Collection<ThreadContextMethodMetrics> getMethodMetrics() {
+        return Collections.unmodifiableCollection(methods.values());
+    }
+
     public void calculateMethodMetrics() {
-        List<ThreadContextMethodMetrics> list = (List<ThreadContextMethodMetrics>) MethodMetrics.sortedMetrics(this.methods.values());
-        monitoredThreadMethodMetrics.calculateMethodMetrics(list);
+        monitoredThreadMethodMetrics.calculateMethodMetrics(this.methods.values());
     }
 
     public void setActive(String methodName, boolean flag) {
@@ -124,6 +328,54 @@ public class ThreadMetrics {
         }
     }
 
+    /**
+     * @return the lookup table by method id - cleared first if methods have been removed since it was filled, so
+     * the remaining ones are looked up again as they are called
+     */
+    private ThreadContextMethodMetrics[] getMethodsById() {
+        int version = methodsVersion.get();
+        if (version != methodsByIdVersion) {
+            methodsById = new ThreadContextMethodMetrics[methodsById.length];
+            methodsByIdVersion = version;
+        }
+        return methodsById;
+    }
+
+    private ThreadContextMethodMetrics lookup(int methodId) {
+        String methodName = apmAgentContext.getMethodName(methodId);
+        if (methodName == null) {
+            return null;
+        }
+        ThreadContextMethodMetrics threadContextMethodMetrics = methods.get(methodName);
+        if (threadContextMethodMetrics == null) {
+            threadContextMethodMetrics = new ThreadContextMethodMetrics(this, this.methodStackRef, methodName);
+            threadContextMethodMetrics.setActive(apmAgentContext.isMonitorByDefault());
+            threadContextMethodMetrics.setSamplingRate(apmAgentContext.getSamplingRate(methodName));
+            threadContextMethodMetrics.setResourceTiming(apmAgentContext.isResourceTiming(methodName));
+            threadContextMethodMetrics.setContentionTiming(apmAgentContext.isContentionTiming(methodName));
+            ThreadContextMethodMetrics existing = methods.putIfAbsent(methodName, threadContextMethodMetrics);
+            if (existing != null) {
+                threadContextMethodMetrics = existing;
+            }
+        }
+        ThreadContextMethodMetrics[] array = methodsById;
+        if (methodId >= array.length) {
+            ThreadContextMethodMetrics[] newArray = new ThreadContextMethodMetrics[Math.max(methodId + 1, array.length * 2)];
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            array = newArray;
+            methodsById = array;
+        }
+        array[methodId] = threadContextMethodMetrics;
+        return threadContextMethodMetrics;
+    }
+
+    public void setSamplingRate(String methodName, int samplingRate) {
+        ThreadContextMethodMetrics threadContextMethodMetrics = methods.get(methodName);
+        if (threadContextMethodMetrics != null) {
+            threadContextMethodMetrics.setSamplingRate(samplingRate);
+        }
+    }
+
     public boolean isActive(String methodName) {
         ThreadContextMethodMetrics threadContextMethodMetrics = methods.get(methodName);
         return threadContextMethodMetrics != null ? threadContextMethodMetrics.isActive() : false;
@@ -0,0 +1,149 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The calls made on one thread while handling a request, from an entry point method. A task handed off
+ * to another thread is recorded as a separate, async trace with the same trace id.
+ */
+public class Trace {
+    private final long traceId;
+    private final boolean async;
+    private final String threadName;
+    private final long startTime;
+    private final long duration;
+    private final int droppedCount;
+    private final List<Span> spans;
+
+    Trace(long traceId, boolean async, String threadName, long startTime, long duration, int droppedCount, Span[] spans) {
+        this.traceId = traceId;
+        this.async = async;
+        this.threadName = threadName;
+        this.startTime = startTime;
+        this.duration = duration;
+        this.droppedCount = droppedCount;
+        this.spans = Collections.unmodifiableList(Arrays.asList(spans));
+    }
+
+    public long getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * @return true if this is a task that was handed off from the thread the trace started on
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * @return the time in milliseconds since the epoch the trace started at
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the duration in nanoseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return the number of calls that didn't fit in the trace buffer
+     */
+    public int getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return the calls, in the order they were made
+     */
+    public List<Span> getSpans() {
+        return spans;
+    }
+
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append("trace ").append(traceId).append(async ? " (async)" : "").append(" on ").append(threadName)
+            .append(" took ").append(toMillis(duration)).append(" ms");
+        if (droppedCount > 0) {
+            result.append(", ").append(droppedCount).append(" calls dropped");
+        }
+        for (Span span : spans) {
+            result.append('\n');
+            for (int i = 0; i <= span.getDepth(); i++) {
+                result.append("  ");
+            }
+            result.append(span.getName()).append(' ');
+            result.append(span.getDuration() >= 0 ? toMillis(span.getDuration()) + " ms" : "?");
+        }
+        return result.toString();
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    public static class Span {
+        private final String name;
+        private final int depth;
+        private final long offset;
+        private final long duration;
+
+        Span(String name, int depth, long offset, long duration) {
+            this.name = name;
+            this.depth = depth;
+            this.offset = offset;
+            this.duration = duration;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return 0 for the entry point, 1 for the calls it makes etc
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * @return the time in nanoseconds from the start of the trace to the start of this call
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return the duration in nanoseconds, or -1 if the call never exited
+         */
+        public long getDuration() {
+            return duration;
+        }
+    }
+}
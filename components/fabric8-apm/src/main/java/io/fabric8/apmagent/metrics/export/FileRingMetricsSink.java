@@ -0,0 +1,72 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics.export;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes snapshots to a fixed number of files in a directory, moving on to the next file
+ * (and overwriting it) once the current one exceeds its maximum size.
+ */
+public class FileRingMetricsSink implements MetricsSink {
+    private final File directory;
+    private final int fileCount;
+    private final long maxFileSize;
+    private OutputStream out;
+    private int current = -1;
+    private long size;
+
+    public FileRingMetricsSink(File directory, int fileCount, long maxFileSize) {
+        this.directory = directory;
+        this.fileCount = Math.max(1, fileCount);
+        this.maxFileSize = maxFileSize;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (out == null || size >= maxFileSize) {
+            next();
+        }
+        out.write(data, offset, length);
+        out.flush();
+        size += length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    File getFile(int index) {
+        return new File(directory, "apm-metrics." + index + ".log");
+    }
+
+    private void next() throws IOException {
+        close();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        current = (current + 1) % fileCount;
+        out = new FileOutputStream(getFile(current));
+        size = 0;
+    }
+}
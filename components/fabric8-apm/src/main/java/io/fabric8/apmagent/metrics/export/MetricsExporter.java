@@ -0,0 +1,257 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics.export;
+
+import io.fabric8.apmagent.ApmAgent;
+import io.fabric8.apmagent.ApmConfiguration;
+import io.fabric8.apmagent.metrics.ApmAgentContext;
+import io.fabric8.apmagent.metrics.GcPauses;
+import io.fabric8.apmagent.metrics.MethodMetrics;
+import io.fabric8.apmagent.metrics.StripedHistogram;
+import io.fabric8.apmagent.metrics.ThreadContextMethodMetrics;
+import io.fabric8.apmagent.metrics.ThreadMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Periodically pushes what has changed in the method and thread metrics to a {@link MetricsSink},
+ * so the metrics can be shipped without polling the MBeans.
+ * <p/>
+ * Each interval a line is written, in the InfluxDB line protocol, for every metric that was called
+ * since the previous one:
+ * <pre>
+ * apm_method,method=&lt;name&gt; count=&lt;calls&gt;i,timed=&lt;timed calls&gt;i,sum=&lt;ns&gt;i,buckets="&lt;lower bound ns&gt;:&lt;calls&gt; ..." &lt;timestamp&gt;
+ * apm_thread_method,thread=&lt;name&gt;,method=&lt;name&gt; ...
+ * apm_gc,collector=&lt;name&gt; count=&lt;collections&gt;i,time=&lt;ms&gt;i &lt;timestamp&gt;
+ * </pre>
+ * All the values are deltas since the previous line for that metric. The count is scaled up by the
+ * sampling rate, the other values are only for the calls that were timed. A line is written for every
+ * garbage collector each interval, so pauses can be matched up with the latencies of the same interval.
+ * While the exporter runs it rolls the context's {@link GcPauses} window, so the pauses exported are
+ * the ones the MBeans report for the same window.
+ */
+public class MetricsExporter {
+    private static final Logger LOG = LoggerFactory.getLogger(ApmAgent.class);
+    private final ApmAgentContext context;
+    private final MetricsSink sink;
+    private final long interval;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final StringBuilder buffer = new StringBuilder(8192);
+    private Map<MethodMetrics, State> previous = new IdentityHashMap<>();
+    private Thread exportThread;
+    private boolean failing;
+
+    public MetricsExporter(ApmAgentContext context, MetricsSink sink, long interval) {
+        this.context = context;
+        this.sink = sink;
+        this.interval = interval;
+    }
+
+    /**
+     * Creates a sink from a uri - one of <code>stdout</code>, <code>file:&lt;directory&gt;</code>,
+     * <code>udp://&lt;host&gt;:&lt;port&gt;</code> or <code>tcp://&lt;host&gt;:&lt;port&gt;</code>
+     */
+    public static MetricsSink createSink(String uri, ApmConfiguration configuration) {
+        if (uri.equals("stdout")) {
+            return new StdoutMetricsSink();
+        }
+        if (uri.startsWith("file:")) {
+            return new FileRingMetricsSink(new File(uri.substring("file:".length())),
+                configuration.getExportFileCount(), configuration.getExportFileMaxSize());
+        }
+        URI parsed = URI.create(uri);
+        if (("udp".equals(parsed.getScheme()) || "tcp".equals(parsed.getScheme())) && parsed.getHost() != null && parsed.getPort() > 0) {
+            return new SocketMetricsSink(parsed.getHost(), parsed.getPort(), "udp".equals(parsed.getScheme()));
+        }
+        throw new IllegalArgumentException("Unsupported export sink " + uri);
+    }
+
+    public void start() {
+        if (started.compareAndSet(false, true)) {
+            exportThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (started.get()) {
+                        try {
+                            Thread.sleep(interval);
+                            export();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        } catch (Throwable e) {
+                            LOG.warn("Error exporting metrics due " + e.getMessage() + ". This exception is ignored.", e);
+                        }
+                    }
+                    try {
+                        sink.close();
+                    } catch (IOException e) {
+                        LOG.debug("Failed to close metrics sink due " + e.getMessage(), e);
+                    }
+                }
+            }, "Fabric8-ApmAgent-Exporter");
+            exportThread.setDaemon(true);
+            exportThread.start();
+        }
+    }
+
+    public void stop() {
+        if (started.compareAndSet(true, false)) {
+            exportThread.interrupt();
+        }
+    }
+
+    /**
+     * Writes the changes since the previous export to the sink
+     */
+    void export() {
+        Map<MethodMetrics, State> current = new IdentityHashMap<>();
+        String timestamp = Long.toString(System.currentTimeMillis() * 1000000L);
+        buffer.setLength(0);
+        for (MethodMetrics methodMetrics : context.getAllMethodMetrics()) {
+            int start = buffer.length();
+            buffer.append("apm_method,method=");
+            appendTag(methodMetrics.getName());
+            appendDelta(methodMetrics, current, start, timestamp);
+        }
+        for (ThreadMetrics threadMetrics : context.getAllThreadMetrics()) {
+            String threadName = threadMetrics.getThreadName();
+            for (ThreadContextMethodMetrics methodMetrics : threadMetrics.getMethodMetrics()) {
+                int start = buffer.length();
+                buffer.append("apm_thread_method,thread=");
+                appendTag(threadName);
+                buffer.append(",method=");
+                appendTag(methodMetrics.getName());
+                appendDelta(methodMetrics, current, start, timestamp);
+            }
+        }
+        //metrics that have gone are dropped with the old map
+        previous = current;
+        GcPauses gcPauses = context.getGcPauses();
+        gcPauses.nextWindow();
+        Map<String, Long> gcTimes = gcPauses.getTimes();
+        for (Map.Entry<String, Long> entry : gcPauses.getCounts().entrySet()) {
+            buffer.append("apm_gc,collector=");
+            appendTag(entry.getKey());
+            buffer.append(" count=").append(entry.getValue()).append("i,time=").append(gcTimes.get(entry.getKey()))
+                .append("i ").append(timestamp).append('\n');
+        }
+        if (buffer.length() > 0) {
+            byte[] data = buffer.toString().getBytes(StandardCharsets.UTF_8);
+            try {
+                sink.write(data, 0, data.length);
+                failing = false;
+            } catch (IOException e) {
+                //only log when it starts failing, not every interval
+                if (!failing) {
+                    LOG.warn("Failed to export metrics due " + e.getMessage() + ". This exception is ignored.", e);
+                    failing = true;
+                }
+            }
+        }
+    }
+
+    private void appendDelta(MethodMetrics methodMetrics, Map<MethodMetrics, State> current, int lineStart, String timestamp) {
+        StripedHistogram.Snapshot snapshot = methodMetrics.getSnapshot();
+        long[] buckets = snapshot.getBucketCounts();
+        State state = new State(methodMetrics.getCount(), snapshot.size(), snapshot.getSum(), buckets);
+        current.put(methodMetrics, state);
+        State last = previous.get(methodMetrics);
+        if (last == null) {
+            last = State.EMPTY;
+        }
+        long count = state.count - last.count;
+        long timed = state.timedCount - last.timedCount;
+        if (count <= 0 && timed <= 0) {
+            buffer.setLength(lineStart);
+            return;
+        }
+        buffer.append(" count=").append(count).append("i,timed=").append(timed)
+            .append("i,sum=").append(state.sum - last.sum).append("i,buckets=\"");
+        boolean first = true;
+        int lastPos = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] == 0) {
+                continue;
+            }
+            long delta = buckets[i];
+            while (lastPos < last.bucketIndexes.length && last.bucketIndexes[lastPos] < i) {
+                lastPos++;
+            }
+            if (lastPos < last.bucketIndexes.length && last.bucketIndexes[lastPos] == i) {
+                delta -= last.bucketCounts[lastPos];
+            }
+            if (delta > 0) {
+                if (!first) {
+                    buffer.append(' ');
+                }
+                buffer.append(StripedHistogram.getBucketLowerBound(i)).append(':').append(delta);
+                first = false;
+            }
+        }
+        buffer.append("\" ").append(timestamp).append('\n');
+    }
+
+    private void appendTag(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == ' ' || c == '=' || c == '\\') {
+                buffer.append('\\');
+            }
+            buffer.append(c);
+        }
+    }
+
+    /**
+     * The totals at the last export - only the buckets in use are kept, as most of them are empty
+     */
+    private static class State {
+        private static final State EMPTY = new State(0, 0, 0, new long[0]);
+        private final long count;
+        private final long timedCount;
+        private final long sum;
+        private final int[] bucketIndexes;
+        private final long[] bucketCounts;
+
+        State(long count, long timedCount, long sum, long[] buckets) {
+            this.count = count;
+            this.timedCount = timedCount;
+            this.sum = sum;
+            int used = 0;
+            for (long bucket : buckets) {
+                if (bucket != 0) {
+                    used++;
+                }
+            }
+            this.bucketIndexes = new int[used];
+            this.bucketCounts = new long[used];
+            int pos = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                if (buckets[i] != 0) {
+                    bucketIndexes[pos] = i;
+                    bucketCounts[pos++] = buckets[i];
+                }
+            }
+        }
+    }
+}
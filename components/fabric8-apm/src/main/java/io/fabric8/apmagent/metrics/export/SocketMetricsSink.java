@@ -0,0 +1,115 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Sends snapshots over TCP, or over UDP as datagrams of whole lines. A TCP connection is
+ * (re)established lazily, so a collector that is down only loses the snapshots sent meanwhile.
+ */
+public class SocketMetricsSink implements MetricsSink {
+    private static final int MAX_DATAGRAM_SIZE = 1400;
+    private static final int CONNECT_TIMEOUT = 5000;
+    private final InetSocketAddress address;
+    private final boolean udp;
+    private DatagramSocket datagramSocket;
+    private Socket socket;
+    private OutputStream out;
+
+    public SocketMetricsSink(String host, int port, boolean udp) {
+        this.address = new InetSocketAddress(host, port);
+        this.udp = udp;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (udp) {
+            writeDatagrams(data, offset, length);
+        } else {
+            try {
+                if (out == null) {
+                    socket = new Socket();
+                    socket.connect(address, CONNECT_TIMEOUT);
+                    out = socket.getOutputStream();
+                }
+                out.write(data, offset, length);
+                out.flush();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (datagramSocket != null) {
+            datagramSocket.close();
+            datagramSocket = null;
+        }
+        Socket s = socket;
+        socket = null;
+        out = null;
+        if (s != null) {
+            s.close();
+        }
+    }
+
+    private void writeDatagrams(byte[] data, int offset, int length) throws IOException {
+        if (datagramSocket == null) {
+            datagramSocket = new DatagramSocket();
+        }
+        int end = offset + length;
+        int start = offset;
+        while (start < end) {
+            //split after the last complete line that fits - a longer line is sent on its own
+            int limit = Math.min(end, start + MAX_DATAGRAM_SIZE);
+            int split = limit;
+            if (limit < end) {
+                split = lastLineEnd(data, start, limit);
+                if (split < 0) {
+                    split = lineEnd(data, limit, end);
+                }
+            }
+            datagramSocket.send(new DatagramPacket(data, start, split - start, address));
+            start = split;
+        }
+    }
+
+    private static int lastLineEnd(byte[] data, int start, int limit) {
+        for (int i = limit - 1; i >= start; i--) {
+            if (data[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int lineEnd(byte[] data, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+}
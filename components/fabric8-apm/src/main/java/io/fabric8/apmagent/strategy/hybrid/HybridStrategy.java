@@ -0,0 +1,196 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.hybrid;
+
+import io.fabric8.apmagent.ApmConfiguration;
+import io.fabric8.apmagent.Strategy;
+import io.fabric8.apmagent.metrics.ApmAgentContext;
+import io.fabric8.apmagent.strategy.sampling.SamplingStrategy;
+import io.fabric8.apmagent.strategy.trace.TraceStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Samples the application to find its hot methods, and only instruments those - so the cost of timing
+ * every call is only paid where the time is actually spent.
+ * <p/>
+ * Each sampled stack is counted against its first frame (from the current frame) that passes the white
+ * and black lists. At the end of every hot method window the methods with the most samples are
+ * instrumented by the {@link TraceStrategy}, and a method that has dropped out of them for a few
+ * windows has its instrumentation removed.
+ */
+public class HybridStrategy implements Strategy, SamplingStrategy.SampleListener {
+    private static final Logger LOG = LoggerFactory.getLogger(HybridStrategy.class);
+    private static final int COOL_DOWN_WINDOWS = 3;
+    private final ApmConfiguration configuration;
+    private final SamplingStrategy samplingStrategy;
+    private final TraceStrategy traceStrategy;
+    private AtomicBoolean initialized = new AtomicBoolean();
+    private AtomicBoolean started = new AtomicBoolean();
+    //only used by the sampling thread
+    private final Map<String, Counter> sampleCounts = new HashMap<>();
+    private final Map<String, Integer> coolWindows = new HashMap<>();
+    private long windowStartTime;
+
+    public HybridStrategy(ApmAgentContext context, Instrumentation instrumentation) {
+        this(context, new TraceStrategy(context, instrumentation));
+    }
+
+    HybridStrategy(ApmAgentContext context, TraceStrategy traceStrategy) {
+        this.configuration = context.getConfiguration();
+        this.samplingStrategy = new SamplingStrategy(context, this);
+        this.traceStrategy = traceStrategy;
+    }
+
+    @Override
+    public void initialize() throws Exception {
+        if (initialized.compareAndSet(false, true)) {
+            //nothing is instrumented until the sampler has found it hot
+            traceStrategy.setHotMethods(Collections.<String>emptySet());
+            traceStrategy.initialize();
+            samplingStrategy.initialize();
+        }
+    }
+
+    @Override
+    public void start() throws Exception {
+        if (started.compareAndSet(false, true)) {
+            initialize();
+            traceStrategy.start();
+            samplingStrategy.start();
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (started.compareAndSet(true, false)) {
+            samplingStrategy.stop();
+            traceStrategy.stop();
+        }
+    }
+
+    @Override
+    public void shutDown() throws Exception {
+        if (initialized.compareAndSet(true, false)) {
+            stop();
+            samplingStrategy.shutDown();
+            traceStrategy.shutDown();
+        }
+    }
+
+    @Override
+    public void configurationChanged() {
+        //the sampling and trace strategies listen for changes themselves
+    }
+
+    public SamplingStrategy getSamplingStrategy() {
+        return samplingStrategy;
+    }
+
+    public TraceStrategy getTraceStrategy() {
+        return traceStrategy;
+    }
+
+    /**
+     * @return the methods currently instrumented, as "className.methodName"
+     */
+    public Set<String> getHotMethods() {
+        Set<String> result = traceStrategy.getHotMethods();
+        return result != null ? result : Collections.<String>emptySet();
+    }
+
+    @Override
+    public void sampled(StackTraceElement[] stack) {
+        for (StackTraceElement element : stack) {
+            String methodName = element.getMethodName();
+            if (!methodName.startsWith("<") && configuration.isAudit(element.getClassName(), methodName)) {
+                String name = element.getClassName() + "." + methodName;
+                Counter counter = sampleCounts.get(name);
+                if (counter == null) {
+                    counter = new Counter();
+                    sampleCounts.put(name, counter);
+                }
+                counter.count++;
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void samplingFinished(long currentTime) {
+        if (windowStartTime == 0) {
+            windowStartTime = currentTime;
+        } else if (currentTime - windowStartTime >= configuration.getHotMethodWindow()) {
+            updateHotMethods();
+            sampleCounts.clear();
+            windowStartTime = currentTime;
+        }
+    }
+
+    private void updateHotMethods() {
+        List<Map.Entry<String, Counter>> entries = new ArrayList<>(sampleCounts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Counter>>() {
+            @Override
+            public int compare(Map.Entry<String, Counter> entry1, Map.Entry<String, Counter> entry2) {
+                return Long.compare(entry2.getValue().count, entry1.getValue().count);
+            }
+        });
+        Set<String> hottest = new HashSet<>();
+        for (int i = 0; i < entries.size() && i < configuration.getHotMethodCount(); i++) {
+            hottest.add(entries.get(i).getKey());
+        }
+
+        boolean changed = false;
+        for (Iterator<Map.Entry<String, Integer>> iterator = coolWindows.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, Integer> entry = iterator.next();
+            if (hottest.contains(entry.getKey())) {
+                entry.setValue(0);
+            } else if (entry.getValue() + 1 >= COOL_DOWN_WINDOWS) {
+                LOG.debug("Method {} has cooled down", entry.getKey());
+                iterator.remove();
+                changed = true;
+            } else {
+                entry.setValue(entry.getValue() + 1);
+            }
+        }
+        for (String method : hottest) {
+            if (!coolWindows.containsKey(method)) {
+                LOG.debug("Method {} is hot", method);
+                coolWindows.put(method, 0);
+                changed = true;
+            }
+        }
+        if (changed) {
+            traceStrategy.setHotMethods(coolWindows.keySet());
+        }
+    }
+
+    private static class Counter {
+        private long count;
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.sampling;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregates sampled stacks into a tree of calls. Frames are interned to int ids, so each node
+ * is just a frame id, the number of samples it was the current frame in, and its children.
+ * Only frames that have a node are interned, and the cache of stack elements to ids is cleared
+ * when it reaches the node limit - so neither grows past the size of the tree.
+ * <p/>
+ * The tree can be written in the folded stack format (one line per stack: the frames from the
+ * outermost call separated by ';', then the number of samples) used by flame graph tools.
+ * Stacks which were cut short are rooted at a {@link #TRUNCATED_FRAME} frame, so their outermost
+ * sampled frames aren't taken for the outermost calls of the thread.
+ */
+public class CallTree {
+    public static final String TRUNCATED_FRAME = "[truncated]";
+    private final int maxNodes;
+    private final Map<StackTraceElement, Integer> elementIds = new HashMap<>();
+    private final Map<String, Integer> frameIds = new HashMap<>();
+    private final List<String> frameNames = new ArrayList<>();
+    private Node root = new Node(-1);
+    private int nodeCount;
+    private long sampleCount;
+
+    public CallTree(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * @param stack the stack of a thread, with the current frame first
+     */
+    public void addSample(StackTraceElement[] stack) {
+        addSample(stack, false);
+    }
+
+    /**
+     * @param stack     the stack of a thread, with the current frame first
+     * @param truncated true if the outermost frames of the stack may have been left out
+     */
+    public synchronized void addSample(StackTraceElement[] stack, boolean truncated) {
+        sampleCount++;
+        Node node = root;
+        for (int i = truncated ? stack.length : stack.length - 1; i >= 0; i--) {
+            boolean full = nodeCount >= maxNodes;
+            int frameId = i < stack.length ? getFrameId(stack[i], !full) : getFrameId(TRUNCATED_FRAME, !full);
+            Node child = frameId >= 0 ? node.getChild(frameId) : null;
+            if (child == null) {
+                if (full) {
+                    //the tree is full - count the sample against the deepest node we have
+                    break;
+                }
+                child = node.addChild(frameId);
+                nodeCount++;
+            }
+            node = child;
+        }
+        node.selfCount++;
+    }
+
+    public synchronized long getSampleCount() {
+        return sampleCount;
+    }
+
+    public synchronized void clear() {
+        root = new Node(-1);
+        nodeCount = 0;
+        sampleCount = 0;
+        elementIds.clear();
+        frameIds.clear();
+        frameNames.clear();
+    }
+
+    public synchronized void writeFoldedStacks(Writer writer) throws IOException {
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < root.childCount; i++) {
+            writeFoldedStacks(writer, root.children[i], path);
+        }
+        if (root.selfCount > 0) {
+            writer.write("[unknown] " + root.selfCount + "\n");
+        }
+    }
+
+    private void writeFoldedStacks(Writer writer, Node node, StringBuilder path) throws IOException {
+        int length = path.length();
+        if (length > 0) {
+            path.append(';');
+        }
+        path.append(frameNames.get(node.frameId));
+        if (node.selfCount > 0) {
+            writer.write(path.toString());
+            writer.write(' ');
+            writer.write(Long.toString(node.selfCount));
+            writer.write('\n');
+        }
+        for (int i = 0; i < node.childCount; i++) {
+            writeFoldedStacks(writer, node.children[i], path);
+        }
+        path.setLength(length);
+    }
+
+    /**
+     * @param add whether to intern the frame if it is new
+     * @return the id of the frame, or -1 if it is new and not added
+     */
+    private int getFrameId(StackTraceElement element, boolean add) {
+        Integer result = elementIds.get(element);
+        if (result == null) {
+            result = getFrameId(element.getClassName() + "." + element.getMethodName(), add);
+            if (result < 0) {
+                return -1;
+            }
+            //each line of a method is a different element, so the cache is only bounded by the code sampled
+            if (elementIds.size() >= maxNodes) {
+                elementIds.clear();
+            }
+            elementIds.put(element, result);
+        }
+        return result;
+    }
+
+    private int getFrameId(String name, boolean add) {
+        Integer result = frameIds.get(name);
+        if (result == null) {
+            if (!add) {
+                return -1;
+            }
+            result = frameNames.size();
+            frameNames.add(name);
+            frameIds.put(name, result);
+        }
+        return result;
+    }
+
+    synchronized int getFrameCount() {
+        return frameNames.size();
+    }
+
+    private static class Node {
+        private final int frameId;
+        private Node[] children;
+        private int childCount;
+        private long selfCount;
+
+        Node(int frameId) {
+            this.frameId = frameId;
+        }
+
+        Node getChild(int frameId) {
+            for (int i = 0; i < childCount; i++) {
+                if (children[i].frameId == frameId) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node addChild(int frameId) {
+            if (children == null) {
+                children = new Node[2];
+            } else if (childCount == children.length) {
+                children = Arrays.copyOf(children, childCount * 2);
+            }
+            Node result = new Node(frameId);
+            children[childCount++] = result;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.sampling;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ThreadInfo;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregates the monitors and locks sampled threads were blocked on, or waiting for, so the most contended
+ * ones can be found. Each entry counts the samples that were blocked and waiting on it, which threads owned
+ * it at the time and where the blocked threads were.
+ * <p/>
+ * Waiting includes idle threads waiting for work, so entries are ranked by the blocked samples first. When
+ * the table is full, the least contended tenth of the entries is evicted to make room for new monitors.
+ */
+public class MonitorTable {
+    private static final int MAX_OWNERS = 16;
+    private static final Comparator<Entry> HOTTEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry entry1, Entry entry2) {
+            int result = Long.compare(entry2.blockedCount, entry1.blockedCount);
+            return result != 0 ? result : Long.compare(entry2.waitingCount, entry1.waitingCount);
+        }
+    };
+    private final int maxMonitors;
+    private final Map<String, Entry> monitors = new HashMap<>();
+    private long evictedCount;
+
+    public MonitorTable(int maxMonitors) {
+        this.maxMonitors = maxMonitors;
+    }
+
+    public synchronized void addSample(ThreadInfo threadInfo) {
+        LockInfo lockInfo = threadInfo.getLockInfo();
+        Thread.State state = threadInfo.getThreadState();
+        if (lockInfo == null || (state != Thread.State.BLOCKED && state != Thread.State.WAITING && state != Thread.State.TIMED_WAITING)) {
+            return;
+        }
+        String name = lockInfo.getClassName() + "@" + Integer.toHexString(lockInfo.getIdentityHashCode());
+        Entry entry = monitors.get(name);
+        if (entry == null) {
+            if (monitors.size() >= maxMonitors) {
+                evictColdest();
+            }
+            entry = new Entry(name);
+            monitors.put(name, entry);
+        }
+        if (state == Thread.State.BLOCKED) {
+            entry.blockedCount++;
+            StackTraceElement[] stack = threadInfo.getStackTrace();
+            if (stack.length > 0) {
+                entry.blockedAt = stack[0].getClassName() + "." + stack[0].getMethodName();
+            }
+        } else {
+            entry.waitingCount++;
+        }
+        String owner = threadInfo.getLockOwnerName();
+        if (owner != null) {
+            Long count = entry.owners.get(owner);
+            if (count != null || entry.owners.size() < MAX_OWNERS) {
+                entry.owners.put(owner, count != null ? count + 1 : 1);
+            }
+        }
+    }
+
+    /**
+     * @return descriptions of the most contended monitors, most contended first
+     */
+    public synchronized List<String> getHottestMonitors(int limit) {
+        List<Entry> entries = new ArrayList<>(monitors.values());
+        Collections.sort(entries, HOTTEST_FIRST);
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < entries.size() && i < limit; i++) {
+            result.add(entries.get(i).toString());
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of monitors evicted to make room for new ones since the table was last cleared
+     */
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    public synchronized void clear() {
+        monitors.clear();
+        evictedCount = 0;
+    }
+
+    private void evictColdest() {
+        List<Entry> entries = new ArrayList<>(monitors.values());
+        Collections.sort(entries, HOTTEST_FIRST);
+        int count = Math.max(1, entries.size() / 10);
+        for (int i = entries.size() - count; i < entries.size(); i++) {
+            monitors.remove(entries.get(i).name);
+        }
+        evictedCount += count;
+    }
+
+    private static class Entry {
+        private final String name;
+        private final Map<String, Long> owners = new HashMap<>();
+        private long blockedCount;
+        private long waitingCount;
+        private String blockedAt;
+
+        Entry(String name) {
+            this.name = name;
+        }
+
+        public String toString() {
+            StringBuilder result = new StringBuilder(name);
+            result.append(": blocked ").append(blockedCount).append(" samples, waiting ").append(waitingCount).append(" samples");
+            if (!owners.isEmpty()) {
+                result.append(", owned by ").append(owners);
+            }
+            if (blockedAt != null) {
+                result.append(", last blocked in ").append(blockedAt);
+            }
+            return result.toString();
+        }
+    }
+}
@@ -19,27 +19,46 @@ import io.fabric8.apmagent.ApmConfiguration;
 import io.fabric8.apmagent.Strategy;
 import io.fabric8.apmagent.metrics.ApmAgentContext;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 
 public class SamplingStrategy implements Strategy, Runnable {
     private static final long CLEANUP_INTERVAL = 1000;
+    private static final int MAX_CALL_TREE_NODES = 100000;
+    private static final int MAX_MONITORS = 10000;
     private ApmAgentContext context;
     private ApmConfiguration configuration;
     private AtomicBoolean initialized = new AtomicBoolean();
     private AtomicBoolean started = new AtomicBoolean();
     private Thread samplingThread;
     private final Map<Long, String> currentMethods = new HashMap<>();
+    private final CallTree callTree = new CallTree(MAX_CALL_TREE_NODES);
+    private final MonitorTable monitorTable = new MonitorTable(MAX_MONITORS);
+    private Map<Long, Thread> sampledThreads = new HashMap<>();
+    private long[] sampledThreadIds = new long[0];
+    private Pattern threadFilterPattern;
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private long lastRefreshTime;
+    private final SampleListener sampleListener;
 
     public SamplingStrategy(ApmAgentContext context) {
+        this(context, null);
+    }
+
+    /**
+     * @param sampleListener if not null, is given the sampled stacks instead of them being recorded as method metrics
+     */
+    public SamplingStrategy(ApmAgentContext context, SampleListener sampleListener) {
         this.context = context;
         this.configuration = context.getConfiguration();
+        this.sampleListener = sampleListener;
     }
 
     @Override
@@ -82,46 +101,108 @@ public class SamplingStrategy implements Strategy, Runnable {
 
     @Override
     public void run() {
-        long lastTime = 0;
         while (started.get()) {
             try {
-                for (Map.Entry<Thread, StackTraceElement[]> threadEntry : Thread.getAllStackTraces().entrySet()) {
-                    if (threadEntry.getKey() != Thread.currentThread()) {
-                        addMeasurement(threadEntry.getKey(), threadEntry.getValue());
-                    }
-                }
-                long currentTime = System.currentTimeMillis();
-
-                if ((currentTime - lastTime) > CLEANUP_INTERVAL) {
-                    cleanup();
-                    lastTime = currentTime;
-                }
-                Thread.sleep(configuration.getSamplingInterval());
+                long start = System.nanoTime();
+                sample();
+                context.getOverhead().addSamplingTime(System.nanoTime() - start);
+                //widened while the agent is over its overhead ceiling
+                Thread.sleep((long) configuration.getSamplingInterval() * context.getOverheadBackOff());
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
         }
     }
 
-    private void cleanup() {
-        List<ThreadInfo> removeList = null;
-        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
-        for (Long id : currentMethods.keySet()) {
-            ThreadInfo threadInfo = threadMXBean.getThreadInfo(id);
-            if (threadInfo != null) {
-                if (threadInfo.getThreadState() == Thread.State.TERMINATED) {
-                    if (removeList == null) {
-                        removeList = new ArrayList<>();
+    /**
+     * Takes one sample of the stacks of the sampled threads - only called by the sampling thread
+     */
+    public void sample() {
+        long currentTime = System.currentTimeMillis();
+        if ((currentTime - lastRefreshTime) > CLEANUP_INTERVAL) {
+            refreshThreads();
+            lastRefreshTime = currentTime;
+        }
+        //only the stacks of the sampled threads, to a limited depth, are taken
+        if (sampledThreadIds.length > 0) {
+            int depth = Math.max(1, configuration.getSamplingDepth());
+            for (ThreadInfo threadInfo : threadMXBean.getThreadInfo(sampledThreadIds, depth)) {
+                if (threadInfo != null) {
+                    monitorTable.addSample(threadInfo);
+                    StackTraceElement[] stackTraceElements = threadInfo.getStackTrace();
+                    if (stackTraceElements.length > 0) {
+                        //a stack as deep as the limit may well have been cut short
+                        callTree.addSample(stackTraceElements, stackTraceElements.length >= depth);
+                    }
+                    if (sampleListener != null) {
+                        sampleListener.sampled(stackTraceElements);
+                    } else {
+                        addMeasurement(sampledThreads.get(threadInfo.getThreadId()), stackTraceElements);
                     }
-                    removeList.add(threadInfo);
                 }
             }
         }
-        if (removeList != null) {
-            for (ThreadInfo threadInfo : removeList) {
-                currentMethods.remove(threadInfo.getThreadId());
+        if (sampleListener != null) {
+            sampleListener.samplingFinished(currentTime);
+        }
+    }
+
+    public CallTree getCallTree() {
+        return callTree;
+    }
+
+    /**
+     * @return the monitors and locks the sampled threads have been blocked on or waiting for
+     */
+    public MonitorTable getMonitorTable() {
+        return monitorTable;
+    }
+
+    public String getFoldedStacks() {
+        StringWriter writer = new StringWriter();
+        try {
+            callTree.writeFoldedStacks(writer);
+        } catch (IOException e) {
+            //can't happen with a StringWriter
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Finds the live threads to sample, without taking any stacks, and forgets threads that have died
+     */
+    private void refreshThreads() {
+        ThreadGroup rootGroup = Thread.currentThread().getThreadGroup();
+        while (rootGroup.getParent() != null) {
+            rootGroup = rootGroup.getParent();
+        }
+        Thread[] threads = new Thread[rootGroup.activeCount() * 2 + 16];
+        int count = rootGroup.enumerate(threads, true);
+
+        String threadFilter = configuration.getSamplingThreadFilter();
+        Pattern pattern = threadFilterPattern;
+        if (threadFilter == null || threadFilter.isEmpty()) {
+            pattern = null;
+        } else if (pattern == null || !pattern.pattern().equals(threadFilter)) {
+            pattern = Pattern.compile(threadFilter);
+        }
+        threadFilterPattern = pattern;
+
+        Map<Long, Thread> threadMap = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            Thread thread = threads[i];
+            if (thread != Thread.currentThread() && (pattern == null || pattern.matcher(thread.getName()).matches())) {
+                threadMap.put(thread.getId(), thread);
             }
         }
+        long[] ids = new long[threadMap.size()];
+        int i = 0;
+        for (Long id : threadMap.keySet()) {
+            ids[i++] = id;
+        }
+        currentMethods.keySet().retainAll(threadMap.keySet());
+        sampledThreads = threadMap;
+        sampledThreadIds = ids;
     }
 
     private void addMeasurement(Thread thread, StackTraceElement[] stackTraceElements) {
@@ -147,5 +228,21 @@ public class SamplingStrategy implements Strategy, Runnable {
         stringBuilder.append(topOfStack.getClassName()).append(".").append(topOfStack.getMethodName());
         return stringBuilder.toString();
     }
+
+    /**
+     * Is given the stacks taken by the sampling thread
+     */
+    public interface SampleListener {
+
+        /**
+         * @param stack the stack of a sampled thread, with the current frame first
+         */
+        void sampled(StackTraceElement[] stack);
+
+        /**
+         * Called after each round of sampling, even if no stacks were taken
+         */
+        void samplingFinished(long currentTime);
+    }
 }
 
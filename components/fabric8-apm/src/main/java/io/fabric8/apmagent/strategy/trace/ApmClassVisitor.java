@@ -16,19 +16,30 @@
 package io.fabric8.apmagent.strategy.trace;
 
 import io.fabric8.apmagent.ApmAgent;
+import io.fabric8.apmagent.ApmConfiguration;
 import io.fabric8.apmagent.ClassInfo;
+import io.fabric8.apmagent.MethodDescription;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.objectweb.asm.Opcodes.ACC_ABSTRACT;
+import static org.objectweb.asm.Opcodes.ACC_NATIVE;
 import static org.objectweb.asm.Opcodes.ASM5;
 
 public class ApmClassVisitor extends ClassVisitor {
     private static final Logger LOG = LoggerFactory.getLogger(ApmAgent.class);
     private final TraceStrategy traceStrategy;
     private final ClassInfo classInfo;
+    private final List<MethodDescription> methods = new ArrayList<>();
+    private final Set<String> transformedMethodSignatures = new HashSet<>();
 
     public ApmClassVisitor(TraceStrategy traceStrategy, ClassVisitor cv, ClassInfo classInfo) {
         super(ASM5, cv);
@@ -54,13 +65,27 @@ public class ApmClassVisitor extends ClassVisitor {
         try {
             String methodDescription = getDescription(desc);
             classInfo.addMethod(name, methodDescription);
+            String key = MethodDescription.getMethodSignature(name, methodDescription);
+            methods.add(classInfo.getMethodDescription(key));
 
             if (canProfileMethod(name, desc) && traceStrategy.isAudit(classInfo.getClassName(), name)) {
                 MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
 
-                ApmMethodVisitor methodVisitor = new ApmMethodVisitor(mv, classInfo.getClassName(), name + methodDescription);
                 classInfo.addTransformedMethod(name, methodDescription);
-                return methodVisitor;
+                transformedMethodSignatures.add(key);
+                ApmConfiguration configuration = traceStrategy.getConfiguration();
+                int methodId = -1;
+                if (configuration.isUseMethodIds() || configuration.isLocalVariableTiming()) {
+                    methodId = traceStrategy.getContext().getMethodId(classInfo.getMethodDescription(key));
+                }
+                int argumentCount = 0;
+                if (configuration.isSlowCallArguments(classInfo.getClassName(), name)) {
+                    argumentCount = Math.min(configuration.getSlowCallArgumentCount(), Type.getArgumentTypes(desc).length);
+                }
+                if (configuration.isLocalVariableTiming(classInfo.getClassName(), name) && (access & (ACC_ABSTRACT | ACC_NATIVE)) == 0) {
+                    return new ApmTimingMethodVisitor(mv, access, name, desc, methodId, argumentCount);
+                }
+                return new ApmMethodVisitor(mv, classInfo.getClassName(), name + methodDescription, methodId, access, desc, argumentCount);
             }
 
         } catch (Throwable e) {
@@ -71,6 +96,20 @@ public class ApmClassVisitor extends ClassVisitor {
         return super.visitMethod(access, name, desc, signature, exceptions);
     }
 
+    /**
+     * @return the methods visited
+     */
+    public List<MethodDescription> getMethods() {
+        return methods;
+    }
+
+    /**
+     * @return the signatures of the methods instrumented
+     */
+    public Set<String> getTransformedMethodSignatures() {
+        return transformedMethodSignatures;
+    }
+
     private boolean canProfileMethod(String methodName, String methodDescriptor) {
         if (methodDescriptor != null) {
 
@@ -16,32 +16,136 @@
 package io.fabric8.apmagent.strategy.trace;
 
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
 
 import static org.objectweb.asm.Opcodes.*;
 
 public class ApmMethodVisitor extends MethodVisitor {
     private final String fullMethodName;
+    private final int methodId;
+    private final boolean isStatic;
+    private final Type[] argumentTypes;
+    private final int argumentCount;
 
     public ApmMethodVisitor(MethodVisitor mv, String className, String methodName) {
+        this(mv, className, methodName, -1);
+    }
+
+    /**
+     * @param methodId if not negative, the id is passed to the agent instead of the method name
+     */
+    public ApmMethodVisitor(MethodVisitor mv, String className, String methodName, int methodId) {
+        this(mv, className, methodName, methodId, 0, null, 0);
+    }
+
+    /**
+     * @param argumentCount the number of arguments, from the first, passed to the agent on entry so they can
+     *                      be kept if the call is slow - nothing extra is done for the method if 0
+     */
+    public ApmMethodVisitor(MethodVisitor mv, String className, String methodName, int methodId, int access, String desc, int argumentCount) {
         super(ASM5, mv);
         this.fullMethodName = className + "@" + methodName;
+        this.methodId = methodId;
+        this.isStatic = (access & ACC_STATIC) != 0;
+        this.argumentTypes = desc != null ? Type.getArgumentTypes(desc) : new Type[0];
+        this.argumentCount = Math.min(argumentCount, argumentTypes.length);
     }
 
     @Override
     public void visitCode() {
         super.visitCode();
-        super.visitLdcInsn(fullMethodName);
-        super.visitMethodInsn(INVOKESTATIC, "io/fabric8/apmagent/ApmAgent",
-                                 "enterMethod", "(Ljava/lang/String;)V", false);
+        if (argumentCount > 0) {
+            visitEnterWithArguments();
+        } else {
+            visitAgentCall("enterMethod");
+        }
     }
 
     @Override
     public void visitInsn(int opcode) {
         if ((opcode >= IRETURN && opcode <= RETURN) || opcode == ATHROW) {
+            visitAgentCall("exitMethod");
+        }
+        super.visitInsn(opcode);
+    }
+
+    private void visitAgentCall(String agentMethod) {
+        if (methodId >= 0) {
+            pushInt(methodId);
+            super.visitMethodInsn(INVOKESTATIC, "io/fabric8/apmagent/ApmAgent",
+                                     agentMethod, "(I)V", false);
+        } else {
             super.visitLdcInsn(fullMethodName);
             super.visitMethodInsn(INVOKESTATIC, "io/fabric8/apmagent/ApmAgent",
-                                     "exitMethod", "(Ljava/lang/String;)V", false);
+                                     agentMethod, "(Ljava/lang/String;)V", false);
+        }
+    }
+
+    private void visitEnterWithArguments() {
+        if (methodId >= 0) {
+            pushInt(methodId);
+        } else {
+            super.visitLdcInsn(fullMethodName);
+        }
+        pushInt(argumentCount);
+        super.visitTypeInsn(ANEWARRAY, "java/lang/Object");
+        int local = isStatic ? 0 : 1;
+        for (int i = 0; i < argumentCount; i++) {
+            Type type = argumentTypes[i];
+            super.visitInsn(DUP);
+            pushInt(i);
+            super.visitVarInsn(type.getOpcode(ILOAD), local);
+            box(type);
+            super.visitInsn(AASTORE);
+            local += type.getSize();
+        }
+        super.visitMethodInsn(INVOKESTATIC, "io/fabric8/apmagent/ApmAgent", "enterMethod",
+                                 methodId >= 0 ? "(I[Ljava/lang/Object;)V" : "(Ljava/lang/String;[Ljava/lang/Object;)V", false);
+    }
+
+    private void box(Type type) {
+        String boxed;
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                boxed = "java/lang/Boolean";
+                break;
+            case Type.CHAR:
+                boxed = "java/lang/Character";
+                break;
+            case Type.BYTE:
+                boxed = "java/lang/Byte";
+                break;
+            case Type.SHORT:
+                boxed = "java/lang/Short";
+                break;
+            case Type.INT:
+                boxed = "java/lang/Integer";
+                break;
+            case Type.FLOAT:
+                boxed = "java/lang/Float";
+                break;
+            case Type.LONG:
+                boxed = "java/lang/Long";
+                break;
+            case Type.DOUBLE:
+                boxed = "java/lang/Double";
+                break;
+            default:
+                //already a reference
+                return;
+        }
+        super.visitMethodInsn(INVOKESTATIC, boxed, "valueOf", "(" + type.getDescriptor() + ")L" + boxed + ";", false);
+    }
+
+    private void pushInt(int value) {
+        if (value <= 5) {
+            super.visitInsn(ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            super.visitIntInsn(BIPUSH, value);
+        } else if (value <= Short.MAX_VALUE) {
+            super.visitIntInsn(SIPUSH, value);
+        } else {
+            super.visitLdcInsn(value);
         }
-        super.visitInsn(opcode);
     }
 }
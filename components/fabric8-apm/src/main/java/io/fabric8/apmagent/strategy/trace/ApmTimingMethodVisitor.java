@@ -0,0 +1,118 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.trace;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.AdviceAdapter;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Wraps the method body in a try/finally: the start time is kept in a local variable and
+ * ApmAgent.exitMethod(int, long) is called on every return and from a catch-all handler,
+ * so the timing is correct even when the method completes with an exception and the
+ * agent doesn't need to keep a per thread stack of calls. Arguments captured for slow calls
+ * are kept in a local variable too, and passed to ApmAgent.exitMethod(int, long, Object[]).
+ * <p/>
+ * The catch-all handler has to come after the method's own handlers, but a try/catch block can't be added once its
+ * labels have been visited - so the method is buffered in a MethodNode, and passed on to the next visitor at the end.
+ */
+public class ApmTimingMethodVisitor extends AdviceAdapter {
+    private static final Type OBJECT_TYPE = Type.getType(Object.class);
+    private final MethodVisitor target;
+    private final int methodId;
+    private final Type[] argumentTypes;
+    private final int argumentCount;
+    private final Label startLabel = new Label();
+    private final Label endLabel = new Label();
+    private final Label handlerLabel = new Label();
+    private int startTimeLocal;
+    private int argumentsLocal;
+
+    public ApmTimingMethodVisitor(MethodVisitor mv, int access, String name, String desc, int methodId) {
+        this(mv, access, name, desc, methodId, 0);
+    }
+
+    /**
+     * @param argumentCount the number of arguments, from the first, passed to the agent on exit so they can
+     *                      be kept if the call is slow
+     */
+    public ApmTimingMethodVisitor(MethodVisitor mv, int access, String name, String desc, int methodId, int argumentCount) {
+        super(ASM5, new MethodNode(ASM5, access, name, desc, null, null), access, name, desc);
+        this.target = mv;
+        this.methodId = methodId;
+        this.argumentTypes = Type.getArgumentTypes(desc);
+        this.argumentCount = Math.min(argumentCount, argumentTypes.length);
+    }
+
+    @Override
+    protected void onMethodEnter() {
+        if (argumentCount > 0) {
+            push(argumentCount);
+            newArray(OBJECT_TYPE);
+            for (int i = 0; i < argumentCount; i++) {
+                dup();
+                push(i);
+                loadArg(i);
+                valueOf(argumentTypes[i]);
+                arrayStore(OBJECT_TYPE);
+            }
+            argumentsLocal = newLocal(Type.getType(Object[].class));
+            storeLocal(argumentsLocal);
+        }
+        invokeStatic(Type.getType(System.class), new org.objectweb.asm.commons.Method("nanoTime", "()J"));
+        startTimeLocal = newLocal(Type.LONG_TYPE);
+        storeLocal(startTimeLocal);
+        visitLabel(startLabel);
+    }
+
+    @Override
+    protected void onMethodExit(int opcode) {
+        //exceptions, thrown here or by a callee, are recorded by the handler added in visitMaxs
+        if (opcode != ATHROW) {
+            visitExitCall();
+        }
+    }
+
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+        visitLabel(endLabel);
+        visitLabel(handlerLabel);
+        visitExitCall();
+        throwException();
+        //added last so the method's own handlers take precedence
+        visitTryCatchBlock(startLabel, endLabel, handlerLabel, null);
+        super.visitMaxs(maxStack, maxLocals);
+    }
+
+    @Override
+    public void visitEnd() {
+        super.visitEnd();
+        ((MethodNode) mv).accept(target);
+    }
+
+    private void visitExitCall() {
+        push(methodId);
+        loadLocal(startTimeLocal);
+        if (argumentCount > 0) {
+            loadLocal(argumentsLocal);
+            visitMethodInsn(INVOKESTATIC, "io/fabric8/apmagent/ApmAgent", "exitMethod", "(IJ[Ljava/lang/Object;)V", false);
+        } else {
+            visitMethodInsn(INVOKESTATIC, "io/fabric8/apmagent/ApmAgent", "exitMethod", "(IJ)V", false);
+        }
+    }
+}
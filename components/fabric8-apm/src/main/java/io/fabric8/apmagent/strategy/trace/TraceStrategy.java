@@ -24,6 +24,7 @@ import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.util.CheckClassAdapter;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -32,10 +33,19 @@ import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
 import java.lang.instrument.UnmodifiableClassException;
 import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TraceStrategy implements Strategy, ClassFileTransformer {
     private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(TraceStrategy.class);
@@ -43,11 +53,18 @@ public class TraceStrategy implements Strategy, ClassFileTransformer {
     private ApmAgentContext context;
     private ApmConfiguration configuration;
     private Instrumentation instrumentation;
-    private BlockingQueue<Class<?>> blockingQueue = new LinkedBlockingDeque<>();
     private AtomicBoolean initialized = new AtomicBoolean();
     private AtomicBoolean started = new AtomicBoolean();
     private AtomicBoolean cleanUp = new AtomicBoolean();
-    private Thread transformThread;
+    private ExecutorService transformExecutor;
+    private final AtomicLong transformedClassCount = new AtomicLong();
+    private final AtomicLong pendingClassCount = new AtomicLong();
+    private final AtomicLong failedClassCount = new AtomicLong();
+    private volatile long lastTransformTime;
+    private volatile TransformCache transformCache;
+    private volatile String filterFingerprint;
+    private volatile Set<String> hotMethods;
+    private volatile Set<String> hotClasses;
 
     public TraceStrategy(ApmAgentContext context, Instrumentation instrumentation) {
         this.context = context;
@@ -83,11 +100,6 @@ public class TraceStrategy implements Strategy, ClassFileTransformer {
             stop();
             configuration.removeChangeListener(this);
             instrumentation.removeTransformer(this);
-            Thread t = transformThread;
-            transformThread = null;
-            if (t != null && !t.isInterrupted()) {
-                t.interrupt();
-            }
             cleanUp.set(true);
             try {
                 //clean up
@@ -95,49 +107,138 @@ public class TraceStrategy implements Strategy, ClassFileTransformer {
             } catch (Throwable e) {
                 LOG.warn("Failed to shutdown due " + e.getMessage() + ". This exception is ignored.", e);
             }
+            shutDownTransformExecutor();
         }
     }
 
     public boolean isAudit(String className) {
-        return configuration.isAudit(className);
+        Set<String> classes = hotClasses;
+        return configuration.isAudit(className) && (classes == null || classes.contains(className.replace('/', '.')));
     }
 
     public boolean isAudit(String className, String methodName) {
-        return configuration.isAudit(className, methodName);
+        Set<String> methods = hotMethods;
+        return configuration.isAudit(className, methodName) &&
+                   (methods == null || methods.contains(className.replace('/', '.') + "." + methodName));
+    }
+
+    /**
+     * Restricts instrumentation to the given methods (which must also pass the white and black lists), and
+     * retransforms the loaded classes whose instrumented methods have changed. To only ever instrument the
+     * given methods, it should first be called before this strategy is started.
+     *
+     * @param methods the names of the methods to instrument, as "className.methodName" - or null to
+     *                instrument all the methods the configuration allows
+     */
+    public void setHotMethods(Set<String> methods) {
+        Set<String> oldMethods = hotMethods;
+        Set<String> classes = null;
+        if (methods != null) {
+            methods = new HashSet<>(methods);
+            classes = new HashSet<>();
+            for (String method : methods) {
+                classes.add(method.substring(0, method.lastIndexOf('.')));
+            }
+        }
+        hotMethods = methods;
+        hotClasses = classes;
+        if (started.get() && methods != null && oldMethods != null) {
+            //only the classes of the methods that became hot or cooled down need to change
+            Set<String> changedClasses = new HashSet<>();
+            for (String method : methods) {
+                if (!oldMethods.contains(method)) {
+                    changedClasses.add(method.substring(0, method.lastIndexOf('.')));
+                }
+            }
+            for (String method : oldMethods) {
+                if (!methods.contains(method)) {
+                    changedClasses.add(method.substring(0, method.lastIndexOf('.')));
+                }
+            }
+            if (!changedClasses.isEmpty()) {
+                List<Class<?>> changed = new ArrayList<>();
+                for (Class<?> c : instrumentation.getAllLoadedClasses()) {
+                    if (changedClasses.contains(c.getName()) && instrumentation.isModifiableClass(c)) {
+                        changed.add(c);
+                    }
+                }
+                retransform(changed, !configuration.isAsyncTransformation());
+            }
+        }
+    }
+
+    /**
+     * @return the methods instrumentation is restricted to, or null if it isn't
+     */
+    public Set<String> getHotMethods() {
+        Set<String> methods = hotMethods;
+        return methods != null ? Collections.unmodifiableSet(methods) : null;
     }
 
     @Override
     public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
+        long start = System.nanoTime();
+        try {
+            return transformClass(className, classBeingRedefined, classfileBuffer);
+        } finally {
+            context.getOverhead().addTransformTime(System.nanoTime() - start);
+        }
+    }
+
+    private byte[] transformClass(String className, Class<?> classBeingRedefined, byte[] classfileBuffer) {
         byte[] buffer = null;
         ClassInfo classInfo = context.getClassInfo(className);
         classInfo.setOriginalClass(classBeingRedefined);
-        if (classInfo.getTransformed() == null) {
-            //we haven't been transformed before
-            classInfo.setOriginal(classfileBuffer);
+        boolean audit = isAudit(className);
+        if (!classInfo.isTransformed()) {
+            //we haven't been transformed before - in bounded mode only the originals of classes we instrument are kept
+            if (audit || !configuration.isBoundedBytecodeRetention()) {
+                classInfo.setOriginal(classfileBuffer);
+            } else {
+                classInfo.setOriginal(null);
+            }
         }
         if (!cleanUp.get()) {
-            byte[] classBufferToRedefine = classInfo.getOriginal();
-
-            if (configuration.isAudit(className)) {
+            if (audit) {
+                byte[] classBufferToRedefine = classInfo.getOriginal();
+                if (classBufferToRedefine == null) {
+                    classBufferToRedefine = classfileBuffer;
+                }
                 if (classInfo.isTransformed()) {
                     //remove metrics from methods no longer defined
                     context.resetMethods(classInfo);
                 }
-                ClassReader cr = new ClassReader(classBufferToRedefine);
+                TransformCache cache = getTransformCache();
+                String key = null;
+                if (cache != null) {
+                    key = cache.getKey(classBufferToRedefine, getFilterFingerprint() + getHotMethodsFingerprint(className));
+                    buffer = cache.get(key, classInfo);
+                }
+                if (buffer == null) {
+                    ClassReader cr = new ClassReader(classBufferToRedefine);
 
-                ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+                    ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
 
-                ApmClassVisitor visitor = new ApmClassVisitor(this, cw, classInfo);
-                cr.accept(visitor, ClassReader.SKIP_FRAMES);
-                buffer = cw.toByteArray();
-                if (!verifyClass(className, buffer)) {
-                    classInfo.setCanTransform(false);
-                    buffer = null;
+                    ApmClassVisitor visitor = new ApmClassVisitor(this, cw, classInfo);
+                    cr.accept(visitor, ClassReader.SKIP_FRAMES);
+                    buffer = cw.toByteArray();
+                    if (!verifyClass(className, buffer)) {
+                        classInfo.setCanTransform(false);
+                        buffer = null;
+                        if (configuration.isBoundedBytecodeRetention()) {
+                            classInfo.setOriginal(null);
+                        }
+                    } else if (cache != null) {
+                        cache.put(key, buffer, visitor.getMethods(), visitor.getTransformedMethodSignatures());
+                    }
                 }
                 classInfo.setTransformed(buffer);
+            } else if (classInfo.isTransformed()) {
+                //no longer instrumented - the class is restored from its original class file
+                context.resetAll(classInfo);
             }
         } else {
-            if (classInfo.getOriginal() != null) {
+            if (classInfo.hasOriginal()) {
                 buffer = classInfo.getOriginal();
                 context.resetAll(classInfo);
             }
@@ -147,34 +248,50 @@ public class TraceStrategy implements Strategy, ClassFileTransformer {
 
     @Override
     public void configurationChanged() {
+        if (configuration.isFilterChanged()) {
+            filterFingerprint = null;
+        }
         if (started.get()) {
             if (configuration.isFilterChanged()) {
                 List<ClassInfo> deltas = context.buildDeltaList();
                 if (deltas != null && !deltas.isEmpty()) {
+                    List<Class<?>> classes = new ArrayList<>(deltas.size());
                     for (ClassInfo classInfo : deltas) {
-                        if (configuration.isAsyncTransformation()) {
-                            try {
-                                blockingQueue.put(classInfo.getOriginalClass());
-                            } catch (InterruptedException e) {
-                                Thread.currentThread().interrupt();
-                                break;
-                            }
-                        } else {
-                            try {
-                                instrumentation.retransformClasses(new Class[]{classInfo.getOriginalClass()});
-                            } catch (Throwable e) {
-                                LOG.warn("Could not transform " + classInfo.getClassName() + " due " + e.getMessage(), e);
-                            }
+                        if (classInfo.getOriginalClass() != null) {
+                            classes.add(classInfo.getOriginalClass());
                         }
                     }
-                    if (configuration.isAsyncTransformation() && !blockingQueue.isEmpty()) {
-                        startTransformThread();
-                    }
+                    retransform(classes, !configuration.isAsyncTransformation());
                 }
             }
         }
     }
 
+    /**
+     * @return the number of classes retransformed since this strategy was created
+     */
+    public long getTransformedClassCount() {
+        return transformedClassCount.get();
+    }
+
+    /**
+     * @return the number of classes waiting to be retransformed
+     */
+    public long getPendingClassCount() {
+        return pendingClassCount.get();
+    }
+
+    public long getFailedClassCount() {
+        return failedClassCount.get();
+    }
+
+    /**
+     * @return the time in milliseconds the last retransformation of the application took
+     */
+    public long getLastTransformTime() {
+        return lastTransformTime;
+    }
+
     public Instrumentation getInstrumentation() {
         return instrumentation;
     }
@@ -183,6 +300,10 @@ public class TraceStrategy implements Strategy, ClassFileTransformer {
         this.instrumentation = instrumentation;
     }
 
+    public ApmConfiguration getConfiguration() {
+        return configuration;
+    }
+
     public ApmAgentContext getContext() {
         return context;
     }
@@ -199,26 +320,155 @@ public class TraceStrategy implements Strategy, ClassFileTransformer {
 
         instrumentation.addTransformer(this, true);
 
+        List<Class<?>> classes = new ArrayList<>();
         for (Class<?> c : instrumentation.getAllLoadedClasses()) {
             if (isInstrumentClass(c)) {
-                if (configuration.isAsyncTransformation()) {
-                    try {
-                        blockingQueue.put(c);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
-                } else {
+                classes.add(c);
+            }
+        }
+        //when cleaning up, always wait for the original classes to be restored
+        retransform(classes, cleanUp.get() || !configuration.isAsyncTransformation());
+    }
+
+    /**
+     * Retransforms the classes in batches, spread over the transform worker threads - the
+     * class file transformation (which is where the time goes) happens on the thread
+     * calling retransformClasses, so the batches are transformed in parallel.
+     */
+    private void retransform(List<Class<?>> classes, boolean wait) {
+        if (classes.isEmpty()) {
+            return;
+        }
+        final long startTime = System.currentTimeMillis();
+        int batchSize = Math.max(1, configuration.getTransformBatchSize());
+        int batchCount = (classes.size() + batchSize - 1) / batchSize;
+        final AtomicInteger remainingBatches = new AtomicInteger(batchCount);
+        ExecutorService executor = getTransformExecutor();
+        List<Future<?>> futures = new ArrayList<>(batchCount);
+        pendingClassCount.addAndGet(classes.size());
+        for (int i = 0; i < classes.size(); i += batchSize) {
+            final Class<?>[] batch = classes.subList(i, Math.min(classes.size(), i + batchSize)).toArray(new Class<?>[0]);
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
                     try {
-                        instrumentation.retransformClasses(new Class[]{c});
-                    } catch (Throwable e) {
-                        LOG.error("Could not transform " + c.getName(), e);
+                        retransformBatch(batch);
+                    } finally {
+                        pendingClassCount.addAndGet(-batch.length);
+                        if (remainingBatches.decrementAndGet() == 0) {
+                            lastTransformTime = System.currentTimeMillis() - startTime;
+                            LOG.debug("Retransformed {} classes in {} ms", classes.size(), lastTransformTime);
+                        }
                     }
                 }
+            }));
+        }
+        if (wait) {
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    LOG.warn("Failed to retransform classes due " + e.getMessage() + ". This exception is ignored.", e);
+                }
+            }
+        }
+    }
+
+    private void retransformBatch(Class<?>[] batch) {
+        try {
+            instrumentation.retransformClasses(batch);
+            transformedClassCount.addAndGet(batch.length);
+        } catch (Throwable e) {
+            if (batch.length == 1) {
+                failedClassCount.incrementAndGet();
+                LOG.warn("Could not transform " + batch[0].getName() + " due " + e.getMessage(), e);
+            } else {
+                //one bad class fails the whole batch - so try them one at a time
+                for (Class<?> c : batch) {
+                    retransformBatch(new Class<?>[]{c});
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the cache of transformed classes, or null if not configured. Method ids are only
+     * valid for the lifetime of the process, so the cache isn't used when classes are instrumented with them
+     */
+    private TransformCache getTransformCache() {
+        String directory = configuration.getTransformCacheDirectory();
+        if (directory == null || directory.isEmpty() || configuration.isUseMethodIds() || configuration.isLocalVariableTiming()) {
+            return null;
+        }
+        TransformCache result = transformCache;
+        if (result == null || !result.getDirectory().equals(new File(directory))) {
+            synchronized (this) {
+                result = transformCache;
+                if (result == null || !result.getDirectory().equals(new File(directory))) {
+                    result = new TransformCache(new File(directory), configuration.getTransformCacheMaxSize());
+                    transformCache = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private String getFilterFingerprint() {
+        String result = filterFingerprint;
+        if (result == null) {
+            Package agentPackage = TraceStrategy.class.getPackage();
+            String version = agentPackage != null ? agentPackage.getImplementationVersion() : null;
+            result = version + "|" + configuration.getWhiteList() + "|" + configuration.getBlackList() + "|" +
+                         configuration.getSlowCallArgumentMethods() + "|" + configuration.getSlowCallArgumentCount() + "|" +
+                         configuration.getDisabledMethods();
+            filterFingerprint = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return the hot methods of the class, as they decide which of its methods are instrumented
+     */
+    private String getHotMethodsFingerprint(String className) {
+        Set<String> methods = hotMethods;
+        if (methods == null) {
+            return "|*";
+        }
+        String prefix = className.replace('/', '.') + ".";
+        List<String> classMethods = new ArrayList<>();
+        for (String method : methods) {
+            if (method.startsWith(prefix) && method.indexOf('.', prefix.length()) < 0) {
+                classMethods.add(method.substring(prefix.length()));
             }
         }
-        if (configuration.isAsyncTransformation() && !blockingQueue.isEmpty()) {
-            startTransformThread();
+        Collections.sort(classMethods);
+        return "|" + classMethods;
+    }
+
+    private synchronized ExecutorService getTransformExecutor() {
+        if (transformExecutor == null) {
+            int threads = Math.max(1, configuration.getTransformThreads());
+            transformExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Fabric8-ApmAgent-Transformer-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return transformExecutor;
+    }
+
+    private synchronized void shutDownTransformExecutor() {
+        if (transformExecutor != null) {
+            transformExecutor.shutdownNow();
+            transformExecutor = null;
         }
     }
 
@@ -228,7 +478,7 @@ public class TraceStrategy implements Strategy, ClassFileTransformer {
             LOG.trace("NO INSTRUMENT: Class {} is not modifiable", c.getName());
             return false;
         }
-        if (!configuration.isAudit(c.getName())) {
+        if (!isAudit(c.getName())) {
             LOG.trace("NO INSTRUMENT: Class {} is blacklisted", c.getName());
             return false;
         }
@@ -239,34 +489,6 @@ public class TraceStrategy implements Strategy, ClassFileTransformer {
         return true;
     }
 
-    private synchronized void startTransformThread() {
-        if (configuration.isAsyncTransformation() && transformThread == null) {
-            transformThread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    while (initialized.get() && !blockingQueue.isEmpty()) {
-                        try {
-                            Class<?> aClass = blockingQueue.take();
-                            if (aClass != null) {
-                                if (isInstrumentClass(aClass)) {
-                                    try {
-                                        instrumentation.retransformClasses(new Class[]{aClass});
-                                    } catch (Throwable e) {
-                                        LOG.error("Could not transform " + aClass.getName(), e);
-                                    }
-                                }
-                            }
-                        } catch (InterruptedException e) {
-                            shutDown();
-                        }
-                    }
-                }
-            });
-            transformThread.setDaemon(true);
-            transformThread.start();
-        }
-    }
-
     private boolean verifyClass(String className, byte[] transformed) {
         boolean result = true;
         if (configuration.isVerifyClasses()) {
@@ -0,0 +1,204 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.trace;
+
+import io.fabric8.apmagent.ClassInfo;
+import io.fabric8.apmagent.MethodDescription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An on disk cache of transformed class files, keyed by a hash of the original class file and
+ * a fingerprint of everything else that affects the transformation (filters, agent version).
+ * <p/>
+ * Each entry also records the methods of the class and which of them were instrumented, so a
+ * {@link ClassInfo} can be populated without running ASM. The least recently used entries are
+ * removed once the total size of the cache exceeds its limit.
+ */
+public class TransformCache {
+    private static final Logger LOG = LoggerFactory.getLogger(TransformCache.class);
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".apmclass";
+
+    private final File directory;
+    private final long maxSize;
+    private final Map<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    public TransformCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        load();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public String getKey(byte[] original, String fingerprint) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(original);
+            digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+            StringBuilder result = new StringBuilder();
+            for (byte b : digest.digest()) {
+                result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the transformed class file, or null if its not in the cache. The methods of the class are
+     * added to the classInfo
+     */
+    public byte[] get(String key, ClassInfo classInfo) {
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                return null;
+            }
+        }
+        File file = getFile(key);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                remove(key);
+                return null;
+            }
+            int methodCount = in.readInt();
+            String[][] methods = new String[methodCount][];
+            boolean[] transformed = new boolean[methodCount];
+            for (int i = 0; i < methodCount; i++) {
+                methods[i] = new String[]{in.readUTF(), in.readUTF()};
+                transformed[i] = in.readBoolean();
+            }
+            byte[] result = new byte[in.readInt()];
+            in.readFully(result);
+            for (int i = 0; i < methodCount; i++) {
+                classInfo.addMethod(methods[i][0], methods[i][1]);
+                if (transformed[i]) {
+                    classInfo.addTransformedMethod(methods[i][0], methods[i][1]);
+                }
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return result;
+        } catch (IOException e) {
+            LOG.debug("Failed to read cached class " + classInfo.getClassName() + " due " + e.getMessage(), e);
+            remove(key);
+            return null;
+        }
+    }
+
+    public void put(String key, byte[] transformed, Collection<MethodDescription> methods, Set<String> transformedMethodSignatures) {
+        File file = getFile(key);
+        File tmp = new File(directory, key + ".tmp" + Thread.currentThread().getId());
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(methods.size());
+                for (MethodDescription methodDescription : methods) {
+                    out.writeUTF(methodDescription.getMethodName());
+                    out.writeUTF(methodDescription.getDescription());
+                    out.writeBoolean(transformedMethodSignatures.contains(methodDescription.getMethodSignature()));
+                }
+                out.writeInt(transformed.length);
+                out.write(transformed);
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return;
+            }
+            synchronized (this) {
+                Long old = entries.put(key, file.length());
+                size += file.length() - (old != null ? old : 0);
+                evict();
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            LOG.debug("Failed to cache class due " + e.getMessage(), e);
+        }
+    }
+
+    private synchronized void remove(String key) {
+        Long old = entries.remove(key);
+        if (old != null) {
+            size -= old;
+        }
+        getFile(key).delete();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            iterator.remove();
+            size -= entry.getValue();
+            getFile(entry.getKey()).delete();
+        }
+    }
+
+    private synchronized void load() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOG.warn("Could not create transform cache directory " + directory);
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        //oldest first, so the iteration order of the map is least recently used first
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                return Long.compare(file1.lastModified(), file2.lastModified());
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(SUFFIX)) {
+                entries.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+                size += file.length();
+            } else if (name.contains(".tmp")) {
+                file.delete();
+            }
+        }
+        evict();
+    }
+
+    private File getFile(String key) {
+        return new File(directory, key + SUFFIX);
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ApmConfigurationTest {
+
+    @Test
+    public void testDisabledMethodIsNotAuditedEvenIfWhiteListed() {
+        ApmConfiguration configuration = new ApmConfiguration();
+        String className = "com.acme.Service";
+        configuration.addToWhiteList(className + "@handle");
+        assertTrue(configuration.isAudit(className, "handle"));
+        String whiteList = configuration.getWhiteList();
+        String blackList = configuration.getBlackList();
+
+        configuration.disableMethod(className.replace('.', '/'), "handle");
+        assertFalse(configuration.isAudit(className, "handle"));
+        assertFalse(configuration.isAudit(className.replace('.', '/'), "handle"));
+        assertTrue(configuration.isAudit(className, "handleAll"));
+        // the lists the user configured are left alone
+        assertEquals(whiteList, configuration.getWhiteList());
+        assertEquals(blackList, configuration.getBlackList());
+        assertEquals(Collections.singletonList(className + "@handle"), configuration.getDisabledMethods());
+    }
+
+    @Test
+    public void testLocalVariableTimingNotUsedForMethodsThatAreEntered() {
+        ApmConfiguration configuration = new ApmConfiguration();
+        String className = "com.acme.Service";
+        assertFalse(configuration.isLocalVariableTiming(className, "handle"));
+        configuration.setLocalVariableTiming(true);
+        assertTrue(configuration.isLocalVariableTiming(className, "handle"));
+
+        configuration.setResourceTimingMethods(className + "@handle");
+        configuration.setContentionTimingMethods(className + "@process");
+        assertFalse(configuration.isLocalVariableTiming(className, "handle"));
+        assertFalse(configuration.isLocalVariableTiming(className, "process"));
+        assertTrue(configuration.isLocalVariableTiming(className, "run"));
+
+        // every call in a trace has to be entered
+        configuration.setTraceEntryPoints(className + "@run");
+        assertFalse(configuration.isLocalVariableTiming(className, "run"));
+        assertFalse(configuration.isLocalVariableTiming("com.acme.Other", "run"));
+    }
+}
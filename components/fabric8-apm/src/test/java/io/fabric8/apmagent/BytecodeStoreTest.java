@@ -0,0 +1,103 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BytecodeStoreTest {
+
+    @Test
+    public void testCreate() throws Exception {
+        ApmConfiguration configuration = new ApmConfiguration();
+        assertSame(BytecodeStore.HEAP, BytecodeStore.create(configuration));
+
+        configuration.setBoundedBytecodeRetention(true);
+        assertTrue(BytecodeStore.create(configuration) instanceof BytecodeStore.CompressedStore);
+
+        File directory = Files.createTempDirectory("bytecode-store").toFile();
+        File spillFile = new File(directory, "classes.spill");
+        try {
+            configuration.setBytecodeSpillFile(spillFile.getPath());
+            assertTrue(BytecodeStore.create(configuration) instanceof BytecodeStore.SpillFileStore);
+
+            // a spill file that can't be created falls back to keeping the class files compressed in memory
+            configuration.setBytecodeSpillFile(new File(spillFile, "classes.spill").getPath());
+            assertTrue(BytecodeStore.create(configuration) instanceof BytecodeStore.CompressedStore);
+        } finally {
+            spillFile.delete();
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testStoresReturnWhatWasStored() throws Exception {
+        File spillFile = File.createTempFile("bytecode-store", ".spill");
+        try {
+            BytecodeStore[] stores = {BytecodeStore.HEAP, new BytecodeStore.CompressedStore(), new BytecodeStore.SpillFileStore(spillFile)};
+            for (BytecodeStore store : stores) {
+                byte[][] classFiles = {new byte[0], createClassFile(1, 100), createClassFile(2, 70000), createClassFile(3, 5000)};
+                BytecodeStore.Entry[] entries = new BytecodeStore.Entry[classFiles.length];
+                for (int i = 0; i < classFiles.length; i++) {
+                    entries[i] = store.store(classFiles[i]);
+                }
+                // read back after all are stored, so the spill file entries are read from their own offsets
+                for (int i = 0; i < classFiles.length; i++) {
+                    assertArrayEquals(store.getClass().getName() + " entry " + i, classFiles[i], entries[i].get());
+                }
+            }
+        } finally {
+            spillFile.delete();
+        }
+    }
+
+    @Test
+    public void testTransformedClassIsOnlyKeptOnTheHeap() {
+        byte[] classFile = createClassFile(4, 1000);
+        ClassInfo classInfo = new ClassInfo();
+        classInfo.setTransformed(classFile);
+        assertTrue(classInfo.isTransformed());
+        assertSame(classFile, classInfo.getTransformed());
+
+        classInfo = new ClassInfo();
+        classInfo.setBytecodeStore(new BytecodeStore.CompressedStore());
+        classInfo.setOriginal(classFile);
+        classInfo.setTransformed(classFile);
+        assertTrue(classInfo.isTransformed());
+        assertNull(classInfo.getTransformed());
+        assertArrayEquals(classFile, classInfo.getOriginal());
+    }
+
+    /**
+     * @return bytes which, like a class file, are partly repetitive and so compress
+     */
+    private static byte[] createClassFile(long seed, int length) {
+        Random random = new Random(seed);
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = i % 4 == 0 ? (byte) random.nextInt() : (byte) "java/lang/Object".charAt(i % 16);
+        }
+        return result;
+    }
+}
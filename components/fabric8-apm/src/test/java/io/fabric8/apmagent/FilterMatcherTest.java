@@ -0,0 +1,123 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FilterMatcherTest {
+    private static final String[] FILTERS = {
+        "io.fabric8",
+        "com.acme.Service@handle",
+        "com.acme.Service@get.*",
+        "com/acme/Other",
+        "org\\.test\\..*Impl",
+        "org.test.*@run",
+        "a.b",
+        ".*Proxy@invoke",
+        "java.util.HashMap@put|get",
+        "net.example.Cache$Entry@access\\$000"
+    };
+    private static final String[] CLASS_NAMES = {
+        "io.fabric8.Foo", "io/fabric8/Foo", "io.fabric", "com.acme.Service", "com/acme/Service", "com.acme.ServiceImpl",
+        "com.acme.Other", "com.acme.Other$1", "org.test.FooImpl", "orgXtest.FooImpl", "org.test.Foo", "a.b", "aXb",
+        "aXbc", "a.bc", "java.util.HashMap", "com.sun.Proxy", "$Proxy12", "net.example.Cache$Entry", "Unrelated"
+    };
+    private static final String[] METHOD_NAMES = {
+        null, "", "handle", "handleAll", "get", "getFoo", "put", "invoke", "run", "access$000", "access$0000", "other"
+    };
+
+    @Test
+    public void testMatchesLikeFilterItems() {
+        List<FilterItem> items = createItems(FILTERS);
+        FilterMatcher matcher = new FilterMatcher(items);
+        // twice, as the second time the items matching each class come from the cache
+        for (int pass = 0; pass < 2; pass++) {
+            for (String className : CLASS_NAMES) {
+                for (String methodName : METHOD_NAMES) {
+                    for (boolean matchIfNoFilterMethod : new boolean[]{true, false}) {
+                        boolean expected = false;
+                        for (FilterItem item : items) {
+                            expected |= item.matches(className, methodName, matchIfNoFilterMethod);
+                        }
+                        assertEquals(className + "@" + methodName + " " + matchIfNoFilterMethod, expected,
+                            matcher.matches(className, methodName, matchIfNoFilterMethod));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesAllMethodsLikeClassOnlyFilterItems() {
+        List<FilterItem> items = createItems(FILTERS);
+        FilterMatcher matcher = new FilterMatcher(items);
+        for (String className : CLASS_NAMES) {
+            boolean expected = false;
+            for (FilterItem item : items) {
+                if (item.getMethodName() == null || item.getMethodName().isEmpty()) {
+                    expected |= item.matches(className);
+                }
+            }
+            assertEquals(className, expected, matcher.matchesAllMethods(className));
+        }
+        assertTrue(matcher.matchesAllMethods("io.fabric8.Foo"));
+        // only some of its methods are filtered
+        assertFalse(matcher.matchesAllMethods("com.acme.Service"));
+    }
+
+    @Test
+    public void testMatchesClassPatternLikeRegularExpressions() {
+        List<FilterItem> items = createItems(FILTERS);
+        FilterMatcher matcher = new FilterMatcher(items);
+        for (String className : CLASS_NAMES) {
+            boolean expected = false;
+            for (FilterItem item : items) {
+                expected |= className.matches(item.getClassName());
+            }
+            assertEquals(className, expected, matcher.matchesClassPattern(className));
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        FilterMatcher matcher = new FilterMatcher(new ArrayList<FilterItem>());
+        assertTrue(matcher.isEmpty());
+        assertFalse(matcher.matches("io.fabric8.Foo", "run", true));
+        assertFalse(matcher.matchesAllMethods("io.fabric8.Foo"));
+        assertFalse(matcher.matchesClassPattern("io.fabric8.Foo"));
+    }
+
+    private static List<FilterItem> createItems(String... filters) {
+        List<FilterItem> result = new ArrayList<>();
+        for (String filter : filters) {
+            FilterItem item = new FilterItem();
+            String[] classAndMethod = filter.split("@");
+            item.setClassName(classAndMethod[0]);
+            if (classAndMethod.length > 1) {
+                item.setMethodName(classAndMethod[1]);
+            }
+            result.add(item);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import io.fabric8.apmagent.ApmAgent;
+import io.fabric8.apmagent.ApmConfiguration;
+import io.fabric8.apmagent.ClassInfo;
+import io.fabric8.apmagent.MethodDescription;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ApmAgentContextTest {
+    // more than both the context's and the thread's initial lookup tables hold
+    private static final int METHOD_COUNT = 300;
+    private ApmAgentContext context;
+    private MethodDescription[] methods;
+    private ApmConfiguration configuration;
+    private boolean adaptiveSampling;
+    private long samplingCallRateThreshold;
+    private long overheadBudget;
+    private double overheadCeiling;
+
+    @Before
+    public void setUp() {
+        context = new ApmAgentContext(ApmAgent.INSTANCE);
+        configuration = context.getConfiguration();
+        adaptiveSampling = configuration.isAdaptiveSampling();
+        samplingCallRateThreshold = configuration.getSamplingCallRateThreshold();
+        overheadBudget = configuration.getOverheadBudget();
+        overheadCeiling = configuration.getOverheadCeiling();
+        context.initialize();
+        ClassInfo classInfo = new ClassInfo();
+        classInfo.setClassName("com.acme.Service");
+        methods = new MethodDescription[METHOD_COUNT];
+        for (int i = 0; i < METHOD_COUNT; i++) {
+            classInfo.addMethod("call" + i, "()V");
+            methods[i] = classInfo.getMethodDescription("call" + i + "()V");
+            assertEquals(i, context.getMethodId(methods[i]));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        context.shutDown();
+        configuration.setAdaptiveSampling(adaptiveSampling);
+        configuration.setSamplingCallRateThreshold(samplingCallRateThreshold);
+        configuration.setOverheadBudget(overheadBudget);
+        configuration.setOverheadCeiling(overheadCeiling);
+    }
+
+    @Test
+    public void testMethodIdsAcrossLookupTableGrowth() {
+        // nested, so the tables grow while calls are in progress
+        for (int i = 0; i < METHOD_COUNT; i++) {
+            context.enterMethod(i);
+        }
+        for (int i = METHOD_COUNT - 1; i >= 0; i--) {
+            context.exitMethod(i);
+        }
+        assertEquals("[]", context.getCurrentThreadMetrics().getMethodStack());
+        for (int i = 0; i < METHOD_COUNT; i++) {
+            context.enterMethod(i);
+            context.exitMethod(i);
+        }
+
+        Map<String, Long> counts = new HashMap<>();
+        for (MethodMetrics methodMetrics : context.getAllMethodMetrics()) {
+            counts.put(methodMetrics.getName(), methodMetrics.getCount());
+        }
+        Map<String, Long> threadCounts = new HashMap<>();
+        for (ThreadContextMethodMetrics methodMetrics : context.getCurrentThreadMetrics().getMethodMetrics()) {
+            threadCounts.put(methodMetrics.getName(), methodMetrics.getCount());
+        }
+        for (MethodDescription method : methods) {
+            assertEquals(method.getFullMethodName(), Long.valueOf(2), counts.get(method.getFullMethodName()));
+            assertEquals(method.getFullMethodName(), Long.valueOf(2), threadCounts.get(method.getFullMethodName()));
+        }
+    }
+
+    @Test
+    public void testMethodRemovedByAnotherThreadIsLookedUpAgain() throws Exception {
+        final ThreadMetrics threadMetrics = context.getCurrentThreadMetrics();
+        final String name = methods[METHOD_COUNT - 1].getFullMethodName();
+        context.enterMethod(METHOD_COUNT - 1);
+        context.exitMethod(METHOD_COUNT - 1);
+        final ThreadContextMethodMetrics[] removed = new ThreadContextMethodMetrics[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                removed[0] = threadMetrics.remove(name);
+            }
+        });
+        thread.start();
+        thread.join();
+        assertEquals(1, removed[0].getCount());
+
+        context.enterMethod(METHOD_COUNT - 1);
+        context.exitMethod(METHOD_COUNT - 1);
+        assertEquals(1, removed[0].getCount());
+        for (ThreadContextMethodMetrics methodMetrics : threadMetrics.getMethodMetrics()) {
+            if (methodMetrics.getName().equals(name)) {
+                assertNotSame(removed[0], methodMetrics);
+                assertEquals(1, methodMetrics.getCount());
+            }
+        }
+    }
+
+    @Test
+    public void testThreadMetricsReplacedAfterStop() {
+        context.start();
+        ThreadMetrics before = context.getCurrentThreadMetrics();
+        assertSame(before, context.getCurrentThreadMetrics());
+
+        context.stop();
+        context.start();
+        ThreadMetrics after = context.getCurrentThreadMetrics();
+        assertNotSame(before, after);
+        assertSame(after, context.getCurrentThreadMetrics());
+        assertTrue(context.getAllThreadMetrics().contains(after));
+    }
+
+    @Test
+    public void testSamplingRateIsAPowerOfTwo() {
+        assertEquals(1, ApmAgentContext.getSamplingRate(1000, 1000, 0, 100));
+        assertEquals(2, ApmAgentContext.getSamplingRate(1001, 1000, 0, 100));
+        assertEquals(2, ApmAgentContext.getSamplingRate(2000, 1000, 0, 100));
+        assertEquals(4, ApmAgentContext.getSamplingRate(3000, 1000, 0, 100));
+        assertEquals(8, ApmAgentContext.getSamplingRate(5000, 1000, 0, 100));
+        // the cost of timing a call has to fit in the budget too
+        assertEquals(16, ApmAgentContext.getSamplingRate(2000, 1000, 1000, 100));
+        assertEquals(1024, ApmAgentContext.getSamplingRate(Long.MAX_VALUE, 1000, 0, 100));
+        assertEquals(1024, ApmAgentContext.getSamplingRate(2000, 1000, Long.MAX_VALUE, 1));
+    }
+
+    @Test
+    public void testSampledCountsAreScaledUp() {
+        configuration.setAdaptiveSampling(true);
+        configuration.setSamplingCallRateThreshold(1);
+        configuration.setOverheadBudget(Long.MAX_VALUE);
+        configuration.setOverheadCeiling(0);
+        for (int i = 0; i < 1000; i++) {
+            context.enterMethod(0);
+            context.exitMethod(0);
+        }
+        context.doHouseKeeping();
+        MethodMetrics methodMetrics = null;
+        for (MethodMetrics m : context.getAllMethodMetrics()) {
+            if (m.getName().equals(methods[0].getFullMethodName())) {
+                methodMetrics = m;
+            }
+        }
+        int samplingRate = methodMetrics.getSamplingRate();
+        assertTrue(String.valueOf(samplingRate), samplingRate > 1 && samplingRate <= 1024);
+        assertEquals(0, samplingRate & (samplingRate - 1));
+
+        // a multiple of any sampling rate, so exactly 1 in every samplingRate calls is timed
+        long count = methodMetrics.getCount();
+        for (int i = 0; i < 2048; i++) {
+            context.enterMethod(0);
+            context.exitMethod(0);
+        }
+        assertEquals(count + 2048, methodMetrics.getCount());
+    }
+}
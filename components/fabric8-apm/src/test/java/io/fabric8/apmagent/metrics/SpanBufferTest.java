@@ -0,0 +1,104 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpanBufferTest {
+
+    @Test
+    public void testNestedCalls() {
+        SpanBuffer buffer = new SpanBuffer(null, 10);
+        buffer.begin(1, false);
+        buffer.enter("a");
+        buffer.enter("b");
+        assertFalse(buffer.exit("b"));
+        assertTrue(buffer.exit("a"));
+        assertFalse(buffer.isActive());
+        List<Trace.Span> spans = buffer.toTrace("main").getSpans();
+        assertEquals(2, spans.size());
+        assertTrue(spans.get(1).getDuration() >= 0);
+    }
+
+    @Test
+    public void testExceptionUnwindsCallsWithoutExits() {
+        SpanBuffer buffer = new SpanBuffer(null, 10);
+        buffer.begin(1, false);
+        buffer.enter("a");
+        buffer.enter("b");
+        buffer.enter("c");
+        assertFalse(buffer.exit("c"));
+        // an exception passed through b, which got no exit call
+        assertTrue(buffer.exit("a"));
+        assertFalse(buffer.isActive());
+        for (Trace.Span span : buffer.toTrace("main").getSpans()) {
+            assertTrue(span.getName(), span.getDuration() >= 0);
+        }
+
+        // the next trace on the thread starts from the outermost call again
+        buffer.begin(2, false);
+        buffer.enter("a");
+        assertTrue(buffer.exit("a"));
+    }
+
+    @Test
+    public void testExitWithoutEnterIsIgnored() {
+        SpanBuffer buffer = new SpanBuffer(null, 10);
+        buffer.begin(1, false);
+        buffer.enter("a");
+        assertFalse(buffer.exit("x"));
+        assertTrue(buffer.isActive());
+        assertTrue(buffer.exit("a"));
+    }
+
+    @Test
+    public void testCallsBeyondCapacity() {
+        SpanBuffer buffer = new SpanBuffer(null, 1);
+        buffer.begin(1, false);
+        buffer.enter("a");
+        buffer.enter("b");
+        buffer.enter("c");
+        assertFalse(buffer.exit("c"));
+        assertTrue(buffer.exit("a"));
+        assertEquals(2, buffer.toTrace("main").getDroppedCount());
+    }
+
+    @Test
+    public void testRecursiveCallsBeyondCapacity() {
+        SpanBuffer buffer = new SpanBuffer(null, 1);
+        buffer.begin(1, false);
+        buffer.enter("fib");
+        buffer.enter("fib");
+        buffer.enter("fib");
+        // the dropped calls only close their own levels, not the recorded outer call of the same name
+        assertFalse(buffer.exit("fib"));
+        assertFalse(buffer.exit("fib"));
+        assertTrue(buffer.isActive());
+        assertEquals(-1, buffer.toTrace("main").getSpans().get(0).getDuration());
+        assertTrue(buffer.exit("fib"));
+        assertFalse(buffer.isActive());
+        Trace trace = buffer.toTrace("main");
+        assertEquals(2, trace.getDroppedCount());
+        assertEquals(1, trace.getSpans().size());
+        assertTrue(trace.getSpans().get(0).getDuration() >= 0);
+    }
+}
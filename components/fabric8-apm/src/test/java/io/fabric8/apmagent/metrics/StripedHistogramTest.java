@@ -0,0 +1,119 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import org.junit.Test;
+
+import static io.fabric8.apmagent.metrics.StripedHistogram.BUCKET_COUNT;
+import static io.fabric8.apmagent.metrics.StripedHistogram.MAX_EXPONENT;
+import static io.fabric8.apmagent.metrics.StripedHistogram.SUB_BUCKET_COUNT;
+import static io.fabric8.apmagent.metrics.StripedHistogram.bucketIndex;
+import static io.fabric8.apmagent.metrics.StripedHistogram.bucketLowerBound;
+import static io.fabric8.apmagent.metrics.StripedHistogram.bucketWidth;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StripedHistogramTest {
+
+    @Test
+    public void testBucketRoundTrip() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long lower = bucketLowerBound(i);
+            long upper = lower + bucketWidth(i) - 1;
+            assertEquals("lower bound of " + i, i, bucketIndex(lower));
+            assertEquals("upper bound of " + i, i, bucketIndex(upper));
+            if (i > 0) {
+                assertEquals("bucket " + i + " follows on from the one before", bucketLowerBound(i - 1) + bucketWidth(i - 1), lower);
+            }
+        }
+    }
+
+    @Test
+    public void testBucketsAtPowersOfTwo() {
+        for (int n = 0; n <= MAX_EXPONENT; n++) {
+            long power = 1L << n;
+            for (long value : new long[]{power - 1, power, power + 1}) {
+                int index = bucketIndex(value);
+                long lower = bucketLowerBound(index);
+                assertTrue(value + " >= " + lower, value >= lower);
+                assertTrue(value + " < " + lower + " + " + bucketWidth(index), value < lower + bucketWidth(index));
+                assertTrue("relative error of " + value, (value - lower) * SUB_BUCKET_COUNT <= value);
+            }
+            assertEquals(power, bucketLowerBound(bucketIndex(power)));
+        }
+        // beyond the largest exponent everything is in the last bucket
+        assertEquals(BUCKET_COUNT - 1, bucketIndex(1L << (MAX_EXPONENT + 1)));
+        assertEquals(BUCKET_COUNT - 1, bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testQuantilesAtPowersOfTwo() {
+        StripedHistogram histogram = new StripedHistogram(1);
+        int count = 31;
+        for (int n = 0; n < count; n++) {
+            histogram.update(1L << n);
+        }
+        StripedHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(count, snapshot.size());
+        assertEquals((1L << count) - 1, snapshot.getSum());
+        assertEquals(1, snapshot.getMin());
+        assertEquals(1L << (count - 1), snapshot.getMax());
+        for (int rank = 1; rank <= count; rank++) {
+            double expected = 1L << (rank - 1);
+            double value = snapshot.getValue((double) rank / count);
+            assertTrue("rank " + rank + " was " + value, Math.abs(value - expected) <= expected / SUB_BUCKET_COUNT);
+        }
+        assertEquals(1L << (count - 1), snapshot.getValue(1.0), 0);
+        assertEquals(1, snapshot.getValue(0.0), 0);
+    }
+
+    @Test
+    public void testBackFillMatchesNaiveLoop() {
+        long[][] cases = {
+            {99, 50}, {100, 50}, {101, 50}, {1000, 7}, {1024, 1}, {65536, 1}, {65537, 3},
+            {(1L << 20) + 3, 4096}, {123456789, 1000003}, {(1L << 42) + 5, 1L << 37}
+        };
+        for (long[] c : cases) {
+            long value = c[0];
+            long interval = c[1];
+            StripedHistogram histogram = new StripedHistogram(1);
+            histogram.updateWithExpectedInterval(value, interval);
+            StripedHistogram naive = new StripedHistogram(1);
+            naive.update(value);
+            for (long missing = value - interval; missing >= interval; missing -= interval) {
+                naive.update(missing);
+            }
+            String name = value + " every " + interval;
+            StripedHistogram.Snapshot expected = naive.getSnapshot();
+            StripedHistogram.Snapshot actual = histogram.getSnapshot();
+            assertEquals(name, expected.size(), actual.size());
+            assertEquals(name, expected.getSum(), actual.getSum());
+            assertEquals(name, expected.getMin(), actual.getMin());
+            assertEquals(name, expected.getMax(), actual.getMax());
+            assertArrayEquals(expected.getBucketCounts(), actual.getBucketCounts());
+        }
+    }
+
+    @Test
+    public void testNegativeValuesAreIgnored() {
+        StripedHistogram histogram = new StripedHistogram(1);
+        histogram.update(-1);
+        histogram.updateWithExpectedInterval(-100, 10);
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getSnapshot().getValue(0.5), 0);
+    }
+}
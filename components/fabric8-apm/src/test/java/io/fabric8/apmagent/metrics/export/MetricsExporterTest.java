@@ -0,0 +1,130 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics.export;
+
+import io.fabric8.apmagent.ApmAgent;
+import io.fabric8.apmagent.metrics.ApmAgentContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsExporterTest {
+    private static final String METHOD = "com.acme.Service@run()V";
+    private ApmAgentContext context;
+    private final List<String> lines = new ArrayList<>();
+    private MetricsExporter exporter;
+
+    @Before
+    public void setUp() {
+        context = new ApmAgentContext(ApmAgent.INSTANCE);
+        context.initialize();
+        exporter = new MetricsExporter(context, new MetricsSink() {
+            @Override
+            public void write(byte[] data, int offset, int length) throws IOException {
+                for (String line : new String(data, offset, length, StandardCharsets.UTF_8).split("\n")) {
+                    lines.add(line);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+            }
+        }, 1000);
+    }
+
+    @After
+    public void tearDown() {
+        context.shutDown();
+    }
+
+    @Test
+    public void testExportsDeltas() {
+        call(3);
+        exporter.export();
+        assertMethodLine("apm_method,method=" + METHOD, 3);
+        assertMethodLine("apm_thread_method,thread=" + escape(Thread.currentThread().getName()) + ",method=" + METHOD, 3);
+
+        // nothing was called since the last export
+        lines.clear();
+        exporter.export();
+        assertEquals(lines.toString(), 0, getLines("apm_method,").size() + getLines("apm_thread_method,").size());
+
+        lines.clear();
+        call(2);
+        exporter.export();
+        assertMethodLine("apm_method,method=" + METHOD, 2);
+    }
+
+    @Test
+    public void testExportsGcPausesOfTheContextWindow() throws Exception {
+        long before = context.getGcPauses().getWindowEndTime();
+        Thread.sleep(5);
+        exporter.export();
+        long windowEnd = context.getGcPauses().getWindowEndTime();
+        assertTrue(windowEnd > before);
+        assertEquals(ManagementFactory.getGarbageCollectorMXBeans().size(), getLines("apm_gc,").size());
+        // the same counts as the context reports for the window the export ended
+        for (Map.Entry<String, Long> entry : context.getGcPauses().getCounts().entrySet()) {
+            String prefix = "apm_gc,collector=" + escape(entry.getKey()) + " count=" + entry.getValue() + "i,";
+            assertEquals(lines.toString(), 1, getLines(prefix).size());
+        }
+    }
+
+    private void call(int count) {
+        for (int i = 0; i < count; i++) {
+            context.enterMethod(Thread.currentThread(), METHOD, false);
+            context.exitMethod(Thread.currentThread(), METHOD, false);
+        }
+    }
+
+    private void assertMethodLine(String prefix, int count) {
+        List<String> found = getLines(prefix + " ");
+        assertEquals(lines.toString(), 1, found.size());
+        String line = found.get(0);
+        assertTrue(line, line.contains(" count=" + count + "i,timed=" + count + "i,"));
+        // the bucket deltas add up to the calls timed since the last export
+        String buckets = line.substring(line.indexOf("buckets=\"") + "buckets=\"".length(), line.lastIndexOf('"'));
+        long total = 0;
+        for (String bucket : buckets.split(" ")) {
+            total += Long.parseLong(bucket.substring(bucket.indexOf(':') + 1));
+        }
+        assertEquals(line, count, total);
+    }
+
+    private List<String> getLines(String prefix) {
+        List<String> result = new ArrayList<>();
+        for (String line : lines) {
+            if (line.startsWith(prefix)) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    private static String escape(String tag) {
+        return tag.replace("\\", "\\\\").replace(",", "\\,").replace(" ", "\\ ").replace("=", "\\=");
+    }
+}
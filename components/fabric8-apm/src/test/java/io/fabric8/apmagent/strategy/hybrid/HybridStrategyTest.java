@@ -0,0 +1,145 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.hybrid;
+
+import io.fabric8.apmagent.ApmAgent;
+import io.fabric8.apmagent.ApmConfiguration;
+import io.fabric8.apmagent.metrics.ApmAgentContext;
+import io.fabric8.apmagent.strategy.trace.TraceStrategy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class HybridStrategyTest {
+    private static final long WINDOW = 1000;
+    private ApmConfiguration configuration;
+    private int hotMethodCount;
+    private long hotMethodWindow;
+    private final List<Set<String>> hotMethods = new ArrayList<>();
+    private HybridStrategy strategy;
+    private long time = WINDOW;
+
+    @Before
+    public void setUp() {
+        ApmAgentContext context = new ApmAgentContext(ApmAgent.INSTANCE);
+        configuration = context.getConfiguration();
+        hotMethodCount = configuration.getHotMethodCount();
+        hotMethodWindow = configuration.getHotMethodWindow();
+        configuration.setHotMethodCount(2);
+        configuration.setHotMethodWindow(WINDOW);
+        strategy = new HybridStrategy(context, new TraceStrategy(context, null) {
+            @Override
+            public void setHotMethods(Set<String> methods) {
+                hotMethods.add(new HashSet<>(methods));
+                super.setHotMethods(methods);
+            }
+        });
+        // the first window starts with the first sample
+        strategy.samplingFinished(time);
+    }
+
+    @After
+    public void tearDown() {
+        configuration.setHotMethodCount(hotMethodCount);
+        configuration.setHotMethodWindow(hotMethodWindow);
+    }
+
+    @Test
+    public void testHotMethodsCoolDown() {
+        window("a", 3, "b", 2, "c", 1);
+        assertEquals(Arrays.asList(methods("a", "b")), hotMethods);
+
+        // b drops out of the hottest methods, but is kept until it has been cold for the cool down windows
+        window("c", 3, "a", 2, "b", 1);
+        assertEquals(Arrays.asList(methods("a", "b"), methods("a", "b", "c")), hotMethods);
+        window("c", 3, "a", 2, "b", 1);
+        assertEquals(2, hotMethods.size());
+        assertEquals(methods("a", "b", "c"), strategy.getHotMethods());
+
+        window("c", 3, "a", 2);
+        assertEquals(Arrays.asList(methods("a", "b"), methods("a", "b", "c"), methods("a", "c")), hotMethods);
+        assertEquals(methods("a", "c"), strategy.getHotMethods());
+
+        // a method that is hot again is kept from cooling down
+        window("c", 3, "b", 2, "a", 1);
+        window("a", 3, "b", 2);
+        window("a", 3, "b", 2);
+        assertEquals(methods("a", "b", "c"), strategy.getHotMethods());
+        window("a", 3, "b", 2);
+        assertEquals(methods("a", "b"), strategy.getHotMethods());
+    }
+
+    @Test
+    public void testSamplesCountedAgainstFirstAuditedFrame() {
+        for (int i = 0; i < 3; i++) {
+            // the JDK's own frames are black listed
+            strategy.sampled(new StackTraceElement[]{
+                new StackTraceElement("java.lang.Object", "wait", null, -1),
+                new StackTraceElement("com.acme.Service", "a", null, -1),
+                new StackTraceElement("com.acme.Service", "run", null, -1)
+            });
+        }
+        strategy.sampled(stack("b"));
+        time += WINDOW;
+        strategy.samplingFinished(time);
+        assertEquals(Collections.singletonList(methods("a", "b")), hotMethods);
+    }
+
+    @Test
+    public void testNothingChangesBeforeTheWindowEnds() {
+        strategy.sampled(stack("a"));
+        strategy.samplingFinished(time + WINDOW - 1);
+        assertEquals(0, hotMethods.size());
+        assertEquals(Collections.<String>emptySet(), strategy.getHotMethods());
+    }
+
+    /**
+     * Samples each method the given number of times, then ends the window
+     */
+    private void window(Object... methodsAndCounts) {
+        for (int i = 0; i < methodsAndCounts.length; i += 2) {
+            for (int j = 0; j < (Integer) methodsAndCounts[i + 1]; j++) {
+                strategy.sampled(stack((String) methodsAndCounts[i]));
+            }
+        }
+        time += WINDOW;
+        strategy.samplingFinished(time);
+    }
+
+    private static StackTraceElement[] stack(String method) {
+        return new StackTraceElement[]{
+            new StackTraceElement("com.acme.Service", method, null, -1),
+            new StackTraceElement("com.acme.Service", "run", null, -1)
+        };
+    }
+
+    private static Set<String> methods(String... methods) {
+        Set<String> result = new HashSet<>();
+        for (String method : methods) {
+            result.add("com.acme.Service." + method);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.sampling;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CallTreeTest {
+
+    @Test
+    public void testFoldedStacks() throws Exception {
+        CallTree tree = new CallTree(100);
+        tree.addSample(stack("a.A.run", "b.B.call"));
+        tree.addSample(stack("a.A.run", "b.B.call"));
+        tree.addSample(stack("a.A.run"));
+        StringWriter writer = new StringWriter();
+        tree.writeFoldedStacks(writer);
+        assertEquals("a.A.run 1\na.A.run;b.B.call 2\n", writer.toString());
+        assertEquals(3, tree.getSampleCount());
+    }
+
+    @Test
+    public void testFramesAreBoundedByTheTree() throws Exception {
+        CallTree tree = new CallTree(4);
+        for (int i = 0; i < 1000; i++) {
+            // a new line of the same method each sample, and a new method once the tree is full
+            tree.addSample(new StackTraceElement[]{
+                new StackTraceElement("b.B", "call" + i, "B.java", i),
+                new StackTraceElement("a.A", "run", "A.java", i)
+            });
+        }
+        assertTrue("frames " + tree.getFrameCount(), tree.getFrameCount() <= 4);
+        StringWriter writer = new StringWriter();
+        tree.writeFoldedStacks(writer);
+        assertTrue(writer.toString(), writer.toString().startsWith("a.A.run 997\n"));
+        assertEquals(1000, tree.getSampleCount());
+    }
+
+    @Test
+    public void testTruncatedStacksAreRootedAtSyntheticFrame() throws Exception {
+        CallTree tree = new CallTree(100);
+        tree.addSample(stack("a.A.run", "b.B.call"));
+        tree.addSample(stack("b.B.call", "c.C.get"), true);
+        tree.addSample(stack("b.B.call", "c.C.get"), true);
+        StringWriter writer = new StringWriter();
+        tree.writeFoldedStacks(writer);
+        assertEquals("a.A.run;b.B.call 1\n" + CallTree.TRUNCATED_FRAME + ";b.B.call;c.C.get 2\n", writer.toString());
+    }
+
+    private static StackTraceElement[] stack(String... frames) {
+        StackTraceElement[] result = new StackTraceElement[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            int separator = frames[i].lastIndexOf('.');
+            result[frames.length - 1 - i] = new StackTraceElement(frames[i].substring(0, separator), frames[i].substring(separator + 1), null, -1);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.sampling;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MonitorTableTest {
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final List<Thread> threads = new ArrayList<>();
+
+    @After
+    public void tearDown() throws Exception {
+        for (Thread thread : threads) {
+            thread.interrupt();
+            thread.join(10000);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testLeastContendedMonitorIsEvicted() throws Exception {
+        Object hot = new Object();
+        Object warm = new Object();
+        Object cold = new Object();
+        Object next = new Object();
+        ThreadInfo blocked;
+        synchronized (hot) {
+            blocked = sample(startBlocked(hot), Thread.State.BLOCKED);
+        }
+        ThreadInfo waitingOnWarm = sample(startWaiting(warm), Thread.State.WAITING);
+        ThreadInfo waitingOnCold = sample(startWaiting(cold), Thread.State.WAITING);
+        ThreadInfo waitingOnNext = sample(startWaiting(next), Thread.State.WAITING);
+
+        MonitorTable table = new MonitorTable(3);
+        table.addSample(blocked);
+        for (int i = 0; i < 5; i++) {
+            table.addSample(waitingOnWarm);
+        }
+        table.addSample(waitingOnCold);
+        table.addSample(waitingOnCold);
+        assertEquals(0, table.getEvictedCount());
+
+        table.addSample(waitingOnNext);
+        assertEquals(1, table.getEvictedCount());
+        List<String> hottest = table.getHottestMonitors(10);
+        assertEquals(hottest.toString(), 3, hottest.size());
+        // blocked samples rank above any number of waiting ones
+        assertTrue(hottest.get(0), hottest.get(0).startsWith(name(blocked) + ": blocked 1 samples"));
+        assertTrue(hottest.get(1), hottest.get(1).startsWith(name(waitingOnWarm) + ": blocked 0 samples, waiting 5 samples"));
+        assertTrue(hottest.get(2), hottest.get(2).startsWith(name(waitingOnNext) + ": blocked 0 samples, waiting 1 samples"));
+        assertTrue(hottest.get(0), hottest.get(0).contains("owned by {" + Thread.currentThread().getName() + "=1}"));
+
+        table.clear();
+        assertEquals(0, table.getEvictedCount());
+        assertEquals(0, table.getHottestMonitors(10).size());
+    }
+
+    @Test(timeout = 30000)
+    public void testRunnableThreadsAreIgnored() throws Exception {
+        MonitorTable table = new MonitorTable(3);
+        table.addSample(threadMXBean.getThreadInfo(Thread.currentThread().getId(), 1));
+        assertEquals(0, table.getHottestMonitors(10).size());
+    }
+
+    private Thread startBlocked(final Object lock) {
+        return start(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    lock.notifyAll();
+                }
+            }
+        });
+    }
+
+    private Thread startWaiting(final Object lock) {
+        return start(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        // the test is over
+                    }
+                }
+            }
+        });
+    }
+
+    private Thread start(Runnable runnable) {
+        Thread thread = new Thread(runnable, "MonitorTableTest-" + threads.size());
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+        return thread;
+    }
+
+    private ThreadInfo sample(Thread thread, Thread.State state) throws InterruptedException {
+        while (true) {
+            ThreadInfo threadInfo = threadMXBean.getThreadInfo(thread.getId(), 8);
+            if (threadInfo != null && threadInfo.getThreadState() == state && threadInfo.getLockInfo() != null) {
+                return threadInfo;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static String name(ThreadInfo threadInfo) {
+        return threadInfo.getLockInfo().getClassName() + "@" + Integer.toHexString(threadInfo.getLockInfo().getIdentityHashCode());
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.trace;
+
+import io.fabric8.apmagent.ApmAgent;
+import io.fabric8.apmagent.ApmConfiguration;
+import io.fabric8.apmagent.ClassInfo;
+import io.fabric8.apmagent.metrics.ApmAgentContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.RemappingClassAdapter;
+import org.objectweb.asm.commons.SimpleRemapper;
+import org.objectweb.asm.util.CheckClassAdapter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ApmTimingMethodVisitorTest {
+    private static final String FIXTURE = Fixture.class.getName();
+    // the agent's own classes are black listed, so the fixture is instrumented as if it were an application class
+    private static final String CLASS_NAME = "com.acme.Service";
+    private ApmConfiguration configuration;
+    private String slowCallArgumentMethods;
+    private int slowCallArgumentCount;
+    private String traceEntryPoints;
+    private String resourceTimingMethods;
+
+    @Before
+    public void setUp() {
+        configuration = ApmAgent.INSTANCE.getConfiguration();
+        slowCallArgumentMethods = configuration.getSlowCallArgumentMethods();
+        slowCallArgumentCount = configuration.getSlowCallArgumentCount();
+        traceEntryPoints = configuration.getTraceEntryPoints();
+        resourceTimingMethods = configuration.getResourceTimingMethods();
+        configuration.setLocalVariableTiming(true);
+        Recorder.enters = 0;
+        Recorder.exits.clear();
+    }
+
+    @After
+    public void tearDown() {
+        configuration.setLocalVariableTiming(false);
+        configuration.setSlowCallArgumentMethods(slowCallArgumentMethods);
+        configuration.setSlowCallArgumentCount(slowCallArgumentCount);
+        configuration.setTraceEntryPoints(traceEntryPoints);
+        configuration.setResourceTimingMethods(resourceTimingMethods);
+    }
+
+    @Test
+    public void testExitRecordedOnceWhenCalleeThrows() throws Exception {
+        Class<?> fixture = instrument();
+        Method run = fixture.getMethod("run", int.class, long.class, double.class, String.class);
+
+        assertEquals(6L, run.invoke(null, 1, 2L, 3.0, null));
+        assertEquals(1, Recorder.exits.size());
+        assertNull(Recorder.exits.get(0));
+
+        Recorder.exits.clear();
+        try {
+            run.invoke(null, 1, 2L, 3.0, "failed");
+            fail("Expected the callee's exception");
+        } catch (InvocationTargetException e) {
+            assertEquals("failed", e.getCause().getMessage());
+        }
+        assertEquals(1, Recorder.exits.size());
+    }
+
+    @Test
+    public void testOwnHandlerTakesPrecedence() throws Exception {
+        Class<?> fixture = instrument();
+        Method recover = fixture.getMethod("recover", String.class);
+
+        assertEquals(-1L, recover.invoke(null, "failed"));
+        assertEquals(1, Recorder.exits.size());
+    }
+
+    @Test
+    public void testLongAndDoubleArgumentsCapturedWhenCalleeThrows() throws Exception {
+        configuration.setSlowCallArgumentMethods(CLASS_NAME);
+        configuration.setSlowCallArgumentCount(4);
+        Class<?> fixture = instrument();
+        Method run = fixture.getMethod("run", int.class, long.class, double.class, String.class);
+
+        assertEquals(6L, run.invoke(null, 1, 2L, 3.0, null));
+        assertEquals(1, Recorder.exits.size());
+        assertArrayEquals(new Object[]{1, 2L, 3.0, null}, Recorder.exits.get(0));
+
+        Recorder.exits.clear();
+        try {
+            run.invoke(null, 1, Long.MAX_VALUE, -0.5, "failed");
+            fail("Expected the callee's exception");
+        } catch (InvocationTargetException e) {
+            assertEquals("failed", e.getCause().getMessage());
+        }
+        assertEquals(1, Recorder.exits.size());
+        assertArrayEquals(new Object[]{1, Long.MAX_VALUE, -0.5, "failed"}, Recorder.exits.get(0));
+    }
+
+    @Test
+    public void testMethodsAreEnteredWhileTracing() throws Exception {
+        configuration.setTraceEntryPoints(CLASS_NAME + "@run");
+        Class<?> fixture = instrument();
+        Method recover = fixture.getMethod("recover", String.class);
+
+        // not just the entry points - every call in a trace has to be entered to be recorded
+        assertEquals(0L, recover.invoke(null, (Object) null));
+        assertEquals(1, Recorder.enters);
+        assertEquals(1, Recorder.exits.size());
+    }
+
+    @Test
+    public void testResourceTimingMethodsAreEntered() throws Exception {
+        configuration.setResourceTimingMethods(CLASS_NAME + "@recover");
+        Class<?> fixture = instrument();
+
+        assertEquals(-1L, fixture.getMethod("recover", String.class).invoke(null, "failed"));
+        assertEquals(1, Recorder.enters);
+        assertEquals(1, Recorder.exits.size());
+
+        // the other methods still keep their start time in a local variable
+        assertEquals(6L, fixture.getMethod("run", int.class, long.class, double.class, String.class).invoke(null, 1, 2L, 3.0, null));
+        assertEquals(1, Recorder.enters);
+        assertEquals(2, Recorder.exits.size());
+    }
+
+    /**
+     * Instruments the fixture, checking every call the visitor makes as well as the resulting class, and loads
+     * it with the agent's calls redirected to the {@link Recorder}
+     */
+    private Class<?> instrument() throws Exception {
+        ClassInfo classInfo = new ClassInfo();
+        classInfo.setClassName(CLASS_NAME);
+        TraceStrategy traceStrategy = new TraceStrategy(new ApmAgentContext(ApmAgent.INSTANCE), null);
+
+        ClassReader cr = new ClassReader(readClass(FIXTURE));
+        ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        RemappingClassAdapter remapper = new RemappingClassAdapter(cw,
+            new SimpleRemapper(ApmAgent.class.getName().replace('.', '/'), Recorder.class.getName().replace('.', '/')));
+        ApmClassVisitor visitor = new ApmClassVisitor(traceStrategy, new CheckClassAdapter(remapper, false), classInfo);
+        cr.accept(visitor, ClassReader.SKIP_FRAMES);
+        assertEquals(new HashSet<>(Arrays.asList("recover", "run")), classInfo.getAllTransformedMethodNames());
+
+        final byte[] buffer = cw.toByteArray();
+        StringWriter errors = new StringWriter();
+        CheckClassAdapter.verify(new ClassReader(buffer), getClass().getClassLoader(), false, new PrintWriter(errors));
+        assertTrue(errors.toString(), errors.toString().isEmpty());
+
+        return new ClassLoader(getClass().getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                if (name.equals(FIXTURE)) {
+                    return defineClass(name, buffer, 0, buffer.length);
+                }
+                return super.loadClass(name, resolve);
+            }
+        }.loadClass(FIXTURE);
+    }
+
+    private static byte[] readClass(String className) throws Exception {
+        try (InputStream in = ApmTimingMethodVisitorTest.class.getResourceAsStream("/" + className.replace('.', '/') + ".class")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    public static void check(String message) {
+        if (message != null) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    public static class Fixture {
+        public static long run(int count, long start, double scale, String message) {
+            check(message);
+            return count + start + (long) scale;
+        }
+
+        public static long recover(String message) {
+            try {
+                check(message);
+                return 0;
+            } catch (IllegalStateException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Stands in for the agent in the instrumented fixture
+     */
+    public static class Recorder {
+        static final List<Object[]> exits = new ArrayList<>();
+        static int enters;
+
+        public static void enterMethod(int methodId) {
+            enters++;
+        }
+
+        public static void exitMethod(int methodId) {
+            exits.add(null);
+        }
+
+        public static void exitMethod(int methodId, long startTime) {
+            exits.add(null);
+        }
+
+        public static void exitMethod(int methodId, long startTime, Object[] arguments) {
+            exits.add(arguments);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.trace;
+
+import io.fabric8.apmagent.ApmAgent;
+import io.fabric8.apmagent.ApmConfiguration;
+import io.fabric8.apmagent.metrics.ApmAgentContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraceStrategyTest {
+    // loaded classes the default configuration audits
+    private static final Class<?>[] CLASSES = {JUnitCore.class, Result.class, Description.class, Request.class, Assert.class};
+    private ApmConfiguration configuration;
+    private int transformBatchSize;
+    private int transformThreads;
+    private boolean asyncTransformation;
+    private final List<List<Class<?>>> batches = Collections.synchronizedList(new ArrayList<List<Class<?>>>());
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private TraceStrategy strategy;
+
+    @Before
+    public void setUp() {
+        ApmAgentContext context = new ApmAgentContext(ApmAgent.INSTANCE);
+        configuration = context.getConfiguration();
+        transformBatchSize = configuration.getTransformBatchSize();
+        transformThreads = configuration.getTransformThreads();
+        asyncTransformation = configuration.isAsyncTransformation();
+        configuration.setTransformBatchSize(2);
+        // one worker, so the batches are retransformed in order
+        configuration.setTransformThreads(1);
+        strategy = new TraceStrategy(context, instrumentation());
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        strategy.shutDown();
+        configuration.setTransformBatchSize(transformBatchSize);
+        configuration.setTransformThreads(transformThreads);
+        configuration.setAsyncTransformation(asyncTransformation);
+    }
+
+    @Test
+    public void testFailedBatchRetriedOneClassAtATime() throws Exception {
+        strategy.start();
+
+        List<List<Class<?>>> expected = new ArrayList<>();
+        expected.add(Arrays.<Class<?>>asList(JUnitCore.class, Result.class));
+        expected.add(Arrays.<Class<?>>asList(Description.class, Request.class));
+        expected.add(Collections.<Class<?>>singletonList(Description.class));
+        expected.add(Collections.<Class<?>>singletonList(Request.class));
+        expected.add(Collections.<Class<?>>singletonList(Assert.class));
+        assertEquals(expected, batches);
+        assertEquals(4, strategy.getTransformedClassCount());
+        assertEquals(1, strategy.getFailedClassCount());
+        assertEquals(0, strategy.getPendingClassCount());
+    }
+
+    @Test
+    public void testPendingClassesCountedUntilRetransformed() throws Exception {
+        configuration.setAsyncTransformation(true);
+        release = new CountDownLatch(1);
+        strategy.start();
+
+        // the first batch is still being retransformed, so none have been yet
+        assertEquals(CLASSES.length, strategy.getPendingClassCount());
+        assertEquals(0, strategy.getTransformedClassCount());
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (strategy.getPendingClassCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, strategy.getPendingClassCount());
+        assertEquals(4, strategy.getTransformedClassCount());
+        assertEquals(1, strategy.getFailedClassCount());
+        assertTrue(strategy.getLastTransformTime() >= 0);
+    }
+
+    /**
+     * @return an instrumentation which fails to retransform {@link Description}, and blocks each
+     * retransformation until released
+     */
+    private Instrumentation instrumentation() {
+        return (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Instrumentation.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "isRetransformClassesSupported":
+                    case "isModifiableClass":
+                        return true;
+                    case "getAllLoadedClasses":
+                        return CLASSES.clone();
+                    case "retransformClasses":
+                        release.await();
+                        List<Class<?>> batch = Arrays.asList((Class<?>[]) args[0]);
+                        batches.add(batch);
+                        if (batch.contains(Description.class)) {
+                            throw new UnmodifiableClassException(Description.class.getName());
+                        }
+                        return null;
+                    default:
+                        return method.getReturnType() == boolean.class ? false : null;
+                }
+            }
+        });
+    }
+}
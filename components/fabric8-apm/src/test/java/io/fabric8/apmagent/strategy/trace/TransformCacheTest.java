@@ -0,0 +1,130 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.trace;
+
+import io.fabric8.apmagent.ClassInfo;
+import io.fabric8.apmagent.MethodDescription;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TransformCacheTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("transform-cache").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testKeyDependsOnClassAndFingerprint() {
+        TransformCache cache = new TransformCache(directory, 1024 * 1024);
+        byte[] original = {1, 2, 3};
+        String key = cache.getKey(original, "a");
+        assertEquals(key, cache.getKey(original.clone(), "a"));
+        assertFalse(key.equals(cache.getKey(original, "b")));
+        assertFalse(key.equals(cache.getKey(new byte[]{1, 2, 4}, "a")));
+    }
+
+    @Test
+    public void testGetReturnsTransformedClassAndMethods() {
+        TransformCache cache = new TransformCache(directory, 1024 * 1024);
+        String key = cache.getKey(new byte[]{1}, "fingerprint");
+        assertNull(cache.get(key, createClassInfo()));
+
+        ClassInfo transformedInfo = createClassInfo();
+        List<MethodDescription> methods = Arrays.asList(
+            transformedInfo.getMethodDescription("run()V"), transformedInfo.getMethodDescription("call(I)I"));
+        byte[] transformed = {9, 8, 7, 6};
+        cache.put(key, transformed, methods, Collections.singleton("call(I)I"));
+
+        ClassInfo classInfo = new ClassInfo();
+        classInfo.setClassName("com/acme/Service");
+        assertArrayEquals(transformed, cache.get(key, classInfo));
+        assertEquals(new HashSet<>(Arrays.asList("run", "call")), classInfo.getAllMethodNames());
+        assertEquals(Collections.singleton("call"), classInfo.getAllTransformedMethodNames());
+
+        // entries written by an earlier run are found again
+        assertArrayEquals(transformed, new TransformCache(directory, 1024 * 1024).get(key, createClassInfo()));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() {
+        byte[] transformed = new byte[1000];
+        TransformCache cache = new TransformCache(directory, 2500);
+        String first = cache.getKey(new byte[]{1}, "");
+        String second = cache.getKey(new byte[]{2}, "");
+        String third = cache.getKey(new byte[]{3}, "");
+        List<MethodDescription> noMethods = Collections.emptyList();
+        cache.put(first, transformed, noMethods, Collections.<String>emptySet());
+        cache.put(second, transformed, noMethods, Collections.<String>emptySet());
+        assertNotNull(cache.get(first, createClassInfo()));
+        cache.put(third, transformed, noMethods, Collections.<String>emptySet());
+
+        assertNotNull(cache.get(first, createClassInfo()));
+        assertNull(cache.get(second, createClassInfo()));
+        assertNotNull(cache.get(third, createClassInfo()));
+        assertEquals(2, directory.listFiles().length);
+    }
+
+    @Test
+    public void testCorruptEntryIsRemoved() throws Exception {
+        TransformCache cache = new TransformCache(directory, 1024 * 1024);
+        String key = cache.getKey(new byte[]{1}, "");
+        List<MethodDescription> noMethods = Collections.emptyList();
+        cache.put(key, new byte[100], noMethods, Collections.<String>emptySet());
+        File file = directory.listFiles()[0];
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[]{0, 0, 0, 1, 0});
+        }
+        assertNull(cache.get(key, createClassInfo()));
+        assertFalse(file.exists());
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    private static ClassInfo createClassInfo() {
+        ClassInfo classInfo = new ClassInfo();
+        classInfo.setClassName("com/acme/Service");
+        classInfo.addMethod("run", "()V");
+        classInfo.addMethod("call", "(I)I");
+        return classInfo;
+    }
+}
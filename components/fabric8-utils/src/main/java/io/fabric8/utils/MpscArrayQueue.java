@@ -0,0 +1,152 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.utils;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * An unbounded queue for many producers and a single consumer, made of linked fixed size arrays.
+ * <p/>
+ * Producers claim a slot in the last array with a single atomic increment, and only link a new array
+ * when it is full - so there is no node allocated per element, unlike a ConcurrentLinkedQueue.
+ * Only one thread at a time may call {@link #poll()}.
+ */
+public class MpscArrayQueue<E> {
+
+    private static final int DEFAULT_CHUNK_SIZE = 128;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<MpscArrayQueue, Chunk> TAIL =
+            AtomicReferenceFieldUpdater.newUpdater(MpscArrayQueue.class, Chunk.class, "tail");
+
+    private final int chunkSize;
+    private volatile Chunk<E> tail;
+    // only used by the consumer
+    private Chunk<E> head;
+    private int headIndex;
+
+    public MpscArrayQueue() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public MpscArrayQueue(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.head = new Chunk<E>(chunkSize);
+        this.tail = head;
+    }
+
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        while (true) {
+            Chunk<E> chunk = tail;
+            int index = chunk.claim();
+            if (index < chunkSize) {
+                chunk.elements.set(index, element);
+                return true;
+            }
+            //the chunk is full - link a new one, or help the producer that did to move the tail on
+            Chunk<E> next = chunk.next;
+            if (next == null) {
+                Chunk<E> newChunk = new Chunk<E>(chunkSize);
+                next = chunk.casNext(newChunk) ? newChunk : chunk.next;
+            }
+            TAIL.compareAndSet(this, chunk, next);
+        }
+    }
+
+    /**
+     * Must only be called by the single consumer
+     *
+     * @return the element at the head of the queue, or null if the queue is empty
+     */
+    public E poll() {
+        Chunk<E> chunk = head;
+        int index = headIndex;
+        if (index == chunkSize) {
+            Chunk<E> next = chunk.next;
+            if (next == null) {
+                return null;
+            }
+            //the old chunk is only reachable from the tail until a producer moves it on
+            head = chunk = next;
+            headIndex = index = 0;
+        }
+        E result = chunk.elements.get(index);
+        if (result == null) {
+            if (chunk.claimed <= index) {
+                return null;
+            }
+            //a producer has claimed the slot, but not yet stored its element
+            while ((result = chunk.elements.get(index)) == null) {
+                Thread.yield();
+            }
+        }
+        chunk.elements.lazySet(index, null);
+        headIndex = index + 1;
+        return result;
+    }
+
+    /**
+     * Must only be called by the single consumer
+     */
+    public boolean isEmpty() {
+        Chunk<E> chunk = head;
+        int index = headIndex;
+        if (index == chunkSize) {
+            chunk = chunk.next;
+            if (chunk == null) {
+                return true;
+            }
+            index = 0;
+        }
+        return chunk.claimed <= index;
+    }
+
+    private static final class Chunk<E> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<Chunk> CLAIMED = AtomicIntegerFieldUpdater.newUpdater(Chunk.class, "claimed");
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Chunk, Chunk> NEXT = AtomicReferenceFieldUpdater.newUpdater(Chunk.class, Chunk.class, "next");
+
+        final AtomicReferenceArray<E> elements;
+        volatile int claimed;
+        volatile Chunk<E> next;
+
+        Chunk(int size) {
+            elements = new AtomicReferenceArray<E>(size);
+        }
+
+        int claim() {
+            //once a chunk is full, stop counting so the count can't overflow
+            int index = claimed;
+            if (index >= elements.length()) {
+                return index;
+            }
+            return CLAIMED.getAndIncrement(this);
+        }
+
+        boolean casNext(Chunk<E> chunk) {
+            return NEXT.compareAndSet(this, null, chunk);
+        }
+    }
+}
@@ -0,0 +1,623 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip file of directories, deflating the files in parallel on a fork/join pool and then writing the
+ * compressed entries to the zip file one after another.
+ * <p/>
+ * Files which are already compressed, such as jars and images, are stored rather than deflated - as are files
+ * which get no smaller when deflated. Files larger than {@link #MAX_BUFFERED_FILE_SIZE} are deflated as they are
+ * written rather than up front, and only a limited number of bytes are compressed ahead of the writer, so the memory
+ * used stays bounded however large the directories are.
+ * <p/>
+ * The entries are written by {@link #finish()}, or {@link #close()}. When reproducible, the entries are sorted by
+ * name and all given the same timestamp, so zipping the same files always gives the same zip file.
+ */
+public class ParallelZipWriter implements Closeable {
+    public static final Set<String> STORED_EXTENSIONS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "jar", "war", "ear", "zip", "kar", "gz", "tgz", "bz2", "xz", "7z", "png", "jpg", "jpeg", "gif")));
+
+    public static final int MAX_BUFFERED_FILE_SIZE = 4 * 1024 * 1024;
+
+    private static final long MAX_IN_FLIGHT_BYTES = 64L * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    // large files are deflated as they are written - these may deflate to more than the limit, so get zip64 sizes
+    private static final long ZIP64_STREAMED_LIMIT = ZIP64_LIMIT - (ZIP64_LIMIT >> 8);
+    private static final int MAX_ENTRIES = 0xFFFF;
+    private static final int MAX_NAME_LENGTH = 0xFFFF;
+    // names are always encoded as UTF-8
+    private static final int FLAG_UTF8 = 0x800;
+    // the earliest time a zip entry can have, 1980-01-01 00:00:00, as a DOS date and time
+    private static final int REPRODUCIBLE_DOS_TIME = (1 << 21) | (1 << 16);
+
+    private final File outputFile;
+    private final boolean reproducible;
+    private final ForkJoinPool pool;
+    private final List<Entry> entries = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private final ArrayBlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(32);
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer header = ByteBuffer.allocate(MAX_NAME_LENGTH + 128).order(ByteOrder.LITTLE_ENDIAN);
+    private FileChannel channel;
+    private long position;
+    private boolean finished;
+
+    public ParallelZipWriter(File outputFile) {
+        this(outputFile, false);
+    }
+
+    public ParallelZipWriter(File outputFile, boolean reproducible) {
+        this(outputFile, reproducible, ForkJoinPool.commonPool());
+    }
+
+    public ParallelZipWriter(File outputFile, boolean reproducible, ForkJoinPool pool) {
+        this.outputFile = outputFile;
+        this.reproducible = reproducible;
+        this.pool = pool;
+    }
+
+    /**
+     * Adds the files in the directory recursively, given the starting path in the zip and optional filter.
+     * Directories which the filter does not accept are skipped along with everything in them.
+     *
+     * @return the names of the entries added
+     */
+    public List<String> addDirectory(File directory, final String path, final FileFilter filter) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("The zip file " + outputFile + " has already been written");
+        }
+        final List<String> answer = new ArrayList<>();
+        final Path root = directory.toPath();
+        if (!directory.isDirectory()) {
+            return answer;
+        }
+        java.nio.file.Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (dir.equals(root)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                if (filter != null && !filter.accept(dir.toFile())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                answer.add(addEntry(getName(path, root, dir) + "/", null, 0, attrs));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (filter == null || filter.accept(file.toFile())) {
+                    answer.add(addEntry(getName(path, root, file), file, attrs.size(), attrs));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return answer;
+    }
+
+    /**
+     * Compresses and writes the entries, then the central directory of the zip file
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (reproducible) {
+            Collections.sort(entries, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry entry1, Entry entry2) {
+                    return entry1.name.compareTo(entry2.name);
+                }
+            });
+        }
+        Deque<ForkJoinTask<Entry>> window = new ArrayDeque<>();
+        channel = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            int maxTasks = Math.max(2, pool.getParallelism() * 4);
+            long inFlight = 0;
+            int next = 0;
+            while (next < entries.size() || !window.isEmpty()) {
+                // keep the pool busy compressing the entries ahead of the one being written
+                while (next < entries.size() && window.size() < maxTasks && (window.isEmpty() || inFlight < MAX_IN_FLIGHT_BYTES)) {
+                    final Entry entry = entries.get(next++);
+                    inFlight += entry.getBufferedSize();
+                    window.add(pool.submit(new Callable<Entry>() {
+                        @Override
+                        public Entry call() throws Exception {
+                            compress(entry);
+                            return entry;
+                        }
+                    }));
+                }
+                Entry entry = await(window.poll());
+                inFlight -= entry.getBufferedSize();
+                writeEntry(entry);
+            }
+            writeCentralDirectory();
+        } finally {
+            for (ForkJoinTask<Entry> task : window) {
+                task.cancel(true);
+            }
+            channel.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            Deflater deflater;
+            while ((deflater = deflaters.poll()) != null) {
+                deflater.end();
+            }
+            buffers.clear();
+        }
+    }
+
+    /**
+     * Returns true if the entry is stored rather than deflated, as it is already compressed
+     */
+    public static boolean isStored(String name) {
+        int idx = name.lastIndexOf('.');
+        return idx >= 0 && STORED_EXTENSIONS.contains(name.substring(idx + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    private String addEntry(String name, Path file, long size, BasicFileAttributes attrs) throws ZipException {
+        if (!names.add(name)) {
+            throw new ZipException("duplicate entry: " + name);
+        }
+        int dosTime = reproducible ? REPRODUCIBLE_DOS_TIME : toDosTime(attrs.lastModifiedTime().toMillis());
+        Entry entry = new Entry(name, file, size, dosTime);
+        if (entry.nameBytes.length > MAX_NAME_LENGTH) {
+            throw new ZipException("entry name too long: " + name);
+        }
+        entries.add(entry);
+        return name;
+    }
+
+    private static String getName(String path, Path root, Path file) {
+        StringBuilder builder = new StringBuilder(path);
+        String separator = "";
+        for (Path element : root.relativize(file)) {
+            builder.append(separator).append(element.toString());
+            separator = "/";
+        }
+        return builder.toString();
+    }
+
+    private static int toDosTime(long time) {
+        LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (dateTime.getYear() < 1980) {
+            return REPRODUCIBLE_DOS_TIME;
+        }
+        return (dateTime.getYear() - 1980) << 25 | dateTime.getMonthValue() << 21 | dateTime.getDayOfMonth() << 16
+                | dateTime.getHour() << 11 | dateTime.getMinute() << 5 | dateTime.getSecond() >> 1;
+    }
+
+    // Compressing entries - called on the pool
+
+    private void compress(Entry entry) throws IOException {
+        if (entry.file == null) {
+            entry.method = ZipEntry.STORED;
+            return;
+        }
+        boolean stored = isStored(entry.name);
+        if (entry.size > MAX_BUFFERED_FILE_SIZE) {
+            if (stored) {
+                // the crc has to be in the header, before the file is copied
+                CRC32 crc = new CRC32();
+                byte[] buffer = borrowBuffer(BUFFER_SIZE);
+                long size = 0;
+                try (InputStream in = java.nio.file.Files.newInputStream(entry.file)) {
+                    int count;
+                    while ((count = in.read(buffer)) >= 0) {
+                        crc.update(buffer, 0, count);
+                        size += count;
+                    }
+                } finally {
+                    releaseBuffer(buffer);
+                }
+                entry.method = ZipEntry.STORED;
+                entry.crc = crc.getValue();
+                entry.size = size;
+                entry.compressedSize = size;
+            } else {
+                entry.method = ZipEntry.DEFLATED;
+            }
+            return;
+        }
+        byte[] input = borrowBuffer((int) entry.size + 1);
+        try {
+            int length = 0;
+            try (InputStream in = java.nio.file.Files.newInputStream(entry.file)) {
+                while (true) {
+                    if (length == input.length) {
+                        input = Arrays.copyOf(input, input.length * 2);
+                    }
+                    int count = in.read(input, length, input.length - length);
+                    if (count < 0) {
+                        break;
+                    }
+                    length += count;
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(input, 0, length);
+            entry.crc = crc.getValue();
+            entry.size = length;
+            if (!stored) {
+                Deflater deflater = borrowDeflater();
+                // room for the worst case, where the data doesn't compress at all
+                byte[] output = borrowBuffer(length + (length >> 10) + 64);
+                try {
+                    int compressedLength = 0;
+                    deflater.setInput(input, 0, length);
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        if (compressedLength == output.length) {
+                            output = Arrays.copyOf(output, output.length * 2);
+                        }
+                        compressedLength += deflater.deflate(output, compressedLength, output.length - compressedLength);
+                    }
+                    if (compressedLength < length) {
+                        entry.method = ZipEntry.DEFLATED;
+                        entry.data = output;
+                        entry.compressedSize = compressedLength;
+                        return;
+                    }
+                } finally {
+                    releaseDeflater(deflater);
+                    if (entry.data != output) {
+                        releaseBuffer(output);
+                    }
+                }
+            }
+            entry.method = ZipEntry.STORED;
+            entry.data = input;
+            entry.compressedSize = length;
+        } finally {
+            // the buffer is only kept if it holds the entry's data
+            if (entry.data != input) {
+                releaseBuffer(input);
+            }
+        }
+    }
+
+    private byte[] borrowBuffer(int size) {
+        byte[] buffer = buffers.poll();
+        if (buffer == null || buffer.length < size) {
+            buffer = new byte[Math.max(size, BUFFER_SIZE)];
+        }
+        return buffer;
+    }
+
+    private void releaseBuffer(byte[] buffer) {
+        if (buffer.length <= MAX_POOLED_BUFFER_SIZE) {
+            buffers.offer(buffer);
+        }
+    }
+
+    private Deflater borrowDeflater() {
+        Deflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+
+    private void releaseDeflater(Deflater deflater) {
+        deflater.reset();
+        deflaters.offer(deflater);
+    }
+
+    private static Entry await(ForkJoinTask<Entry> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing zip entries");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    // Writing entries - called by the thread which finishes the zip file
+
+    private void writeEntry(Entry entry) throws IOException {
+        entry.offset = position;
+        entry.zip64 = entry.file != null && entry.data == null && entry.size >= ZIP64_STREAMED_LIMIT;
+        writeLocalHeader(entry);
+        if (entry.data != null) {
+            write(ByteBuffer.wrap(entry.data, 0, (int) entry.compressedSize));
+            releaseBuffer(entry.data);
+            entry.data = null;
+        } else if (entry.file != null && entry.method == ZipEntry.STORED) {
+            copyStored(entry);
+        } else if (entry.file != null) {
+            deflateStreamed(entry);
+        }
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        header.clear();
+        header.putInt(0x04034b50);
+        header.putShort((short) getVersionNeeded(entry));
+        header.putShort((short) FLAG_UTF8);
+        header.putShort((short) entry.method);
+        header.putInt(entry.dosTime);
+        header.putInt((int) entry.crc);
+        if (entry.zip64) {
+            header.putInt((int) ZIP64_LIMIT);
+            header.putInt((int) ZIP64_LIMIT);
+        } else {
+            header.putInt((int) entry.compressedSize);
+            header.putInt((int) entry.size);
+        }
+        header.putShort((short) entry.nameBytes.length);
+        header.putShort((short) (entry.zip64 ? 20 : 0));
+        header.put(entry.nameBytes);
+        if (entry.zip64) {
+            header.putShort((short) 1);
+            header.putShort((short) 16);
+            header.putLong(entry.size);
+            header.putLong(entry.compressedSize);
+        }
+        header.flip();
+        write(header);
+    }
+
+    private void copyStored(Entry entry) throws IOException {
+        try (FileChannel in = FileChannel.open(entry.file, StandardOpenOption.READ)) {
+            long count = 0;
+            while (count < entry.size) {
+                long transferred = in.transferTo(count, entry.size - count, channel);
+                if (transferred <= 0) {
+                    throw new IOException("File " + entry.file + " changed while it was being zipped");
+                }
+                count += transferred;
+            }
+            position += count;
+        }
+    }
+
+    private void deflateStreamed(Entry entry) throws IOException {
+        CRC32 crc = new CRC32();
+        Deflater deflater = borrowDeflater();
+        byte[] input = borrowBuffer(BUFFER_SIZE);
+        byte[] output = borrowBuffer(BUFFER_SIZE);
+        long size = 0;
+        long compressedSize = 0;
+        try (InputStream in = java.nio.file.Files.newInputStream(entry.file)) {
+            int count;
+            while ((count = in.read(input)) >= 0) {
+                crc.update(input, 0, count);
+                size += count;
+                deflater.setInput(input, 0, count);
+                while (!deflater.needsInput()) {
+                    compressedSize += writeDeflated(deflater, output);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                compressedSize += writeDeflated(deflater, output);
+            }
+        } finally {
+            releaseDeflater(deflater);
+            releaseBuffer(input);
+            releaseBuffer(output);
+        }
+        if (!entry.zip64 && (size >= ZIP64_LIMIT || compressedSize >= ZIP64_LIMIT)) {
+            throw new IOException("File " + entry.file + " grew too large while it was being zipped");
+        }
+        entry.crc = crc.getValue();
+        entry.size = size;
+        entry.compressedSize = compressedSize;
+
+        // now the sizes are known, fill them in to the local header
+        header.clear();
+        header.putInt((int) entry.crc);
+        if (!entry.zip64) {
+            header.putInt((int) compressedSize);
+            header.putInt((int) size);
+        }
+        header.flip();
+        writeAt(header, entry.offset + 14);
+        if (entry.zip64) {
+            header.clear();
+            header.putLong(size);
+            header.putLong(compressedSize);
+            header.flip();
+            writeAt(header, entry.offset + 30 + entry.nameBytes.length + 4);
+        }
+    }
+
+    private int writeDeflated(Deflater deflater, byte[] output) throws IOException {
+        int count = deflater.deflate(output);
+        if (count > 0) {
+            write(ByteBuffer.wrap(output, 0, count));
+        }
+        return count;
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long start = position;
+        for (Entry entry : entries) {
+            boolean zip64Size = entry.zip64 || entry.size >= ZIP64_LIMIT || entry.compressedSize >= ZIP64_LIMIT;
+            boolean zip64Offset = entry.offset >= ZIP64_LIMIT;
+            int extraLength = (zip64Size ? 16 : 0) + (zip64Offset ? 8 : 0);
+            header.clear();
+            header.putInt(0x02014b50);
+            int version = extraLength > 0 ? 45 : getVersionNeeded(entry);
+            header.putShort((short) version);
+            header.putShort((short) version);
+            header.putShort((short) FLAG_UTF8);
+            header.putShort((short) entry.method);
+            header.putInt(entry.dosTime);
+            header.putInt((int) entry.crc);
+            header.putInt((int) (zip64Size ? ZIP64_LIMIT : entry.compressedSize));
+            header.putInt((int) (zip64Size ? ZIP64_LIMIT : entry.size));
+            header.putShort((short) entry.nameBytes.length);
+            header.putShort((short) (extraLength > 0 ? extraLength + 4 : 0));
+            // comment length, disk number, internal and external attributes
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putInt(0);
+            header.putInt((int) (zip64Offset ? ZIP64_LIMIT : entry.offset));
+            header.put(entry.nameBytes);
+            if (extraLength > 0) {
+                header.putShort((short) 1);
+                header.putShort((short) extraLength);
+                if (zip64Size) {
+                    header.putLong(entry.size);
+                    header.putLong(entry.compressedSize);
+                }
+                if (zip64Offset) {
+                    header.putLong(entry.offset);
+                }
+            }
+            header.flip();
+            write(header);
+        }
+        long size = position - start;
+        long end = position;
+        header.clear();
+        if (entries.size() >= MAX_ENTRIES || start >= ZIP64_LIMIT || size >= ZIP64_LIMIT) {
+            // zip64 end of central directory record and locator
+            header.putInt(0x06064b50);
+            header.putLong(44);
+            header.putShort((short) 45);
+            header.putShort((short) 45);
+            header.putInt(0);
+            header.putInt(0);
+            header.putLong(entries.size());
+            header.putLong(entries.size());
+            header.putLong(size);
+            header.putLong(start);
+            header.putInt(0x07064b50);
+            header.putInt(0);
+            header.putLong(end);
+            header.putInt(1);
+        }
+        header.putInt(0x06054b50);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) Math.min(entries.size(), MAX_ENTRIES));
+        header.putShort((short) Math.min(entries.size(), MAX_ENTRIES));
+        header.putInt((int) Math.min(size, ZIP64_LIMIT));
+        header.putInt((int) Math.min(start, ZIP64_LIMIT));
+        header.putShort((short) 0);
+        header.flip();
+        write(header);
+    }
+
+    private static int getVersionNeeded(Entry entry) {
+        if (entry.zip64) {
+            return 45;
+        }
+        return entry.method == ZipEntry.DEFLATED ? 20 : 10;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer);
+        }
+    }
+
+    private void writeAt(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    private static class Entry {
+        private final String name;
+        private final byte[] nameBytes;
+        private final Path file;
+        private final int dosTime;
+        private final long bufferedSize;
+        private long size;
+        private int method;
+        private long crc;
+        private long compressedSize;
+        private byte[] data;
+        private long offset;
+        private boolean zip64;
+
+        Entry(String name, Path file, long size, int dosTime) {
+            this.name = name;
+            this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            this.file = file;
+            this.size = size;
+            this.dosTime = dosTime;
+            this.bufferedSize = size <= MAX_BUFFERED_FILE_SIZE ? size : 0;
+        }
+
+        /**
+         * Returns the number of bytes held in memory between compressing and writing the entry
+         */
+        long getBufferedSize() {
+            return bufferedSize;
+        }
+    }
+}
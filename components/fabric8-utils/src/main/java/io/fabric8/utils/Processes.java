@@ -25,6 +25,12 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.String.format;
 
@@ -36,6 +42,9 @@ public class Processes {
 
     private static boolean isWindows = System.getProperty("os.name").toLowerCase().contains("windows");
 
+    // reads the stderr of processes while their stdout is read by the caller - on virtual threads where supported
+    private static final ExecutorService streamPumps = createStreamPumps();
+
     /**
      * Returns true if the given PID is still alive
      */
@@ -66,10 +75,11 @@ public class Processes {
         List<Long> answer = new ArrayList<Long>();
         try {
             Process process = Runtime.getRuntime().exec(commands);
+            Future<?> errors = pumpErrors(process.getErrorStream(), message);
             // on windows the tasklist returns memory usage as numbers, so we need to chop the line so we only include
             // the pid numbers
             parseProcesses(process.getInputStream(), answer, message, Filters.<String>trueFilter(), Functions.chopLength(50));
-            processErrors(process.getErrorStream(), message);
+            awaitPump(errors);
         } catch (Exception e) {
             LOG.error("Failed to execute process " + "stdin" + " for " +
                     message + ": " + e, e);
@@ -84,8 +94,9 @@ public class Processes {
         List<Long> answer = new ArrayList<Long>();
         try {
             Process process = Runtime.getRuntime().exec(commands);
+            Future<?> errors = pumpErrors(process.getErrorStream(), message);
             parseProcesses(process.getInputStream(), answer, message, Filters.<String>trueFilter(), null);
-            processErrors(process.getErrorStream(), message);
+            awaitPump(errors);
         } catch (Exception e) {
             LOG.error("Failed to execute process " + "stdin" + " for " +
                     message + ": " + e, e);
@@ -105,8 +116,9 @@ public class Processes {
         Filter<String> filter = Filters.containsAnyString(classNameFilter);
         try {
             Process process = Runtime.getRuntime().exec(commands);
+            Future<?> errors = pumpErrors(process.getErrorStream(), message);
             parseProcesses(process.getInputStream(), answer, message, filter, null);
-            processErrors(process.getErrorStream(), message);
+            awaitPump(errors);
         } catch (Exception e) {
             LOG.error("Failed to execute process " + "stdin" + " for " +
                     message + ": " + e, e);
@@ -149,6 +161,7 @@ public class Processes {
         final List<String> answer = new ArrayList<>();
         try {
             Process process = Runtime.getRuntime().exec(commands);
+            Future<?> errors = pumpErrors(process.getErrorStream(), message);
             Function<String, Void> fn = new Function<String, Void>() {
                 @Override
                 public Void apply(String line) {
@@ -159,7 +172,7 @@ public class Processes {
                 }
             };
             processOutput(process.getInputStream(), fn, message);
-            processErrors(process.getErrorStream(), message);
+            awaitPump(errors);
         } catch (Exception e) {
             LOG.error("Failed to execute process " + "stdin" + " for " +
                     message + ": " + e, e);
@@ -182,8 +195,9 @@ public class Processes {
         Process process = null;
         try {
             process = Runtime.getRuntime().exec(commands);
+            Future<?> errors = pumpErrors(process.getErrorStream(), commands);
             processInput(process.getInputStream(), commands);
-            processErrors(process.getErrorStream(), commands);
+            awaitPump(errors);
         } catch (Exception e) {
             LOG.error("Failed to execute process " + "stdin" + " for " +
                     message + ": " + e, e);
@@ -236,8 +250,9 @@ public class Processes {
         LOG.debug("Executing commands: " + commands);
         try {
             process = runtime.exec(commands);
+            Future<?> errors = pumpErrors(process.getErrorStream(), commands);
             processInput(process.getInputStream(), commands);
-            processErrors(process.getErrorStream(), commands);
+            awaitPump(errors);
         } catch (Exception e) {
             LOG.error("Failed to execute process " + "stdin" + " for " +
                     commands + ": " + e, e);
@@ -257,8 +272,9 @@ public class Processes {
         LOG.debug("Executing commands: " + commands);
         try {
             process = runtime.exec(commands);
+            Future<?> errors = pumpErrors(process.getErrorStream(), commands);
             processInput(process.getInputStream(), commands);
-            processErrors(process.getErrorStream(), commands);
+            awaitPump(errors);
         } catch (Exception e) {
             LOG.error("Failed to execute process " + "stdin" + " for " +
                     commands + ": " + e, e);
@@ -306,6 +322,48 @@ public class Processes {
         }
     }
 
+    /**
+     * Reads the stderr of a process on another thread, so the process can't block writing to it while its stdout is read
+     */
+    protected static Future<?> pumpErrors(final InputStream inputStream, final String message) {
+        return streamPumps.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                processErrors(inputStream, message);
+                return null;
+            }
+        });
+    }
+
+    protected static void awaitPump(Future<?> pump) throws Exception {
+        try {
+            pump.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Without virtual threads, the pumps are pooled platform threads - so one is reused for each process started,
+     * rather than a thread being created for each
+     */
+    private static ExecutorService createStreamPumps() {
+        ExecutorService virtualThreads = VirtualThreads.newThreadPerTaskExecutor("Fabric Process Pump #");
+        if (virtualThreads != null) {
+            return virtualThreads;
+        }
+        final AtomicInteger counter = new AtomicInteger();
+        return Executors.newCachedThreadPool(new java.util.concurrent.ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Fabric Process Pump #" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
     protected static void processInput(InputStream inputStream, String message) throws Exception {
         readProcessOutput(inputStream, "stdout for ", message);
     }
@@ -15,24 +15,38 @@
  */
 package io.fabric8.utils;
 
+import java.util.ArrayDeque;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * An ExecutorService which ensures serial execution of the Runnable
  * objects which it is asked to execute.  By default it delegates
  * execution of those tasks to a thread pool, but can be configured
  * to use any Executor.
+ * <p/>
+ * The default thread pool starts a new thread whenever no idle thread takes a task, unless
+ * <code>io.fabric8.utils.THREAD_POOL_MAX_THREADS</code> is set - in which case at most that many threads
+ * are started, and drains wait for a free thread. Otherwise, on JVMs which support them, each drain is run on
+ * a new virtual thread, unless disabled with <code>io.fabric8.utils.VIRTUAL_THREADS</code> - see
+ * {@link VirtualThreads}. When drained by the thread pool, an executor runs at most
+ * <code>io.fabric8.utils.SERIAL_EXECUTOR_QUANTUM</code> tasks before giving the thread up to other executors.
  */
 public class SerialExecutorService extends AbstractExecutorService {
 
     static long THREAD_POOL_KEEP_ALIVE = Integer.getInteger("io.fabric8.utils.THREAD_POOL_KEEP_ALIVE", 5000);
+    static int THREAD_POOL_MAX_THREADS = Integer.getInteger("io.fabric8.utils.THREAD_POOL_MAX_THREADS", 0);
+    static int SERIAL_EXECUTOR_QUANTUM = Integer.getInteger("io.fabric8.utils.SERIAL_EXECUTOR_QUANTUM", 100);
     static final ThreadGroup group = new ThreadGroup("Fabric Tasks");
 
-    static final Executor threadPool = new Executor() {
+    static final Executor unboundedThreadPool = new Executor() {
         SynchronousQueue<Runnable> queue = new SynchronousQueue<Runnable>();
 
         @Override
@@ -75,21 +89,37 @@ public class SerialExecutorService extends AbstractExecutorService {
         }
     };
 
+    static final Executor threadPool = createThreadPool();
+
     protected Executor target;
     protected volatile String label;
     protected AtomicBoolean shutdown = new AtomicBoolean(false);
     protected AtomicBoolean terminated = new AtomicBoolean(false);
     protected CountDownLatch terminatedLatch = new CountDownLatch(1);
     protected final AtomicBoolean triggered = new AtomicBoolean();
-    protected final ConcurrentLinkedQueue<Runnable> externalQueue = new ConcurrentLinkedQueue<Runnable>();
-    protected final LinkedList<Runnable> localQueue = new LinkedList<Runnable>();
+    // a lock rather than a monitor, so a virtual thread blocked in or waiting for a drain doesn't pin its carrier
+    protected final ReentrantLock drainLock = new ReentrantLock();
+    protected final MpscArrayQueue<Runnable> externalQueue = new MpscArrayQueue<Runnable>();
+    protected final ArrayDeque<Runnable> localQueue = new ArrayDeque<Runnable>();
     protected final ThreadLocal<Boolean> draining = new ThreadLocal<Boolean>();
     protected final Runnable drainTask = new Runnable() {
         public void run() {
-            drain();
+            long latency = System.nanoTime() - triggerTime;
+            drainCount.increment();
+            totalDrainLatency.add(latency);
+            maxDrainLatency.accumulate(latency);
+            drain(SERIAL_EXECUTOR_QUANTUM, true);
         }
     };
 
+    // metrics - the executed count is only updated while draining
+    private final LongAdder queuedCount = new LongAdder();
+    private volatile long executedCount;
+    private volatile long triggerTime;
+    private final LongAdder drainCount = new LongAdder();
+    private final LongAdder totalDrainLatency = new LongAdder();
+    private final LongAccumulator maxDrainLatency = new LongAccumulator(Math::max, 0);
+
 
     public SerialExecutorService() {
         this("<no-label>");
@@ -108,6 +138,32 @@ public class SerialExecutorService extends AbstractExecutorService {
         this.label = label;
     }
 
+    private static Executor createThreadPool() {
+        if (THREAD_POOL_MAX_THREADS > 0) {
+            return newBoundedThreadPool(THREAD_POOL_MAX_THREADS);
+        }
+        Executor virtualThreads = VirtualThreads.newThreadPerTaskExecutor("Fabric Task #");
+        return virtualThreads != null ? virtualThreads : unboundedThreadPool;
+    }
+
+    /**
+     * Creates a thread pool, for use as the target of serial executors, which starts at most
+     * maxThreads threads - further drains wait in its queue until a thread is free.
+     * Idle threads stop after THREAD_POOL_KEEP_ALIVE milliseconds.
+     */
+    public static ExecutorService newBoundedThreadPool(int maxThreads) {
+        final AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor result = new ThreadPoolExecutor(maxThreads, maxThreads, THREAD_POOL_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(group, runnable, "Fabric Task #" + counter.incrementAndGet());
+            }
+        });
+        result.allowCoreThreadTimeOut(true);
+        return result;
+    }
+
     /**
      * Queues the runnable for execution.
      * @param runnable
@@ -119,10 +175,11 @@ public class SerialExecutorService extends AbstractExecutorService {
         if (shutdown.get())
             throw new RejectedExecutionException("shutdown");
 
+        queuedCount.increment();
         if (isDraining()) {
             localQueue.add(runnable);
         } else {
-            externalQueue.add(runnable);
+            externalQueue.offer(runnable);
             triggerDrain();
         }
     }
@@ -141,13 +198,15 @@ public class SerialExecutorService extends AbstractExecutorService {
         if (isDraining()) {
             runnable.run();
         } else {
-            externalQueue.add(runnable);
+            queuedCount.increment();
+            externalQueue.offer(runnable);
             drain();
         }
     }
 
     protected void triggerDrain() {
         if (triggered.compareAndSet(false, true)) {
+            triggerTime = System.nanoTime();
             target.execute(drainTask);
         }
     }
@@ -155,31 +214,49 @@ public class SerialExecutorService extends AbstractExecutorService {
     /**
      * This method blocks until all previously queued Runnable objects are run.
      */
-    synchronized public void drain() {
-        draining.set(Boolean.TRUE);
+    public void drain() {
+        drain(0, false);
+    }
+
+    /**
+     * Runs at most quantum queued Runnable objects - or all of them if the quantum is 0 - and triggers
+     * another drain if any are left. Only the triggered drain clears the trigger, so at most one
+     * triggered drain is ever queued on or running in the target.
+     */
+    protected void drain(int quantum, boolean triggeredDrain) {
+        drainLock.lock();
         try {
-            boolean drained = false;
-            while (!drained) {
+            draining.set(Boolean.TRUE);
+            long executed = executedCount;
+            int count = 0;
+            while (quantum <= 0 || count < quantum) {
                 Runnable runnable = localQueue.poll();
                 if (runnable == null) {
                     runnable = externalQueue.poll();
                 }
                 if (runnable == null) {
-                    drained = true;
-                } else {
-                    try {
-                        runnable.run();
-                    } catch (Throwable e) {
-                        Thread thread = Thread.currentThread();
-                        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
-                    }
+                    break;
+                }
+                count++;
+                executedCount = ++executed;
+                try {
+                    runnable.run();
+                } catch (Throwable e) {
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
                 }
             }
         } finally {
             draining.remove();
-            triggered.set(false);
-            if (!externalQueue.isEmpty()) {
-                triggerDrain();
+            try {
+                if (triggeredDrain) {
+                    triggered.set(false);
+                }
+                if (!localQueue.isEmpty() || !externalQueue.isEmpty()) {
+                    triggerDrain();
+                }
+            } finally {
+                drainLock.unlock();
             }
         }
     }
@@ -188,7 +265,8 @@ public class SerialExecutorService extends AbstractExecutorService {
     @Override
     public void shutdown() {
         if (shutdown.compareAndSet(false, true)) {
-            externalQueue.add(new Runnable() {
+            queuedCount.increment();
+            externalQueue.offer(new Runnable() {
                 @Override
                 public void run() {
                     terminated.set(true);
@@ -245,4 +323,40 @@ public class SerialExecutorService extends AbstractExecutorService {
     public void setLabel(String label) {
         this.label = label;
     }
+
+    /**
+     * @return the number of Runnable objects queued but not yet started
+     */
+    public long getQueueDepth() {
+        return Math.max(0, queuedCount.sum() - executedCount);
+    }
+
+    /**
+     * @return the number of Runnable objects run so far
+     */
+    public long getExecutedCount() {
+        return executedCount;
+    }
+
+    /**
+     * @return the number of times the target has drained the queue
+     */
+    public long getDrainCount() {
+        return drainCount.sum();
+    }
+
+    /**
+     * @return the mean time in nanoseconds between a drain being triggered and the target running it
+     */
+    public long getMeanDrainLatency() {
+        long count = drainCount.sum();
+        return count > 0 ? totalDrainLatency.sum() / count : 0;
+    }
+
+    /**
+     * @return the longest time in nanoseconds between a drain being triggered and the target running it
+     */
+    public long getMaxDrainLatency() {
+        return maxDrainLatency.get();
+    }
 }
@@ -0,0 +1,119 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates executors which run each task on a new virtual thread, on JVMs which support them (Java 21 onwards).
+ * The JVM's support is found by reflection, so this compiles and runs on older JVMs - where no executor is created.
+ * <p/>
+ * Virtual threads are used where supported unless the <code>io.fabric8.utils.VIRTUAL_THREADS</code> system property
+ * is <tt>false</tt>.
+ */
+public final class VirtualThreads {
+    private static final transient Logger LOG = LoggerFactory.getLogger(VirtualThreads.class);
+
+    public static final String VIRTUAL_THREADS_PROPERTY = "io.fabric8.utils.VIRTUAL_THREADS";
+
+    private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+    private static final Method IS_VIRTUAL = findMethod(Thread.class, "isVirtual");
+    private static final boolean SUPPORTED = probe();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Returns true if the JVM supports virtual threads - which is checked once, by creating a virtual thread factory,
+     * as they are a preview feature in Java 19 and 20 that may not be enabled
+     */
+    public static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * Returns true if the JVM supports virtual threads, and they have not been disabled with the system property
+     */
+    public static boolean isEnabled() {
+        return isSupported() && !"false".equalsIgnoreCase(System.getProperty(VIRTUAL_THREADS_PROPERTY));
+    }
+
+    /**
+     * Returns true if the thread is a virtual thread
+     */
+    public static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (Boolean) IS_VIRTUAL.invoke(thread);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns an executor which starts a virtual thread, named with the prefix and a counter, for each task -
+     * or null if virtual threads are not enabled
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        if (!isEnabled()) {
+            return null;
+        }
+        try {
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", java.util.concurrent.ThreadFactory.class);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, createFactory(namePrefix));
+        } catch (Exception e) {
+            LOG.debug("Could not create a virtual thread executor: " + e, e);
+            return null;
+        }
+    }
+
+    private static boolean probe() {
+        if (OF_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            createFactory("Fabric Virtual Thread #");
+            Executors.class.getMethod("newThreadPerTaskExecutor", java.util.concurrent.ThreadFactory.class);
+            return true;
+        } catch (Exception e) {
+            // e.g. virtual threads are a preview feature which has not been enabled
+            LOG.debug("Virtual threads are not supported: " + e, e);
+            return false;
+        }
+    }
+
+    private static java.util.concurrent.ThreadFactory createFactory(String namePrefix) throws Exception {
+        Object builder = OF_VIRTUAL.invoke(null);
+        Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+        return (java.util.concurrent.ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    }
+
+    private static Method findMethod(Class<?> type, String name) {
+        try {
+            return type.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
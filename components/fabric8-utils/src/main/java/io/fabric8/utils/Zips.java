@@ -25,6 +25,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -44,16 +45,28 @@ public class Zips {
     }
 
     public static void createZipFile(Logger log, File sourceDir, File outputZipFile, FileFilter filter) throws IOException {
+        createZipFile(log, sourceDir, outputZipFile, filter, false);
+    }
+
+    /**
+     * Creates a zip file from the given source directory and optional filter, compressing the files in parallel.
+     * If reproducible, the entries are sorted and given a fixed timestamp so the same files always give the same zip.
+     *
+     * @see ParallelZipWriter
+     */
+    public static void createZipFile(Logger log, File sourceDir, File outputZipFile, FileFilter filter, boolean reproducible) throws IOException {
         outputZipFile.getParentFile().mkdirs();
-        OutputStream os = new FileOutputStream(outputZipFile);
-        ZipOutputStream zos = new ZipOutputStream(os);
-        try {
-            //zos.setLevel(Deflater.DEFAULT_COMPRESSION);
-            //zos.setLevel(Deflater.NO_COMPRESSION);
-            String path = "";
-            zipDirectory(log, sourceDir, zos, path, filter);
-        } finally {
-            Closeables.closeQuietly(zos);
+        List<String> entries;
+        try (ParallelZipWriter writer = new ParallelZipWriter(outputZipFile, reproducible)) {
+            entries = writer.addDirectory(sourceDir, "", filter);
+            writer.finish();
+        }
+        if (log.isDebugEnabled()) {
+            for (String entry : entries) {
+                if (!entry.endsWith("/")) {
+                    log.debug("zipping file " + entry);
+                }
+            }
         }
     }
 
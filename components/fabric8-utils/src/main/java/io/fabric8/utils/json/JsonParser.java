@@ -0,0 +1,510 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.utils.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A pull parser, which returns a JSON document one {@link JsonToken} at a time, so large documents can be
+ * processed without building a tree of the whole document.
+ * <p/>
+ * Characters are read from the underlying Reader in blocks. Strings and numbers which don't contain escapes
+ * are created straight from the buffer, which grows to hold a token if it spans more than one block.
+ */
+public class JsonParser implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // the states of the containers being parsed
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final Reader reader;
+    private char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private long bufferOffset;
+    private int mark = -1;
+    private boolean eof;
+    private int line = 1;
+    private long lineStart;
+
+    private int[] stack = new int[32];
+    private int depth;
+    private JsonToken token;
+    private String text;
+    private boolean skipping;
+
+    public JsonParser(Reader reader) {
+        this.reader = reader;
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Parses a document encoded as UTF-8
+     */
+    public JsonParser(InputStream is) {
+        this(new InputStreamReader(is, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the next token, or null at the end of the document
+     */
+    public JsonToken nextToken() throws IOException {
+        text = null;
+        int c;
+        switch (stack[depth - 1]) {
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                return token = readValueToken(nextNonWhiteSpace());
+            case NONEMPTY_DOCUMENT:
+                if (nextNonWhiteSpace() != -1) {
+                    throw error("Unexpected character");
+                }
+                return token = null;
+            case EMPTY_ARRAY:
+                c = nextNonWhiteSpace();
+                if (c == ']') {
+                    depth--;
+                    return token = JsonToken.END_ARRAY;
+                }
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                return token = readValueToken(c);
+            case NONEMPTY_ARRAY:
+                c = nextNonWhiteSpace();
+                if (c == ']') {
+                    depth--;
+                    return token = JsonToken.END_ARRAY;
+                }
+                if (c != ',') {
+                    throw expected("',' or ']'");
+                }
+                return token = readValueToken(nextNonWhiteSpace());
+            case EMPTY_OBJECT:
+                c = nextNonWhiteSpace();
+                if (c == '}') {
+                    depth--;
+                    return token = JsonToken.END_OBJECT;
+                }
+                return token = readName(c);
+            case NONEMPTY_OBJECT:
+                c = nextNonWhiteSpace();
+                if (c == '}') {
+                    depth--;
+                    return token = JsonToken.END_OBJECT;
+                }
+                if (c != ',') {
+                    throw expected("',' or '}'");
+                }
+                return token = readName(nextNonWhiteSpace());
+            case DANGLING_NAME:
+                if (nextNonWhiteSpace() != ':') {
+                    throw expected("':'");
+                }
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                return token = readValueToken(nextNonWhiteSpace());
+            default:
+                throw new IllegalStateException("Unknown state " + stack[depth - 1]);
+        }
+    }
+
+    /**
+     * @return the token last returned by {@link #nextToken()}
+     */
+    public JsonToken getCurrentToken() {
+        return token;
+    }
+
+    /**
+     * @return the name of the current field, the value of the current string, or the text of the current number
+     * or literal - or null for the start and end of objects and arrays
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the value of the current scalar token, as a String, Double, Boolean or null - as {@link JsonReader} does
+     */
+    public Object getValue() throws IOException {
+        if (token == null) {
+            throw new IllegalStateException("No current token");
+        }
+        switch (token) {
+            case VALUE_STRING:
+                return text;
+            case VALUE_NUMBER:
+                return getDoubleValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return null;
+            default:
+                throw new IllegalStateException("Current token " + token + " is not a scalar value");
+        }
+    }
+
+    public double getDoubleValue() {
+        checkNumber();
+        return Double.parseDouble(text);
+    }
+
+    public long getLongValue() {
+        checkNumber();
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            return (long) Double.parseDouble(text);
+        }
+    }
+
+    /**
+     * If the current token starts an object or array, skips to its end - without creating the strings it contains
+     */
+    public void skipChildren() throws IOException {
+        if (token != JsonToken.START_OBJECT && token != JsonToken.START_ARRAY) {
+            return;
+        }
+        int targetDepth = depth - 1;
+        skipping = true;
+        try {
+            while (depth > targetDepth) {
+                nextToken();
+            }
+        } finally {
+            skipping = false;
+        }
+    }
+
+    /**
+     * @return the number of objects and arrays the current token is nested in
+     */
+    public int getDepth() {
+        return depth - 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    //
+    // Implementation
+    //
+
+    private JsonToken readValueToken(int c) throws IOException {
+        switch (c) {
+            case 'n':
+                readRequiredChars("ull");
+                text = "null";
+                return JsonToken.VALUE_NULL;
+            case 't':
+                readRequiredChars("rue");
+                text = "true";
+                return JsonToken.VALUE_TRUE;
+            case 'f':
+                readRequiredChars("alse");
+                text = "false";
+                return JsonToken.VALUE_FALSE;
+            case '"':
+                text = readString();
+                return JsonToken.VALUE_STRING;
+            case '[':
+                push(EMPTY_ARRAY);
+                return JsonToken.START_ARRAY;
+            case '{':
+                push(EMPTY_OBJECT);
+                return JsonToken.START_OBJECT;
+            case '-':
+            case '0':
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+            case '8':
+            case '9':
+                text = readNumber();
+                return JsonToken.VALUE_NUMBER;
+            default:
+                throw expected("value");
+        }
+    }
+
+    private JsonToken readName(int c) throws IOException {
+        if (c != '"') {
+            throw expected("name");
+        }
+        text = readString();
+        stack[depth - 1] = DANGLING_NAME;
+        return JsonToken.FIELD_NAME;
+    }
+
+    private void push(int state) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = state;
+    }
+
+    private void readRequiredChars(String chars) throws IOException {
+        for (int i = 0; i < chars.length(); i++) {
+            if (read() != chars.charAt(i)) {
+                throw expected("'" + chars.charAt(i) + "'");
+            }
+        }
+    }
+
+    /**
+     * Reads the rest of a string, whose opening quote has been read. While skipping, the string is only validated.
+     */
+    private String readString() throws IOException {
+        StringBuilder builder = null;
+        mark = position;
+        try {
+            while (true) {
+                if (position == limit && !fill()) {
+                    throw error("Unexpected end of input");
+                }
+                char c = buffer[position++];
+                if (c == '"') {
+                    if (skipping) {
+                        return null;
+                    }
+                    if (builder == null) {
+                        return new String(buffer, mark, position - 1 - mark);
+                    }
+                    return builder.append(buffer, mark, position - 1 - mark).toString();
+                } else if (c == '\\') {
+                    if (!skipping) {
+                        if (builder == null) {
+                            builder = new StringBuilder(Math.max(16, (position - mark) * 2));
+                        }
+                        builder.append(buffer, mark, position - 1 - mark);
+                    }
+                    mark = -1;
+                    readEscape(builder);
+                    mark = position;
+                } else if (c < 0x20) {
+                    position--;
+                    throw expected("valid string character");
+                }
+            }
+        } finally {
+            mark = -1;
+        }
+    }
+
+    private void readEscape(StringBuilder builder) throws IOException {
+        int c = read();
+        char result;
+        switch (c) {
+            case '"':
+            case '/':
+            case '\\':
+                result = (char) c;
+                break;
+            case 'b':
+                result = '\b';
+                break;
+            case 'f':
+                result = '\f';
+                break;
+            case 'n':
+                result = '\n';
+                break;
+            case 'r':
+                result = '\r';
+                break;
+            case 't':
+                result = '\t';
+                break;
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = hexDigit(read());
+                    if (digit < 0) {
+                        throw expected("hexadecimal digit");
+                    }
+                    value = (value << 4) | digit;
+                }
+                result = (char) value;
+                break;
+            default:
+                throw expected("valid escape sequence");
+        }
+        if (builder != null && !skipping) {
+            builder.append(result);
+        }
+    }
+
+    /**
+     * Reads the rest of a number, whose first character has been read
+     */
+    private String readNumber() throws IOException {
+        mark = position - 1;
+        try {
+            int first = buffer[mark];
+            if (first == '-') {
+                first = read();
+                if (!isDigit(first)) {
+                    throw expected("digit");
+                }
+            }
+            if (first != '0') {
+                skipDigits();
+            }
+            if (peek() == '.') {
+                position++;
+                if (!isDigit(read())) {
+                    throw expected("digit");
+                }
+                skipDigits();
+            }
+            int c = peek();
+            if (c == 'e' || c == 'E') {
+                position++;
+                c = peek();
+                if (c == '+' || c == '-') {
+                    position++;
+                }
+                if (!isDigit(read())) {
+                    throw expected("digit");
+                }
+                skipDigits();
+            }
+            return skipping ? null : new String(buffer, mark, position - mark);
+        } finally {
+            mark = -1;
+        }
+    }
+
+    private void skipDigits() throws IOException {
+        while (isDigit(peek())) {
+            position++;
+        }
+    }
+
+    private int nextNonWhiteSpace() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            char c = buffer[position++];
+            if (c == '\n') {
+                line++;
+                lineStart = bufferOffset + position;
+            } else if (c != ' ' && c != '\t' && c != '\r') {
+                return c;
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position];
+    }
+
+    /**
+     * Reads the next block of characters, keeping those from the mark onwards - so a token can span blocks
+     *
+     * @return false at the end of the input
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        int keep = mark >= 0 ? mark : position;
+        if (keep > 0) {
+            System.arraycopy(buffer, keep, buffer, 0, limit - keep);
+            bufferOffset += keep;
+            limit -= keep;
+            position -= keep;
+            if (mark >= 0) {
+                mark = 0;
+            }
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int count = reader.read(buffer, limit, buffer.length - limit);
+        if (count < 0) {
+            eof = true;
+            return false;
+        }
+        limit += count;
+        return true;
+    }
+
+    private void checkNumber() {
+        if (token != JsonToken.VALUE_NUMBER) {
+            throw new IllegalStateException("Current token " + token + " is not a number");
+        }
+    }
+
+    private IOException expected(String expected) {
+        if (eof && position >= limit) {
+            return error("Unexpected end of input");
+        }
+        return error("Expected " + expected);
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " at " + line + ":" + (bufferOffset + position - lineStart));
+    }
+
+    private static boolean isDigit(int ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    /**
+     * @return the value of an ASCII hexadecimal digit, or -1 - unlike Character.digit, other scripts' digits aren't allowed
+     */
+    private static int hexDigit(int c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
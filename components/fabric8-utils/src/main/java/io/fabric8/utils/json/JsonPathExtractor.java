@@ -0,0 +1,217 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.utils.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts the values at some paths from a JSON document in a single pass, without building a tree of the
+ * rest of the document - the parts of the document no path leads into are skipped.
+ * <p/>
+ * A path is a list of field names separated by '.', where each field name may be followed by array indexes
+ * such as <code>[0]</code>. A '*' matches any field, and <code>[*]</code> any element of an array, e.g.
+ * <code>items[*].metadata.name</code> or <code>metadata.labels.*</code>. The values matched by each path are
+ * returned in document order, with objects and arrays read as {@link JsonReader} does.
+ */
+public class JsonPathExtractor {
+
+    private static final Object ANY = new Object();
+
+    private final Map<String, Object[]> paths = new LinkedHashMap<String, Object[]>();
+
+    public JsonPathExtractor(String... paths) {
+        for (String path : paths) {
+            this.paths.put(path, parsePath(path));
+        }
+    }
+
+    /**
+     * @return the first value matched by the path, or null if there are none
+     */
+    public static Object extractFirst(Reader reader, String path) throws IOException {
+        List<Object> values = new JsonPathExtractor(path).extract(reader).get(path);
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * @return the values matched by each path, keyed by path
+     */
+    public Map<String, List<Object>> extract(Reader reader) throws IOException {
+        return extract(new JsonParser(reader));
+    }
+
+    /**
+     * Extracts from a document encoded as UTF-8
+     *
+     * @return the values matched by each path, keyed by path
+     */
+    public Map<String, List<Object>> extract(InputStream is) throws IOException {
+        return extract(new JsonParser(is));
+    }
+
+    public Map<String, List<Object>> extract(JsonParser parser) throws IOException {
+        Map<String, List<Object>> result = new LinkedHashMap<String, List<Object>>();
+        for (String path : paths.keySet()) {
+            result.put(path, new ArrayList<Object>());
+        }
+        parser.nextToken();
+        walk(parser, new ArrayList<Object>(), result);
+        //fails if there is anything but white space after the document
+        parser.nextToken();
+        return result;
+    }
+
+    //
+    // Implementation
+    //
+
+    /**
+     * Visits the value starting at the current token of the parser, whose location is given by the current path
+     */
+    private void walk(JsonParser parser, List<Object> current, Map<String, List<Object>> result) throws IOException {
+        List<Map.Entry<String, Object[]>> deeper = null;
+        boolean matched = false;
+        for (Map.Entry<String, Object[]> entry : paths.entrySet()) {
+            Object[] path = entry.getValue();
+            if (isPrefix(current, path)) {
+                if (path.length == current.size()) {
+                    matched = true;
+                } else {
+                    if (deeper == null) {
+                        deeper = new ArrayList<Map.Entry<String, Object[]>>();
+                    }
+                    deeper.add(entry);
+                }
+            }
+        }
+        if (matched) {
+            //some path ends here - so read the value, and find any longer paths within it
+            Object value = JsonReader.readValue(parser);
+            for (Map.Entry<String, Object[]> entry : paths.entrySet()) {
+                Object[] path = entry.getValue();
+                if (isPrefix(current, path)) {
+                    select(value, path, current.size(), result.get(entry.getKey()));
+                }
+            }
+        } else if (deeper == null) {
+            parser.skipChildren();
+        } else if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                current.add(parser.getText());
+                parser.nextToken();
+                walk(parser, current, result);
+                current.remove(current.size() - 1);
+            }
+        } else if (parser.getCurrentToken() == JsonToken.START_ARRAY) {
+            int index = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                current.add(index++);
+                walk(parser, current, result);
+                current.remove(current.size() - 1);
+            }
+        }
+    }
+
+    private static boolean isPrefix(List<Object> current, Object[] path) {
+        if (current.size() > path.length) {
+            return false;
+        }
+        for (int i = 0; i < current.size(); i++) {
+            Object element = current.get(i);
+            Object segment = path[i];
+            if (segment == ANY) {
+                continue;
+            }
+            if (!segment.equals(element)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the values within an already read value which are matched by the rest of a path
+     */
+    private static void select(Object value, Object[] path, int index, List<Object> result) {
+        if (index == path.length) {
+            result.add(value);
+            return;
+        }
+        Object segment = path[index];
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            if (segment == ANY) {
+                for (Object child : map.values()) {
+                    select(child, path, index + 1, result);
+                }
+            } else if (segment instanceof String && map.containsKey(segment)) {
+                select(map.get(segment), path, index + 1, result);
+            }
+        } else if (value instanceof Collection) {
+            int i = 0;
+            for (Object child : (Collection<?>) value) {
+                if (segment == ANY || segment.equals(i)) {
+                    select(child, path, index + 1, result);
+                }
+                i++;
+            }
+        }
+    }
+
+    /**
+     * @return the segments of the path - Strings for field names, Integers for array indexes, and ANY for wildcards
+     */
+    private static Object[] parsePath(String path) {
+        List<Object> result = new ArrayList<Object>();
+        if (path.isEmpty()) {
+            return result.toArray();
+        }
+        for (String field : path.split("\\.", -1)) {
+            int bracket = field.indexOf('[');
+            String name = bracket >= 0 ? field.substring(0, bracket) : field;
+            if (name.equals("*")) {
+                result.add(ANY);
+            } else if (!name.isEmpty() || bracket < 0) {
+                result.add(name);
+            }
+            while (bracket >= 0) {
+                int end = field.indexOf(']', bracket);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Missing ']' in path " + path);
+                }
+                String index = field.substring(bracket + 1, end).trim();
+                if (index.equals("*")) {
+                    result.add(ANY);
+                } else {
+                    try {
+                        result.add(Integer.valueOf(index));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid array index '" + index + "' in path " + path);
+                    }
+                }
+                bracket = field.indexOf('[', end);
+            }
+        }
+        return result.toArray();
+    }
+}
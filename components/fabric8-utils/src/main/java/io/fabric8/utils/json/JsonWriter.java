@@ -15,7 +15,9 @@
  */
 package io.fabric8.utils.json;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.util.Collection;
 import java.util.Map;
@@ -40,6 +42,18 @@ public class JsonWriter {
         }
     }
 
+    /**
+     * Writes the value as UTF-8 straight to the stream, using a {@link Utf8JsonWriter}. The stream is not closed.
+     */
+    public static void write(OutputStream os, Object value) throws IOException {
+        Utf8JsonWriter writer = new Utf8JsonWriter(new NonClosingOutputStream(os));
+        try {
+            writer.value(value);
+        } finally {
+            writer.close();
+        }
+    }
+
     private static void writeObject(Writer writer, Map<?, ?> value) throws IOException {
         writer.append('{');
         boolean first = true;
@@ -114,4 +128,21 @@ public class JsonWriter {
     private static void writeNull(Writer writer) throws IOException {
         writer.append("null");
     }
+
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
 }
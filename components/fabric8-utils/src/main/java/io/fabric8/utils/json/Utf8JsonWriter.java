@@ -0,0 +1,418 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.utils.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes JSON as UTF-8 straight into a byte buffer, which is written to the OutputStream whenever it fills up.
+ * Buffers are taken from a small pool, and returned to it when the writer is closed.
+ * <p/>
+ * Documents can be written a token at a time, so large documents don't have to be built as a tree first:
+ * <pre>
+ *     writer.beginObject().name("kind").value("List").name("items").beginArray();
+ *     ...
+ *     writer.endArray().endObject().close();
+ * </pre>
+ * Strings are copied byte for byte while they are ASCII and need no escaping.
+ */
+public class Utf8JsonWriter implements Closeable, Flushable {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final BlockingQueue<byte[]> BUFFER_POOL = new ArrayBlockingQueue<byte[]>(16);
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] NULL = "null".getBytes();
+    private static final byte[] TRUE = "true".getBytes();
+    private static final byte[] FALSE = "false".getBytes();
+
+    // for each ASCII character: 0 if it is written as it is, the character following the '\' if it has a
+    // short escape, or -1 if it is written as a unicode escape
+    private static final int[] ESCAPES = new int[128];
+
+    static {
+        for (int i = 0; i < 0x20; i++) {
+            ESCAPES[i] = -1;
+        }
+        ESCAPES['"'] = '"';
+        ESCAPES['\\'] = '\\';
+        ESCAPES['\b'] = 'b';
+        ESCAPES['\f'] = 'f';
+        ESCAPES['\n'] = 'n';
+        ESCAPES['\r'] = 'r';
+        ESCAPES['\t'] = 't';
+    }
+
+    // the states of the containers being written
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final OutputStream out;
+    private byte[] buffer;
+    private int count;
+    private int[] stack = new int[32];
+    private int depth;
+
+    public Utf8JsonWriter(OutputStream out) {
+        this.out = out;
+        this.buffer = acquireBuffer();
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * @return the value - a tree of Maps, Collections, Numbers, Strings, Booleans and nulls - as UTF-8 encoded JSON
+     */
+    public static byte[] toByteArray(Object value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Utf8JsonWriter writer = new Utf8JsonWriter(out);
+        try {
+            writer.value(value);
+        } finally {
+            writer.close();
+        }
+        return out.toByteArray();
+    }
+
+    public Utf8JsonWriter beginObject() throws IOException {
+        beforeValue();
+        push(EMPTY_OBJECT);
+        writeByte('{');
+        return this;
+    }
+
+    public Utf8JsonWriter endObject() throws IOException {
+        checkOpen();
+        int state = stack[depth - 1];
+        if (state != EMPTY_OBJECT && state != NONEMPTY_OBJECT) {
+            throw new IllegalStateException("Not in an object, or a value is expected");
+        }
+        depth--;
+        writeByte('}');
+        return this;
+    }
+
+    public Utf8JsonWriter beginArray() throws IOException {
+        beforeValue();
+        push(EMPTY_ARRAY);
+        writeByte('[');
+        return this;
+    }
+
+    public Utf8JsonWriter endArray() throws IOException {
+        checkOpen();
+        int state = stack[depth - 1];
+        if (state != EMPTY_ARRAY && state != NONEMPTY_ARRAY) {
+            throw new IllegalStateException("Not in an array");
+        }
+        depth--;
+        writeByte(']');
+        return this;
+    }
+
+    public Utf8JsonWriter name(String name) throws IOException {
+        if (name == null) {
+            throw new NullPointerException("name");
+        }
+        checkOpen();
+        int state = stack[depth - 1];
+        if (state == NONEMPTY_OBJECT) {
+            writeByte(',');
+        } else if (state != EMPTY_OBJECT) {
+            throw new IllegalStateException("Not in an object, or a value is expected");
+        }
+        stack[depth - 1] = DANGLING_NAME;
+        writeString(name);
+        writeByte(':');
+        return this;
+    }
+
+    public Utf8JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    public Utf8JsonWriter value(long value) throws IOException {
+        beforeValue();
+        writeAscii(Long.toString(value));
+        return this;
+    }
+
+    public Utf8JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        beforeValue();
+        writeAscii(Double.toString(value));
+        return this;
+    }
+
+    public Utf8JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        writeBytes(value ? TRUE : FALSE);
+        return this;
+    }
+
+    public Utf8JsonWriter value(Number value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeAscii(value.toString());
+        return this;
+    }
+
+    public Utf8JsonWriter nullValue() throws IOException {
+        beforeValue();
+        writeBytes(NULL);
+        return this;
+    }
+
+    /**
+     * Writes a tree of Maps, Collections, Numbers, Strings, Booleans and nulls - as {@link JsonWriter} does
+     */
+    public Utf8JsonWriter value(Object value) throws IOException {
+        if (value instanceof Map) {
+            beginObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                name((String) entry.getKey());
+                value(entry.getValue());
+            }
+            endObject();
+        } else if (value instanceof Collection) {
+            beginArray();
+            for (Object element : (Collection<?>) value) {
+                value(element);
+            }
+            endArray();
+        } else if (value instanceof Number) {
+            value((Number) value);
+        } else if (value instanceof String) {
+            value((String) value);
+        } else if (value instanceof Boolean) {
+            value(((Boolean) value).booleanValue());
+        } else if (value == null) {
+            nullValue();
+        } else {
+            throw new IllegalArgumentException("Unsupported value: " + value);
+        }
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Flushes and closes the OutputStream, and returns the buffer to the pool
+     */
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            flushBuffer();
+            out.close();
+        } finally {
+            releaseBuffer(buffer);
+            buffer = null;
+        }
+    }
+
+    //
+    // Implementation
+    //
+
+    private void checkOpen() {
+        if (buffer == null) {
+            throw new IllegalStateException("closed");
+        }
+    }
+
+    private void beforeValue() throws IOException {
+        checkOpen();
+        switch (stack[depth - 1]) {
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            case NONEMPTY_DOCUMENT:
+                throw new IllegalStateException("A JSON document can only have one top level value");
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                break;
+            case NONEMPTY_ARRAY:
+                writeByte(',');
+                break;
+            case DANGLING_NAME:
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            default:
+                throw new IllegalStateException("A name is expected");
+        }
+    }
+
+    private void push(int state) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = state;
+    }
+
+    private void writeString(String value) throws IOException {
+        writeByte('"');
+        int length = value.length();
+        int i = 0;
+        while (i < length) {
+            byte[] bytes = buffer;
+            int position = count;
+            int end = Math.min(length, i + bytes.length - position);
+            //ASCII which needs no escaping is copied straight into the buffer
+            while (i < end) {
+                char c = value.charAt(i);
+                if (c >= 0x80 || ESCAPES[c] != 0) {
+                    break;
+                }
+                bytes[position++] = (byte) c;
+                i++;
+            }
+            count = position;
+            if (i < end) {
+                i = writeSpecial(value, i);
+            } else if (i < length) {
+                flushBuffer();
+            }
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Writes the character at the index, which is either escaped or needs more than one byte
+     *
+     * @return the index of the next character
+     */
+    private int writeSpecial(String value, int index) throws IOException {
+        if (count + 12 > buffer.length) {
+            flushBuffer();
+        }
+        byte[] bytes = buffer;
+        char c = value.charAt(index);
+        if (c < 0x80) {
+            int escape = ESCAPES[c];
+            if (escape > 0) {
+                bytes[count++] = '\\';
+                bytes[count++] = (byte) escape;
+            } else {
+                writeUnicodeEscape(c);
+            }
+        } else if (c < 0xa0 || (c >= 0x2000 && c < 0x2100)) {
+            //control characters, and characters such as line separators which break javascript
+            writeUnicodeEscape(c);
+        } else if (c < 0x800) {
+            bytes[count++] = (byte) (0xc0 | (c >> 6));
+            bytes[count++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+            bytes[count++] = (byte) (0xf0 | (codePoint >> 18));
+            bytes[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+            bytes[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            bytes[count++] = (byte) (0x80 | (codePoint & 0x3f));
+            return index + 2;
+        } else if (Character.isSurrogate(c)) {
+            //an unpaired surrogate can't be encoded as UTF-8
+            writeUnicodeEscape(c);
+        } else {
+            bytes[count++] = (byte) (0xe0 | (c >> 12));
+            bytes[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            bytes[count++] = (byte) (0x80 | (c & 0x3f));
+        }
+        return index + 1;
+    }
+
+    private void writeUnicodeEscape(char c) {
+        byte[] bytes = buffer;
+        bytes[count++] = '\\';
+        bytes[count++] = 'u';
+        bytes[count++] = HEX[(c >> 12) & 0xf];
+        bytes[count++] = HEX[(c >> 8) & 0xf];
+        bytes[count++] = HEX[(c >> 4) & 0xf];
+        bytes[count++] = HEX[c & 0xf];
+    }
+
+    private void writeAscii(String value) throws IOException {
+        int length = value.length();
+        if (count + length > buffer.length) {
+            flushBuffer();
+            if (length > buffer.length) {
+                out.write(value.getBytes("US-ASCII"));
+                return;
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            buffer[count++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (count + bytes.length > buffer.length) {
+            flushBuffer();
+        }
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void writeByte(char c) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) c;
+    }
+
+    private void flushBuffer() throws IOException {
+        checkOpen();
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private static byte[] acquireBuffer() {
+        byte[] result = BUFFER_POOL.poll();
+        return result != null ? result : new byte[BUFFER_SIZE];
+    }
+
+    private static void releaseBuffer(byte[] buffer) {
+        BUFFER_POOL.offer(buffer);
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MpscArrayQueueTest {
+
+    @Test
+    public void testOrderAcrossChunks() {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<Integer>(4);
+        assertTrue(queue.isEmpty());
+        for (int i = 0; i < 10; i++) {
+            queue.offer(i);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final MpscArrayQueue<Integer> queue = new MpscArrayQueue<Integer>(16);
+        final int producers = 4;
+        final int count = 100000;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < count; i++) {
+                        queue.offer(producer * count + i);
+                    }
+                }
+            };
+            threads[p].start();
+        }
+        int[] last = new int[producers];
+        for (int p = 0; p < producers; p++) {
+            last[p] = -1;
+        }
+        int received = 0;
+        while (received < producers * count) {
+            Integer value = queue.poll();
+            if (value != null) {
+                int producer = value / count;
+                int index = value % count;
+                //each producer's elements arrive in the order they were offered
+                assertEquals(last[producer] + 1, index);
+                last[producer] = index;
+                received++;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(queue.poll());
+    }
+}
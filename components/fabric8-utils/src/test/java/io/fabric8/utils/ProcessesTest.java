@@ -0,0 +1,44 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class ProcessesTest {
+
+    @Test(timeout = 30000)
+    public void testStderrIsDrainedWhileStdoutIsRead() throws Exception {
+        if (System.getProperty("os.name").toLowerCase().contains("windows")) {
+            return;
+        }
+        // writes more to stderr than a pipe holds before it writes to stdout
+        String script = "i=0; while [ $i -lt 4000 ]; do echo 'filling up the stderr pipe of the process' >&2; i=$((i+1)); done; echo 1234";
+        Process process = new ProcessBuilder("sh", "-c", script).start();
+        Future<?> errors = Processes.pumpErrors(process.getErrorStream(), "test");
+        List<Long> answer = new ArrayList<>();
+        Processes.parseProcesses(process.getInputStream(), answer, "test", Filters.<String>trueFilter(), null);
+        Processes.awaitPump(errors);
+        assertEquals(Collections.singletonList(1234L), answer);
+        assertEquals(0, process.waitFor());
+    }
+}
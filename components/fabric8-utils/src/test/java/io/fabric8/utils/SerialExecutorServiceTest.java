@@ -17,7 +17,14 @@ package io.fabric8.utils;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -45,4 +52,90 @@ public class SerialExecutorServiceTest {
         assertEquals(10000, data[0]);
     }
 
+    @Test
+    public void testBoundedThreadPool() throws InterruptedException {
+        ExecutorService pool = SerialExecutorService.newBoundedThreadPool(2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            new SerialExecutorService(pool, "executor-" + i).execute(new Runnable() {
+                @Override
+                public void run() {
+                    int count = running.incrementAndGet();
+                    if (count > maxRunning.get()) {
+                        maxRunning.set(count);
+                    }
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue("ran " + maxRunning.get() + " at once", maxRunning.get() <= 2);
+        pool.shutdown();
+    }
+
+    @Test
+    public void testQuantumKeepsOrderAndYields() throws InterruptedException {
+        ExecutorService pool = SerialExecutorService.newBoundedThreadPool(1);
+        SerialExecutorService executor = new SerialExecutorService(pool, "quantum");
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final int count = SerialExecutorService.SERIAL_EXECUTOR_QUANTUM * 3 + 1;
+        for (int i = 0; i < count; i++) {
+            final int id = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(id);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(count, order.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+        assertTrue(executor.getDrainCount() >= 4);
+        assertEquals(0, executor.getQueueDepth());
+        assertEquals(count + 1, executor.getExecutedCount());
+        pool.shutdown();
+    }
+
+    @Test
+    public void testExplicitDrainKeepsOneTriggeredDrain() {
+        final List<Runnable> drains = new ArrayList<Runnable>();
+        SerialExecutorService executor = new SerialExecutorService(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                drains.add(command);
+            }
+        }, "explicit");
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+        executor.execute(task);
+        assertEquals(1, drains.size());
+
+        // the explicit drain runs the queued task, but the triggered drain is still queued on the target
+        executor.executeAndDrain(task);
+        assertEquals(2, runs.get());
+        executor.execute(task);
+        assertEquals(1, drains.size());
+
+        drains.get(0).run();
+        assertEquals(3, runs.get());
+        executor.execute(task);
+        assertEquals(2, drains.size());
+    }
 }
@@ -0,0 +1,68 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VirtualThreadsTest {
+
+    @Test
+    public void testExecutorRunsTasksOnVirtualThreadsWhereSupported() throws Exception {
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("Test #");
+        if (!VirtualThreads.isEnabled()) {
+            assertNull(executor);
+            assertFalse(VirtualThreads.isVirtual(Thread.currentThread()));
+            return;
+        }
+        try {
+            Thread thread = executor.submit(new Callable<Thread>() {
+                @Override
+                public Thread call() throws Exception {
+                    return Thread.currentThread();
+                }
+            }).get(10, TimeUnit.SECONDS);
+            assertTrue(VirtualThreads.isVirtual(thread));
+            assertEquals("Test #0", thread.getName());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDisabledByProperty() throws Exception {
+        String old = System.getProperty(VirtualThreads.VIRTUAL_THREADS_PROPERTY);
+        System.setProperty(VirtualThreads.VIRTUAL_THREADS_PROPERTY, "false");
+        try {
+            assertFalse(VirtualThreads.isEnabled());
+            assertNull(VirtualThreads.newThreadPerTaskExecutor("Test #"));
+        } finally {
+            if (old == null) {
+                System.clearProperty(VirtualThreads.VIRTUAL_THREADS_PROPERTY);
+            } else {
+                System.setProperty(VirtualThreads.VIRTUAL_THREADS_PROPERTY, old);
+            }
+        }
+    }
+}
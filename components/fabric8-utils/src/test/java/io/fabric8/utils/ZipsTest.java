@@ -0,0 +1,153 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.utils;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ZipsTest {
+    private static final Logger LOG = LoggerFactory.getLogger(ZipsTest.class);
+
+    @Test
+    public void testCreateZipFile() throws Exception {
+        File sourceDir = createSourceDir();
+        File zipFile = new File(sourceDir.getParentFile(), "test.zip");
+        Zips.createZipFile(LOG, sourceDir, zipFile);
+
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry("docs/readme.txt").getMethod());
+            assertEquals(ZipEntry.STORED, zip.getEntry("images/logo.png").getMethod());
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry("large.txt").getMethod());
+            assertEquals(ZipEntry.STORED, zip.getEntry("lib/large.jar").getMethod());
+            assertNotNull(zip.getEntry("empty/"));
+            assertEquals(13, Collections.list(zip.entries()).size());
+        }
+
+        // the local headers are read when streaming
+        File toDir = new File(sourceDir.getParentFile(), "unzipped");
+        Zips.unzip(new FileInputStream(zipFile), toDir);
+        for (String name : Arrays.asList("docs/readme.txt", "docs/empty.txt", "images/logo.png", "large.txt", "lib/large.jar", "nested/a/b/c.xml")) {
+            assertArrayEquals(name, readBytes(new File(sourceDir, name)), readBytes(new File(toDir, name)));
+        }
+    }
+
+    @Test
+    public void testFilterSkipsDirectories() throws Exception {
+        File sourceDir = createSourceDir();
+        File zipFile = new File(sourceDir.getParentFile(), "test.zip");
+        Zips.createZipFile(LOG, sourceDir, zipFile, new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return !file.getName().equals("nested") && !file.getName().startsWith("large");
+            }
+        });
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            assertNull(zip.getEntry("nested/"));
+            assertNull(zip.getEntry("nested/a/b/c.xml"));
+            assertNull(zip.getEntry("large.txt"));
+            assertNotNull(zip.getEntry("docs/readme.txt"));
+        }
+    }
+
+    @Test
+    public void testReproducible() throws Exception {
+        File sourceDir = createSourceDir();
+        File zipFile1 = new File(sourceDir.getParentFile(), "test1.zip");
+        File zipFile2 = new File(sourceDir.getParentFile(), "test2.zip");
+        Zips.createZipFile(LOG, sourceDir, zipFile1, null, true);
+        new File(sourceDir, "docs/readme.txt").setLastModified(System.currentTimeMillis() - 3600000L);
+        Zips.createZipFile(LOG, sourceDir, zipFile2, null, true);
+        assertArrayEquals(readBytes(zipFile1), readBytes(zipFile2));
+
+        List<String> names = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(zipFile1)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                names.add(entries.nextElement().getName());
+            }
+        }
+        List<String> sorted = new ArrayList<>(names);
+        Collections.sort(sorted);
+        assertEquals(sorted, names);
+    }
+
+    @Test
+    public void testStoredExtensions() {
+        assertFalse(ParallelZipWriter.isStored("readme.txt"));
+        assertFalse(ParallelZipWriter.isStored("jar"));
+        assertTrue(ParallelZipWriter.isStored("lib/foo.JAR"));
+        assertTrue(ParallelZipWriter.isStored("images/logo.png"));
+    }
+
+    private static File createSourceDir() throws IOException {
+        File dir = java.nio.file.Files.createTempDirectory("zips-test").toFile();
+        File sourceDir = new File(dir, "source");
+        Random random = new Random(1);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("line ").append(i).append(" of the readme\n");
+        }
+        write(new File(sourceDir, "docs/readme.txt"), text.toString().getBytes(StandardCharsets.UTF_8));
+        write(new File(sourceDir, "docs/empty.txt"), new byte[0]);
+        write(new File(sourceDir, "images/logo.png"), randomBytes(random, 1000));
+        write(new File(sourceDir, "nested/a/b/c.xml"), "<c/>".getBytes(StandardCharsets.UTF_8));
+        byte[] large = new byte[ParallelZipWriter.MAX_BUFFERED_FILE_SIZE + 1000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) ('a' + i % 26);
+        }
+        write(new File(sourceDir, "large.txt"), large);
+        write(new File(sourceDir, "lib/large.jar"), randomBytes(random, ParallelZipWriter.MAX_BUFFERED_FILE_SIZE + 1000));
+        new File(sourceDir, "empty").mkdirs();
+        return sourceDir;
+    }
+
+    private static byte[] randomBytes(Random random, int size) {
+        byte[] answer = new byte[size];
+        random.nextBytes(answer);
+        return answer;
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        file.getParentFile().mkdirs();
+        java.nio.file.Files.write(file.toPath(), data);
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        return java.nio.file.Files.readAllBytes(file.toPath());
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.utils.json;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonParserTest {
+
+    @Test
+    public void testTokens() throws IOException {
+        JsonParser parser = new JsonParser(new StringReader("{\"a\": [1, \"x\\ty\", true, null], \"b\": {}}"));
+        assertEquals(JsonToken.START_OBJECT, parser.nextToken());
+        assertEquals(JsonToken.FIELD_NAME, parser.nextToken());
+        assertEquals("a", parser.getText());
+        assertEquals(JsonToken.START_ARRAY, parser.nextToken());
+        assertEquals(JsonToken.VALUE_NUMBER, parser.nextToken());
+        assertEquals(1L, parser.getLongValue());
+        assertEquals(JsonToken.VALUE_STRING, parser.nextToken());
+        assertEquals("x\ty", parser.getText());
+        assertEquals(JsonToken.VALUE_TRUE, parser.nextToken());
+        assertEquals(JsonToken.VALUE_NULL, parser.nextToken());
+        assertEquals(JsonToken.END_ARRAY, parser.nextToken());
+        assertEquals(JsonToken.FIELD_NAME, parser.nextToken());
+        assertEquals(JsonToken.START_OBJECT, parser.nextToken());
+        assertEquals(JsonToken.END_OBJECT, parser.nextToken());
+        assertEquals(JsonToken.END_OBJECT, parser.nextToken());
+        assertNull(parser.nextToken());
+    }
+
+    @Test
+    public void testSkipChildren() throws IOException {
+        JsonParser parser = new JsonParser(new StringReader("[{\"a\": [1, {\"b\": \"c\\\"\"}]}, 2]"));
+        assertEquals(JsonToken.START_ARRAY, parser.nextToken());
+        assertEquals(JsonToken.START_OBJECT, parser.nextToken());
+        parser.skipChildren();
+        assertEquals(JsonToken.END_OBJECT, parser.getCurrentToken());
+        assertEquals(JsonToken.VALUE_NUMBER, parser.nextToken());
+        assertEquals(2.0, parser.getDoubleValue(), 0);
+    }
+
+    @Test
+    public void testReadTree() throws IOException {
+        Map<?, ?> map = (Map<?, ?>) JsonReader.read(new StringReader("{\"a\": [1.5e1, -2], \"b\": {\"c\": \"\\u0041\"}}"));
+        assertEquals(Arrays.asList(15.0, -2.0), map.get("a"));
+        assertEquals("A", ((Map<?, ?>) map.get("b")).get("c"));
+    }
+
+    @Test
+    public void testReadLargeDocument() throws IOException {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < 5000; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("\"value\\n").append(i).append("\"");
+        }
+        builder.append(']');
+        Collection<?> values = (Collection<?>) JsonReader.read(new StringReader(builder.toString()));
+        assertEquals(5000, values.size());
+        assertTrue(values.contains("value\n4999"));
+    }
+
+    @Test
+    public void testErrors() {
+        assertError("", "Unexpected end of input");
+        assertError("[1,]", "Expected value");
+        assertError("{\"a\" 1}", "Expected ':'");
+        assertError("{\"a\":1,}", "Expected name");
+        assertError("[1 2]", "Expected ',' or ']'");
+        assertError("01", "Unexpected character");
+        assertError("\"abc", "Unexpected end of input");
+        // only ASCII hexadecimal digits are allowed in unicode escapes, not e.g. fullwidth or Arabic-Indic digits
+        assertError("\"\\u\uFF10041\"", "Expected hexadecimal digit");
+        assertError("\"\\u\u0660041\"", "Expected hexadecimal digit");
+    }
+
+    @Test
+    public void testPathExtractor() throws IOException {
+        String json = "{\"kind\": \"List\", \"items\": ["
+                + "{\"metadata\": {\"name\": \"a\", \"labels\": {\"app\": \"x\"}}, \"spec\": {\"replicas\": 1}},"
+                + "{\"metadata\": {\"name\": \"b\"}, \"spec\": {\"replicas\": 2}}]}";
+        JsonPathExtractor extractor = new JsonPathExtractor("kind", "items[*].metadata.name", "items[1].spec", "items[0].metadata.labels.*", "missing");
+        Map<String, List<Object>> values = extractor.extract(new StringReader(json));
+        assertEquals(Arrays.<Object>asList("List"), values.get("kind"));
+        assertEquals(Arrays.<Object>asList("a", "b"), values.get("items[*].metadata.name"));
+        assertEquals(2.0, ((Map<?, ?>) values.get("items[1].spec").get(0)).get("replicas"));
+        assertEquals(Arrays.<Object>asList("x"), values.get("items[0].metadata.labels.*"));
+        assertTrue(values.get("missing").isEmpty());
+        assertEquals("b", JsonPathExtractor.extractFirst(new StringReader(json), "items[1].metadata.name"));
+    }
+
+    private static void assertError(String json, String message) {
+        try {
+            JsonReader.read(new StringReader(json));
+            fail("Expected an error reading " + json);
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(message + " at "));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.utils.json;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class Utf8JsonWriterTest {
+
+    @Test
+    public void testStreaming() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Utf8JsonWriter writer = new Utf8JsonWriter(out);
+        writer.beginObject().name("kind").value("List").name("items").beginArray();
+        for (int i = 0; i < 2; i++) {
+            writer.beginObject().name("n").value(i).endObject();
+        }
+        writer.endArray().name("ready").value(true).name("owner").nullValue().endObject().close();
+        assertEquals("{\"kind\":\"List\",\"items\":[{\"n\":0},{\"n\":1}],\"ready\":true,\"owner\":null}", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testEscapesAndUtf8() throws IOException {
+        String value = "a\"b\\c\n\t\u0001 \u00e9 \u4e2d \ud83d\ude00 \u2028";
+        byte[] bytes = Utf8JsonWriter.toByteArray(value);
+        assertEquals("\"a\\\"b\\\\c\\n\\t\\u0001 \u00e9 \u4e2d \ud83d\ude00 \\u2028\"", new String(bytes, "UTF-8"));
+        assertEquals(value, JsonReader.read(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    public void testLongStringsSpanBuffers() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            builder.append(i % 7 == 0 ? '\u00e9' : 'x');
+        }
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("value", builder.toString());
+        map.put("list", Arrays.asList(1.5, "y"));
+        Object result = JsonReader.read(new ByteArrayInputStream(Utf8JsonWriter.toByteArray(map)));
+        assertEquals(map, result);
+    }
+
+    @Test
+    public void testInvalidUsage() throws IOException {
+        try {
+            new Utf8JsonWriter(new ByteArrayOutputStream()).beginObject().value("x");
+            fail("Expected a name to be required");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            new Utf8JsonWriter(new ByteArrayOutputStream()).value(1).value(2);
+            fail("Expected only one top level value");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testWriteAfterClose() throws IOException {
+        Utf8JsonWriter writer = new Utf8JsonWriter(new ByteArrayOutputStream());
+        writer.beginArray().endArray();
+        writer.close();
+        writer.close();
+        try {
+            writer.value("x");
+            fail("Expected the writer to be closed");
+        } catch (IllegalStateException e) {
+            assertEquals("closed", e.getMessage());
+        }
+        try {
+            writer.flush();
+            fail("Expected the writer to be closed");
+        } catch (IllegalStateException e) {
+            assertEquals("closed", e.getMessage());
+        }
+    }
+}
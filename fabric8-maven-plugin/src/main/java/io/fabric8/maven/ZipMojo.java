@@ -77,6 +77,13 @@ public class ZipMojo extends AbstractFabric8Mojo {
     @Parameter(property = "fabric8.zip.includeLegal", defaultValue = "true")
     private boolean includeLegal;
 
+    /**
+     * Whether the app zip files should be reproducible - with the entries in a stable order and a fixed timestamp,
+     * so zipping the same files always gives the same zip file
+     */
+    @Parameter(property = "fabric8.zip.reproducible", defaultValue = "false")
+    private boolean reproducible;
+
     /**
      * Name of the aggregated app zip file
      */
@@ -265,7 +272,7 @@ public class ZipMojo extends AbstractFabric8Mojo {
             if (includeLegal) {
                 legalDir = new File(project.getBuild().getOutputDirectory(), "META-INF");
             }
-            Zips.createZipFile(getLog(), buildDir, outputZipFile, legalDir);
+            Zips.createZipFile(getLog(), buildDir, outputZipFile, legalDir, reproducible);
 
             projectHelper.attachArtifact(project, artifactType, artifactClassifier, outputZipFile);
             getLog().info("Created app zip file: " + outputZipFile);
@@ -637,7 +644,7 @@ public class ZipMojo extends AbstractFabric8Mojo {
             }
         }
 
-        Zips.createZipFile(getLog(), projectBuildDir, projectOutputFile, null);
+        Zips.createZipFile(getLog(), projectBuildDir, projectOutputFile, null, reproducible);
         String relativePath = Files.getRelativePath(projectBaseDir, projectOutputFile);
         while (relativePath.startsWith("/")) {
             relativePath = relativePath.substring(1);
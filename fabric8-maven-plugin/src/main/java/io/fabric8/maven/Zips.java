@@ -23,12 +23,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
+import io.fabric8.utils.ParallelZipWriter;
 import org.apache.maven.plugin.logging.Log;
 
 import static com.google.common.io.Closeables.close;
@@ -39,23 +41,26 @@ public final class Zips {
      * Creates a zip fie from the given source directory and output zip file name
      */
     public static void createZipFile(Log log, File sourceDir, File outputZipFile, File legalDir) throws IOException {
+        createZipFile(log, sourceDir, outputZipFile, legalDir, false);
+    }
+
+    /**
+     * Creates a zip file from the given source directory and output zip file name, compressing the files in parallel.
+     * If reproducible, the entries are sorted and given a fixed timestamp so the same files always give the same zip.
+     */
+    public static void createZipFile(Log log, File sourceDir, File outputZipFile, File legalDir, boolean reproducible) throws IOException {
         outputZipFile.getParentFile().mkdirs();
-        OutputStream os = new FileOutputStream(outputZipFile);
-        ZipOutputStream zos = new ZipOutputStream(os);
-        try {
-            //zos.setLevel(Deflater.DEFAULT_COMPRESSION);
-            //zos.setLevel(Deflater.NO_COMPRESSION);
-            String path = "";
-            FileFilter filter = null;
-            zipDirectory(log, sourceDir, zos, path, filter);
+        List<String> entries = new ArrayList<>();
+        try (ParallelZipWriter writer = new ParallelZipWriter(outputZipFile, reproducible)) {
+            entries.addAll(writer.addDirectory(sourceDir, "", null));
             if (legalDir != null && legalDir.exists() && legalDir.isDirectory()) {
-                zipDirectory(log, legalDir, zos, "META-INF/", new LegalFilter());
+                entries.addAll(writer.addDirectory(legalDir, "META-INF/", new LegalFilter()));
             }
-        } finally {
-            try {
-                zos.close();
-            } catch (Exception e) {
-                // ignore
+            writer.finish();
+        }
+        for (String entry : entries) {
+            if (!entry.endsWith("/")) {
+                log.info("zipping file " + entry);
             }
         }
     }
@@ -154,7 +159,8 @@ public final class Zips {
 
         @Override
         public boolean accept(File pathname) {
-            return pathname.isFile() && (pathname.getName().startsWith("LICENSE") || pathname.getName().startsWith("NOTICE"));
+            // directories are always zipped, so the legal files in them are found
+            return pathname.isDirectory() || pathname.isFile() && (pathname.getName().startsWith("LICENSE") || pathname.getName().startsWith("NOTICE"));
         }
     }
 }